@@ -0,0 +1,82 @@
+package android.graphics;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures what {@link Canvas#save()} and {@link Canvas#restore()} allocate
+ * over one frame of a view hierarchy.
+ *
+ * <p>A frame is drawn the way ViewGroup.drawChild() draws each child: save,
+ * translate to the child, clip to its bounds, draw its children and restore.
+ * The hierarchy has {@link #CHILDREN} children per group, {@link #DEPTH}
+ * levels deep. The frame is timed once with the translate and clip, and
+ * once with save and restore alone, so that what the state stack allocates
+ * is not hidden by what translate() and clipRect() allocate. The bytes
+ * allocated per frame come from the JVM's per-thread allocation counter.
+ *
+ * <p>This is not part of the j2s build. Compile it against the classes of
+ * src/ and run it on a JVM:
+ * <pre>
+ * javac -d out -sourcepath src benchmarks/android/graphics/CanvasSaveRestoreBenchmark.java
+ * java -cp out android.graphics.CanvasSaveRestoreBenchmark
+ * </pre>
+ * The @j2sNative blocks are comments to javac, so no 2D context is involved
+ * and only the Java side of the state stack is measured.
+ */
+public class CanvasSaveRestoreBenchmark {
+    private static final int CHILDREN = 6;
+    private static final int DEPTH = 4;
+    private static final int FRAMES = 2000;
+
+    private static int sSaves;
+
+    public static void main(String[] args) {
+        Canvas canvas = new Canvas("benchmark", null);
+        canvas.setDimension(480, 800);
+        run(canvas, false, "save/restore only");
+        run(canvas, true, "with translate and clip");
+    }
+
+    private static void run(Canvas canvas, boolean transform, String name) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        // Warm up, and let the state stack grow to the deepest nesting.
+        for (int i = 0; i < FRAMES; i++) {
+            drawGroup(canvas, 0, transform);
+        }
+
+        sSaves = 0;
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            drawGroup(canvas, 0, transform);
+        }
+        long time = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+        System.out.println(name + ":");
+        System.out.println("  save/restore pairs per frame: " + sSaves / FRAMES);
+        System.out.println("  bytes allocated per frame:    " + bytes / FRAMES);
+        System.out.println("  bytes allocated per save:     " + bytes / sSaves);
+        System.out.println(String.format("  time per frame:               %.1f us",
+                time / 1000.0 / FRAMES));
+    }
+
+    private static void drawGroup(Canvas canvas, int depth, boolean transform) {
+        if (depth == DEPTH) {
+            return;
+        }
+        for (int i = 0; i < CHILDREN; i++) {
+            int saveCount = canvas.save();
+            sSaves++;
+            if (transform) {
+                canvas.translate(i * 10, 48);
+                canvas.clipRect(0, 0, 400, 48);
+            }
+            drawGroup(canvas, depth + 1, transform);
+            canvas.restoreToCount(saveCount);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package android.text;
+
+/**
+ * Compares the linear span scan of {@link SpannableStringBuilder} with its
+ * span index over a range of span counts, to pick
+ * {@link SpannableStringBuilder#sIndexThreshold}.
+ *
+ * <p>Two workloads are timed. "layout" asks for the spans of every line of a
+ * text and walks its span transitions, the way {@link Layout} draws it.
+ * "typing" inserts a character, moves the selection and lays out the lines
+ * around the cursor, the way an {@link android.widget.EditText} does per key.
+ *
+ * <p>This is not part of the j2s build. Compile it against the classes of
+ * src/ and run it on a JVM:
+ * <pre>
+ * javac -d out -sourcepath src benchmarks/android/text/SpannableStringBuilderBenchmark.java
+ * java -cp out android.text.SpannableStringBuilderBenchmark
+ * </pre>
+ * The absolute times differ from those of a browser, but where the index
+ * starts to pay off is what the threshold is based on.
+ */
+public class SpannableStringBuilderBenchmark {
+    private static final int[] SPAN_COUNTS = {
+        4, 8, 12, 16, 24, 32, 64, 256, 1024, 4096
+    };
+    private static final int LINE_LENGTH = 40;
+    private static final int VISIBLE_LINES = 20;
+
+    private static class StyleSpan {
+    }
+
+    private static class OtherSpan {
+    }
+
+    private static int sSink;
+
+    public static void main(String[] args) {
+        System.out.println("spans    layout scan/index (us)    typing scan/index (us)");
+        for (int round = 0; round < 2; round++) {
+            // The first round only warms up the JIT.
+            boolean print = round == 1;
+            for (int count : SPAN_COUNTS) {
+                double layoutScan = time(count, Integer.MAX_VALUE, false);
+                double layoutIndex = time(count, 0, false);
+                double typingScan = time(count, Integer.MAX_VALUE, true);
+                double typingIndex = time(count, 0, true);
+                if (print) {
+                    System.out.println(String.format("%5d    %8.2f / %8.2f       %8.2f / %8.2f",
+                            count, layoutScan, layoutIndex, typingScan, typingIndex));
+                }
+            }
+        }
+        SpannableStringBuilder.sIndexThreshold = 16;
+        if (sSink == 42) {
+            System.out.println();
+        }
+    }
+
+    /** Returns the microseconds per operation of a workload. */
+    private static double time(int spanCount, int threshold, boolean typing) {
+        SpannableStringBuilder.sIndexThreshold = threshold;
+        SpannableStringBuilder text = build(spanCount);
+        int iterations = Math.max(20, 200000 / (spanCount + 64));
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (typing) {
+                type(text, i);
+            } else {
+                layout(text, 0, text.length());
+            }
+        }
+        return (System.nanoTime() - start) / 1000.0 / iterations;
+    }
+
+    /**
+     * Builds a text with two spans per line, a style span over most of it
+     * and a short one over a word, the density of a formatted message.
+     */
+    private static SpannableStringBuilder build(int spanCount) {
+        int lines = Math.max(VISIBLE_LINES, spanCount / 2);
+        StringBuilder chars = new StringBuilder(lines * LINE_LENGTH);
+        for (int i = 0; i < lines; i++) {
+            for (int j = 0; j < LINE_LENGTH - 1; j++) {
+                chars.append(j % 6 == 5 ? ' ' : 'a');
+            }
+            chars.append('\n');
+        }
+        SpannableStringBuilder text = new SpannableStringBuilder(chars);
+        for (int i = 0; i < spanCount; i++) {
+            int line = (i / 2) * LINE_LENGTH;
+            if (i % 2 == 0) {
+                text.setSpan(new StyleSpan(), line + 2, line + LINE_LENGTH - 4,
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            } else {
+                text.setSpan(new OtherSpan(), line + 12, line + 17,
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        }
+        Selection.setSelection(text, 0);
+        return text;
+    }
+
+    private static void layout(SpannableStringBuilder text, int start, int end) {
+        for (int line = start; line < end; line += LINE_LENGTH) {
+            int lineEnd = Math.min(end, line + LINE_LENGTH);
+            sSink += text.getSpans(line, lineEnd, StyleSpan.class).length;
+            for (int i = line; i < lineEnd; i = text.nextSpanTransition(i, lineEnd, StyleSpan.class)) {
+                sSink += text.getSpans(i, i + 1, OtherSpan.class).length;
+            }
+        }
+    }
+
+    private static void type(SpannableStringBuilder text, int i) {
+        int cursor = (i * 7919) % (text.length() - LINE_LENGTH);
+        text.insert(cursor, "b");
+        text.delete(cursor, cursor + 1);
+        Selection.setSelection(text, cursor + 1);
+        int first = Math.max(0, cursor - cursor % LINE_LENGTH - VISIBLE_LINES / 2 * LINE_LENGTH);
+        layout(text, first, Math.min(text.length(), first + VISIBLE_LINES * LINE_LENGTH));
+    }
+}
@@ -18,7 +18,9 @@ import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ProviderInfo;
 import android.content.res.Configuration;
+import android.content.res.DrawableCache;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.Handler;
@@ -652,8 +654,7 @@ public class ActivityThread {
                     Log.e(TAG, "DumpService is not handled now!");
                     break;
                 case LOW_MEMORY:
-                    // handleLowMemory();
-                    Log.e(TAG, "LowMemory is not handled now!");
+                    handleLowMemory();
                     break;
                 case ACTIVITY_CONFIGURATION_CHANGED:
                     // handleActivityConfigurationChanged((IBinder)msg.obj);
@@ -1795,6 +1796,14 @@ public class ActivityThread {
         }
     }
 
+    final void handleLowMemory() {
+        // Cached drawables and purgeable bitmaps can be decoded again from
+        // their encoded data
+        DrawableCache.trimMemory(DrawableCache.TRIM_MEMORY_COMPLETE);
+        Bitmap.trimPurgeableBitmaps(0);
+        Canvas.freeCaches();
+    }
+
 	private final void deliverResults(ActivityClientRecord r,
 			List<ResultInfo> results) {
 		final int N = results.size();
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 
 import com.intel.mpt.annotation.MayloonStubAnnotation;
 
@@ -91,6 +92,7 @@ public abstract class ContentProvider {
     private String mWritePermission;
     //private PathPermission[] mPathPermissions;
     private boolean mExported;
+    private ContentQueryCache mQueryCache;
 
     //private Transport mTransport = new Transport();
 
@@ -309,10 +311,51 @@ public abstract class ContentProvider {
 
     public abstract Uri insert(Uri uri, ContentValues values);
 
+    /**
+     * Turns on caching of {@link #query} results for this provider. Identical
+     * queries made through {@link ContentResolver} are then answered from the
+     * cache until an insert, update or delete through ContentResolver touches
+     * the same table, or a change notification covers the query's URI. Only
+     * enable this if every change to the data is made or announced that way.
+     *
+     * @param maxEntries the number of distinct queries to keep
+     */
+    protected final void enableQueryCache(int maxEntries) {
+        if (mQueryCache == null) {
+            mQueryCache = new ContentQueryCache(this, maxEntries);
+        }
+    }
+
+    /**
+     * @return the query cache of this provider, or null if
+     *         {@link #enableQueryCache} has not been called
+     * @hide
+     */
+    public final ContentQueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
+    /**
+     * Returns the table that a URI of this provider reads and writes, used to
+     * invalidate the query cache on writes. The default takes the first path
+     * segment, which matches the usual content://authority/table/id layout.
+     * Return null to invalidate the whole cache on every write.
+     *
+     * @param uri a content URI of this provider
+     * @return the table name, or null if it cannot be determined
+     */
+    protected String getTableForUri(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.isEmpty() ? null : segments.get(0);
+    }
+
     /**
      * Override this to handle requests to insert a set of new rows, or the
      * default implementation will iterate over the values and call
-     * {@link #insert} on each of them.
+     * {@link #insert} on each of them. Providers backed by a
+     * {@link android.database.sqlite.SQLiteDatabase} should override this with
+     * {@link android.database.sqlite.SQLiteDatabase#bulkInsert}, which inserts
+     * the whole set in one savepoint.
      * As a courtesy, call {@link ContentResolver#notifyChange(android.net.Uri ,android.database.ContentObserver) notifyChange()}
      * after inserting.
      * This method can be called from multiple threads, as described in
@@ -325,10 +368,16 @@ public abstract class ContentProvider {
      */
     public int bulkInsert(Uri uri, ContentValues[] values) {
         int numValues = values.length;
+        int inserted = 0;
         for (int i = 0; i < numValues; i++) {
-            insert(uri, values[i]);
+            // A row skipped by e.g. CONFLICT_IGNORE comes back as null, or
+            // as a uri whose id is -1
+            Uri rowUri = insert(uri, values[i]);
+            if (rowUri != null && !"-1".equals(rowUri.getLastPathSegment())) {
+                inserted++;
+            }
         }
-        return numValues;
+        return inserted;
     }
 
     /**
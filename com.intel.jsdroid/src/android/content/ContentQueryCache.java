@@ -0,0 +1,380 @@
+package android.content;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Base64;
+import android.util.Log;
+
+/**
+ * Per-provider cache of query results, enabled with
+ * {@link ContentProvider#enableQueryCache(int)}.
+ *
+ * <p>Results are keyed by (uri, projection, selection, selectionArgs,
+ * sortOrder) and kept as row snapshots, so every caller gets an independent
+ * cursor over them. Writes made through {@link ContentResolver} invalidate the
+ * entries of the written table, and {@link ContentService#notifyChange}
+ * invalidates the entries whose URI is a prefix of the changed URI or the other
+ * way round. A cursor handed out by the cache watches its query URI and
+ * re-reads through the cache when it is requeried.
+ *
+ * @hide
+ */
+public final class ContentQueryCache {
+    private static final String TAG = "ContentQueryCache";
+    private static final boolean DEBUG = false;
+
+    /** Every enabled cache, so that ContentService can invalidate them */
+    private static final ArrayList<ContentQueryCache> sCaches = new ArrayList<ContentQueryCache>();
+
+    private final ContentProvider mProvider;
+    private final EntryMap mEntries;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mInvalidationCount;
+
+    private static final class Entry {
+        final Uri uri;
+        final String table;
+        final String[] columns;
+        /**
+         * Row-major values, stored as strings the way {@link android.database.CursorWindow}
+         * keeps them; null stands for SQL NULL
+         */
+        final String[] values;
+        final int rowCount;
+
+        Entry(Uri uri, String table, String[] columns, String[] values, int rowCount) {
+            this.uri = uri;
+            this.table = table;
+            this.columns = columns;
+            this.values = values;
+            this.rowCount = rowCount;
+        }
+    }
+
+    /** Access-ordered map that drops its least recently used entry when full */
+    private static final class EntryMap extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        private final int mMaxEntries;
+
+        EntryMap(int maxEntries) {
+            super(16, 0.75f, true);
+            mMaxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > mMaxEntries;
+        }
+    }
+
+    /* package */ ContentQueryCache(ContentProvider provider, int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        mProvider = provider;
+        mEntries = new EntryMap(maxEntries);
+        synchronized (sCaches) {
+            sCaches.add(this);
+        }
+    }
+
+    /**
+     * Returns a cursor over the result of the query, running it on the
+     * provider only if no valid cached result exists.
+     */
+    /* package */ Cursor query(ContentResolver resolver, Uri uri, String[] projection,
+            String selection, String[] selectionArgs, String sortOrder) {
+        Entry entry = load(uri, projection, selection, selectionArgs, sortOrder);
+        if (entry == null) {
+            return null;
+        }
+        return new CachedCursor(resolver, entry, projection, selection, selectionArgs, sortOrder);
+    }
+
+    private synchronized Entry load(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        String key = makeKey(uri, projection, selection, selectionArgs, sortOrder);
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            mHitCount++;
+            return entry;
+        }
+        mMissCount++;
+        Cursor cursor = mProvider.query(uri, projection, selection, selectionArgs, sortOrder);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            entry = snapshot(uri, mProvider.getTableForUri(uri), cursor);
+        } finally {
+            cursor.close();
+        }
+        mEntries.put(key, entry);
+        return entry;
+    }
+
+    private static Entry snapshot(Uri uri, String table, Cursor cursor) {
+        String[] columns = cursor.getColumnNames();
+        int columnCount = columns.length;
+        int rowCount = cursor.getCount();
+        String[] values = new String[rowCount * columnCount];
+        int index = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < columnCount; i++) {
+                values[index++] = cursor.isNull(i) ? null : cursor.getString(i);
+            }
+        }
+        return new Entry(uri, table, columns, values, rowCount);
+    }
+
+    /**
+     * Reads a stored value as an integer the way SQLite coerces it: a REAL
+     * such as "3.0" is truncated, and text that is not a number reads as 0.
+     */
+    private static long toLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return (long) toDouble(value);
+        }
+    }
+
+    private static double toDouble(String value) {
+        if (value == null) {
+            return 0.0d;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0.0d;
+        }
+    }
+
+    private static String makeKey(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        StringBuilder key = new StringBuilder(128);
+        key.append(uri.toString());
+        appendArray(key, projection);
+        key.append('\u0001').append(selection == null ? "\u0000" : selection);
+        appendArray(key, selectionArgs);
+        key.append('\u0001').append(sortOrder == null ? "\u0000" : sortOrder);
+        return key.toString();
+    }
+
+    private static void appendArray(StringBuilder key, String[] array) {
+        key.append('\u0001');
+        if (array == null) {
+            key.append('\u0000');
+            return;
+        }
+        for (int i = 0; i < array.length; i++) {
+            key.append(array[i]).append('\u0002');
+        }
+    }
+
+    /**
+     * Drops every entry read from <code>table</code>. A null table drops
+     * everything.
+     */
+    public synchronized void invalidateTable(String table) {
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (table == null || entry.table == null || table.equals(entry.table)) {
+                it.remove();
+                mInvalidationCount++;
+            }
+        }
+        if (DEBUG) Log.v(TAG, "invalidated table " + table + ", " + getStats());
+    }
+
+    /**
+     * Drops every entry whose URI is a path prefix of <code>uri</code>, or of
+     * which <code>uri</code> is a path prefix.
+     */
+    public synchronized void invalidateUri(Uri uri) {
+        String changed = uri.toString();
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            String cached = entry.uri.toString();
+            if (isPathPrefix(changed, cached) || isPathPrefix(cached, changed)) {
+                it.remove();
+                mInvalidationCount++;
+            }
+        }
+        if (DEBUG) Log.v(TAG, "invalidated " + uri + ", " + getStats());
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public synchronized void clear() {
+        mInvalidationCount += mEntries.size();
+        mEntries.clear();
+    }
+
+    private static boolean isPathPrefix(String prefix, String uri) {
+        if (!uri.startsWith(prefix)) {
+            return false;
+        }
+        if (uri.length() == prefix.length() || prefix.endsWith("/")) {
+            return true;
+        }
+        char next = uri.charAt(prefix.length());
+        return next == '/' || next == '?' || next == '#';
+    }
+
+    /**
+     * Called by {@link ContentService} for every change notification.
+     */
+    /* package */ static void invalidateAll(Uri uri) {
+        synchronized (sCaches) {
+            final int N = sCaches.size();
+            for (int i = 0; i < N; i++) {
+                sCaches.get(i).invalidateUri(uri);
+            }
+        }
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getInvalidationCount() {
+        return mInvalidationCount;
+    }
+
+    /**
+     * @return the fraction of lookups served from the cache, or 0 if there
+     *         have been none
+     */
+    public synchronized float getHitRate() {
+        int lookups = mHitCount + mMissCount;
+        return lookups == 0 ? 0f : (float) mHitCount / lookups;
+    }
+
+    public synchronized String getStats() {
+        return "hits=" + mHitCount + " misses=" + mMissCount
+                + " invalidations=" + mInvalidationCount + " entries=" + mEntries.size();
+    }
+
+    /**
+     * A private cursor over a cached snapshot. Requerying reloads the snapshot
+     * through the cache, so a change notification followed by requery() sees
+     * fresh rows.
+     */
+    private final class CachedCursor extends AbstractCursor {
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+        private Entry mEntry;
+
+        CachedCursor(ContentResolver resolver, Entry entry, String[] projection,
+                String selection, String[] selectionArgs, String sortOrder) {
+            mEntry = entry;
+            mProjection = projection;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+            if (resolver != null) {
+                setNotificationUri(resolver, entry.uri);
+            }
+        }
+
+        @Override
+        public boolean requery() {
+            Entry entry = load(mEntry.uri, mProjection, mSelection, mSelectionArgs, mSortOrder);
+            if (entry == null) {
+                return false;
+            }
+            mEntry = entry;
+            mPos = -1;
+            return super.requery();
+        }
+
+        private String get(int column) {
+            if (column < 0 || column >= mEntry.columns.length) {
+                throw new IllegalArgumentException("Requested column: " + column
+                        + ", # of columns: " + mEntry.columns.length);
+            }
+            if (mPos < 0 || mPos >= mEntry.rowCount) {
+                throw new IllegalStateException("Cursor position out of range: " + mPos);
+            }
+            return mEntry.values[mPos * mEntry.columns.length + column];
+        }
+
+        @Override
+        public int getCount() {
+            return mEntry.rowCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mEntry.columns;
+        }
+
+        @Override
+        public String getString(int column) {
+            return get(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) toLong(get(column));
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) toLong(get(column));
+        }
+
+        @Override
+        public long getLong(int column) {
+            return toLong(get(column));
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) toDouble(get(column));
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return toDouble(get(column));
+        }
+
+        /**
+         * Blobs come out of the engine Base64 encoded, so decode them the same
+         * way {@link android.database.CursorWindow#getBlob} does.
+         */
+        @Override
+        public byte[] getBlob(int column) {
+            String value = get(column);
+            return value == null ? null : Base64.decode(value, Base64.DEFAULT);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+}
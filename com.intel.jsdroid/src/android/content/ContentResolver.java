@@ -36,6 +36,7 @@ import android.database.CursorWrapper;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -234,7 +235,10 @@ public abstract class ContentResolver {
             return null;
         }
         try {
-            Cursor qCursor = provider.query(uri, projection, selection, selectionArgs, sortOrder);
+            ContentQueryCache cache = provider.getQueryCache();
+            Cursor qCursor = cache != null
+                    ? cache.query(this, uri, projection, selection, selectionArgs, sortOrder)
+                    : provider.query(uri, projection, selection, selectionArgs, sortOrder);
             if (qCursor == null) {
                 releaseProvider(provider);
                 return null;
@@ -249,6 +253,16 @@ public abstract class ContentResolver {
         }
     }
 
+    /**
+     * Drops the provider's cached results for the table a write went to.
+     */
+    private static void invalidateQueryCache(ContentProvider provider, Uri uri) {
+        ContentQueryCache cache = provider.getQueryCache();
+        if (cache != null) {
+            cache.invalidateTable(provider.getTableForUri(uri));
+        }
+    }
+
     private final class CursorWrapperInner extends CursorWrapper {
         private ContentProvider mContentProvider;
         public static final String TAG="CursorWrapperInner";
@@ -327,6 +341,7 @@ public abstract class ContentResolver {
         }
         try {
             Uri createdRow = provider.insert(url, values);
+            invalidateQueryCache(provider, url);
             return createdRow;
         } catch (Exception e) {
             // Arbitrary and not worth documenting, as Activity
@@ -381,24 +396,25 @@ public abstract class ContentResolver {
      */
     public final int bulkInsert(Uri url, ContentValues[] values)
     {
-//        ContentProvider provider = acquireProvider(url);
-//        if (provider == null) {
-//            throw new IllegalArgumentException("Unknown URL " + url);
-//        }
-//        try {
-//            long startTime = SystemClock.uptimeMillis();
-//            int rowsCreated = provider.bulkInsert(url, values);
-//            long durationMillis = SystemClock.uptimeMillis() - startTime;
-//            maybeLogUpdateToEventLog(durationMillis, url, "bulkinsert", null /* where */);
-//            return rowsCreated;
-//        } catch (Exception e) {
-//            // Arbitrary and not worth documenting, as Activity
-//            // Manager will kill this process shortly anyway.
-//            return 0;
-//        } finally {
-//            releaseProvider(provider);
-//        }
-    	return 0;
+        ContentProvider provider = acquireProvider(url);
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown URL " + url);
+        }
+        try {
+            long startTime = SystemClock.uptimeMillis();
+            int rowsCreated = provider.bulkInsert(url, values);
+            invalidateQueryCache(provider, url);
+            long durationMillis = SystemClock.uptimeMillis() - startTime;
+            if (DEBUG_PROVIDER) System.out.println(TAG + ": bulkInsert of " + rowsCreated
+                    + " rows into " + url + " took " + durationMillis + "ms");
+            return rowsCreated;
+        } catch (Exception e) {
+            // Arbitrary and not worth documenting, as Activity
+            // Manager will kill this process shortly anyway.
+            return 0;
+        } finally {
+            releaseProvider(provider);
+        }
     }
 
     /**
@@ -419,6 +435,7 @@ public abstract class ContentResolver {
         }
         try {
             int rowsDeleted = provider.delete(url, where, selectionArgs);
+            invalidateQueryCache(provider, url);
             return rowsDeleted;
         } catch (Exception e) {
             // Arbitrary and not worth documenting, as Activity
@@ -450,6 +467,7 @@ public abstract class ContentResolver {
         }
         try {
             int rowsUpdated = provider.update(uri, values, where, selectionArgs);
+            invalidateQueryCache(provider, uri);
             return rowsUpdated;
         } catch (Exception e) {
             return -1;
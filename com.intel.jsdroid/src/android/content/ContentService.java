@@ -1,9 +1,13 @@
 package android.content;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 import android.database.ContentObserver;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
 
@@ -19,6 +23,22 @@ public class ContentService {
     private Context mContext;
     private static ContentService instance;
     private final ObserverNode mRootNode = new ObserverNode("");
+
+    // Change notifications are collapsed per observer and delivered from the
+    // message loop once the notifying code, or the enclosing batch, is done.
+    private Handler mHandler;
+    private final LinkedHashMap<ContentObserver, ObserverCall> mPendingCalls =
+            new LinkedHashMap<ContentObserver, ObserverCall>();
+    private final HashMap<ContentObserver, Long> mLastDeliveryTimes =
+            new HashMap<ContentObserver, Long>();
+    private int mBatchDepth = 0;
+    private long mScheduledFlushTime = -1;
+    private final Runnable mFlushRunnable = new Runnable() {
+        public void run() {
+            mScheduledFlushTime = -1;
+            flushPendingCalls();
+        }
+    };
     /*package*/ ContentService(Context context) {
         mContext = context;
     }
@@ -55,6 +75,9 @@ public class ContentService {
             boolean observerWantsSelfNotifications, boolean syncToNetwork) {
     	if(DEBUG) System.out.println(TAG+"Notify change...");
 
+        // Cached provider queries under this uri are stale now
+        ContentQueryCache.invalidateAll(uri);
+
         ArrayList<ObserverCall> calls = new ArrayList<ObserverCall>();
         
         mRootNode.collectObserversLocked(uri, 0, observer, observerWantsSelfNotifications,
@@ -62,10 +85,89 @@ public class ContentService {
         final int numCalls = calls.size();
         for (int i=0; i<numCalls; i++) {
             ObserverCall oc = calls.get(i);
+            ObserverCall pending = mPendingCalls.get(oc.mObserver);
+            if (pending == null) {
+                mPendingCalls.put(oc.mObserver, oc);
+            } else if (pending.mSelfNotify && !oc.mSelfNotify) {
+                // A change from someone else outweighs a self change
+                mPendingCalls.put(oc.mObserver, oc);
+            }
+        }
+        if (DEBUG) {
+            Log.v(TAG, "Queued " + numCalls + " observers for update at " + uri);
+        }
+        if (numCalls > 0 && mBatchDepth == 0) {
+            scheduleFlush(0);
+        }
+    }
+
+    /**
+     * Holds back change notifications until the matching {@link #endBatch()}.
+     * Batches nest; SQLiteDatabase opens one for every transaction.
+     * @hide
+     */
+    public void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Ends a batch started with {@link #beginBatch()} and, if it was the
+     * outermost one, delivers the notifications it collected.
+     * @hide
+     */
+    public void endBatch() {
+        if (mBatchDepth == 0) {
+            Log.w(TAG, "endBatch() without beginBatch()");
+            return;
+        }
+        mBatchDepth--;
+        if (mBatchDepth == 0 && !mPendingCalls.isEmpty()) {
+            scheduleFlush(0);
+        }
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        long when = SystemClock.uptimeMillis() + delayMillis;
+        if (mScheduledFlushTime >= 0 && mScheduledFlushTime <= when) {
+            return;
+        }
+        if (mHandler == null) {
+            mHandler = new Handler();
+        }
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.postDelayed(mFlushRunnable, delayMillis);
+        mScheduledFlushTime = when;
+    }
+
+    private void flushPendingCalls() {
+        if (mBatchDepth > 0 || mPendingCalls.isEmpty()) {
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        long nextDelay = -1;
+        ArrayList<ObserverCall> calls = new ArrayList<ObserverCall>(mPendingCalls.values());
+        mPendingCalls.clear();
+        final int numCalls = calls.size();
+        for (int i=0; i<numCalls; i++) {
+            ObserverCall oc = calls.get(i);
+            long interval = oc.mObserver.getMinDeliveryInterval();
+            if (interval > 0) {
+                Long last = mLastDeliveryTimes.get(oc.mObserver);
+                if (last != null && now - last.longValue() < interval) {
+                    // Too soon, keep it for later
+                    mPendingCalls.put(oc.mObserver, oc);
+                    long delay = last.longValue() + interval - now;
+                    if (nextDelay < 0 || delay < nextDelay) {
+                        nextDelay = delay;
+                    }
+                    continue;
+                }
+                mLastDeliveryTimes.put(oc.mObserver, Long.valueOf(now));
+            }
             try {
                 oc.mObserver.onChange(oc.mSelfNotify);
                 if (DEBUG) {
-                    Log.v(TAG, "Notified " + oc.mObserver + " of " + "update at " + uri);
+                    Log.v(TAG, "Notified " + oc.mObserver);
                 }
             } catch (Exception ex) {
                 //Remove dead observers
@@ -81,7 +183,10 @@ public class ContentService {
                     }
                 }
             }
-        }    
+        }
+        if (nextDelay >= 0) {
+            scheduleFlush(nextDelay);
+        }
     }
     public static final class ObserverNode {
     	private String mName;
@@ -224,6 +329,8 @@ public class ContentService {
         }
         
         mRootNode.removeObserverLocked(observer);
+        mPendingCalls.remove(observer);
+        mLastDeliveryTimes.remove(observer);
         if (DEBUG) Log.v(TAG, "Unregistered observer " + observer);
     
 		
@@ -0,0 +1,246 @@
+package android.content.res;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.NinePatchDrawable;
+import android.util.Log;
+
+/**
+ * Process-wide cache of the drawables loaded by {@link Resources}, shared by
+ * every Resources instance.
+ *
+ * <p>Entries are kept in least recently used order and accounted in bytes of
+ * decoded pixels. Once the total exceeds the budget, the least recently used
+ * entries are dropped. An entry whose drawable is attached to a window is
+ * pinned and is never dropped, since its pixels stay alive anyway and
+ * decoding it again would only double them.
+ *
+ * <p>Keys include the target density, so that Resources with different
+ * display metrics never share a bitmap scaled for the other.
+ *
+ * @hide
+ */
+public final class DrawableCache {
+    private static final String TAG = "DrawableCache";
+    private static final boolean DEBUG = false;
+
+    /** Same value as ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN */
+    public static final int TRIM_MEMORY_UI_HIDDEN = 20;
+    /** Same value as ComponentCallbacks2.TRIM_MEMORY_COMPLETE */
+    public static final int TRIM_MEMORY_COMPLETE = 80;
+
+    /** What an entry without pixels of its own, e.g. a color, is charged */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private static int sMaxSize = 12 * 1024 * 1024;
+    private static int sSize = 0;
+    private static int sHitCount;
+    private static int sMissCount;
+    private static int sEvictionCount;
+
+    private static final LinkedHashMap<String, Entry> sEntries =
+            new LinkedHashMap<String, Entry>(32, 0.75f, true);
+    private static final HashMap<Drawable.ConstantState, Entry> sEntriesByState =
+            new HashMap<Drawable.ConstantState, Entry>();
+
+    private static final class Entry {
+        final String key;
+        final Drawable.ConstantState state;
+        final int size;
+        int pinCount;
+
+        Entry(String key, Drawable.ConstantState state, int size) {
+            this.key = key;
+            this.state = state;
+            this.size = size;
+        }
+    }
+
+    private DrawableCache() {
+    }
+
+    /**
+     * Builds the key of a drawable file as loaded for <code>densityDpi</code>.
+     */
+    static String makeKey(String cookieName, String file, int densityDpi) {
+        return cookieName + file + '@' + densityDpi;
+    }
+
+    /**
+     * @return the cached state for <code>key</code>, or null
+     */
+    static Drawable.ConstantState get(String key) {
+        if (key == null) {
+            return null;
+        }
+        synchronized (sEntries) {
+            Entry entry = sEntries.get(key);
+            if (entry == null) {
+                sMissCount++;
+                return null;
+            }
+            sHitCount++;
+            return entry.state;
+        }
+    }
+
+    /**
+     * Caches the state of a freshly loaded drawable, then trims the cache
+     * back to its budget.
+     */
+    static void put(String key, Drawable dr) {
+        Drawable.ConstantState state = dr.getConstantState();
+        if (key == null || state == null) {
+            return;
+        }
+        Entry entry = new Entry(key, state, sizeOf(dr));
+        synchronized (sEntries) {
+            Entry old = sEntries.put(key, entry);
+            if (old != null) {
+                sEntriesByState.remove(old.state);
+                sSize -= old.size;
+                entry.pinCount = old.pinCount;
+            }
+            sEntriesByState.put(state, entry);
+            sSize += entry.size;
+            trimToSizeLocked(sMaxSize);
+        }
+    }
+
+    private static int sizeOf(Drawable dr) {
+        if (dr instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) dr).getBitmap();
+            if (bitmap != null) {
+                return bitmap.getWidth() * bitmap.getHeight() * 4 + ENTRY_OVERHEAD;
+            }
+        } else if (dr instanceof NinePatchDrawable) {
+            int width = dr.getIntrinsicWidth();
+            int height = dr.getIntrinsicHeight();
+            if (width > 0 && height > 0) {
+                return width * height * 4 + ENTRY_OVERHEAD;
+            }
+        }
+        return ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Keeps the entry of <code>state</code>, if it is cached, from being
+     * dropped until a matching {@link #unpin} call. Views pin their
+     * background while they are attached to a window.
+     */
+    public static void pin(Drawable.ConstantState state) {
+        if (state == null) {
+            return;
+        }
+        synchronized (sEntries) {
+            Entry entry = sEntriesByState.get(state);
+            if (entry != null) {
+                entry.pinCount++;
+            }
+        }
+    }
+
+    /**
+     * Reverses a {@link #pin} call.
+     */
+    public static void unpin(Drawable.ConstantState state) {
+        if (state == null) {
+            return;
+        }
+        synchronized (sEntries) {
+            Entry entry = sEntriesByState.get(state);
+            if (entry != null && entry.pinCount > 0) {
+                entry.pinCount--;
+            }
+        }
+    }
+
+    /**
+     * Sets the budget in bytes of decoded pixels, and trims the cache to it.
+     */
+    public static void setMaxSize(int maxBytes) {
+        synchronized (sEntries) {
+            sMaxSize = maxBytes;
+            trimToSizeLocked(maxBytes);
+        }
+    }
+
+    public static int getMaxSize() {
+        synchronized (sEntries) {
+            return sMaxSize;
+        }
+    }
+
+    /**
+     * Drops least recently used entries that are not pinned until the cache
+     * holds at most <code>maxBytes</code>.
+     */
+    public static void trimToSize(int maxBytes) {
+        synchronized (sEntries) {
+            trimToSizeLocked(maxBytes);
+        }
+    }
+
+    /**
+     * Releases memory the way an application would in onTrimMemory():
+     * half of the budget once the UI is hidden, every unpinned entry at
+     * {@link #TRIM_MEMORY_COMPLETE}.
+     */
+    public static void trimMemory(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            trimToSize(0);
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            trimToSize(getMaxSize() / 2);
+        }
+    }
+
+    private static void trimToSizeLocked(int maxBytes) {
+        Iterator<Entry> it = sEntries.values().iterator();
+        while (sSize > maxBytes && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.pinCount > 0) {
+                continue;
+            }
+            it.remove();
+            sEntriesByState.remove(entry.state);
+            sSize -= entry.size;
+            sEvictionCount++;
+            NinePatchDrawable.releaseComposites(entry.state);
+            if (DEBUG) Log.v(TAG, "evicted " + entry.key + " (" + entry.size + " bytes)");
+        }
+    }
+
+    /**
+     * Drops every entry, pinned or not, e.g. after a configuration change.
+     */
+    public static void clear() {
+        synchronized (sEntries) {
+            sEvictionCount += sEntries.size();
+            for (Entry entry : sEntries.values()) {
+                NinePatchDrawable.releaseComposites(entry.state);
+            }
+            sEntries.clear();
+            sEntriesByState.clear();
+            sSize = 0;
+        }
+    }
+
+    public static int size() {
+        synchronized (sEntries) {
+            return sSize;
+        }
+    }
+
+    public static String getStats() {
+        synchronized (sEntries) {
+            return "size=" + sSize + "/" + sMaxSize + " entries=" + sEntries.size()
+                    + " hits=" + sHitCount + " misses=" + sMissCount
+                    + " evictions=" + sEvictionCount;
+        }
+    }
+}
@@ -3,7 +3,6 @@ package android.content.res;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -32,9 +31,7 @@ public class Resources {
     private static final int sSdkVersion = VERSION.SDK_INT
             + ("REL".equals(VERSION.CODENAME) ? 0 : 1);
 
-    // These are protected by the mTmpValue lock.
-    private static final HashMap<String, WeakReference<Drawable.ConstantState> > mDrawableCache
-            = new HashMap<String, WeakReference<Drawable.ConstantState> >();
+    // Loaded drawables are kept in the process-wide DrawableCache.
     private final SparseArray<WeakReference<ColorStateList> > mColorStateListCache
     = new SparseArray<WeakReference<ColorStateList> >();
     
@@ -548,7 +545,7 @@ public class Resources {
         String key = null;
         String cookieName = mAssets.getCookieName(value.assetCookie);
         if (cookieName != null && value.string != null) {
-            key = cookieName + value.string;
+            key = DrawableCache.makeKey(cookieName, value.string.toString(), mMetrics.densityDpi);
         }
         Drawable dr = getCachedDrawable(key);
 
@@ -619,7 +616,7 @@ public class Resources {
                         //Log.i(TAG, "Saving cached drawable @ #" +
                         //        Integer.toHexString(key.intValue())
                         //        + " in " + this + ": " + cs);
-                        mDrawableCache.put(key, new WeakReference<Drawable.ConstantState> (cs));
+                        DrawableCache.put(key, dr);
                     }
                 }
             }
@@ -629,20 +626,12 @@ public class Resources {
     }
 
     private Drawable getCachedDrawable(String key) {
-        synchronized (mTmpValue) {
-            WeakReference<Drawable.ConstantState> wr = mDrawableCache.get(key);
-            if (wr != null) {   // we have the key
-                Drawable.ConstantState entry = wr.get();
-                if (entry != null) {
-                    //Log.i(TAG, "Returning cached drawable @ #" +
-                    //        Integer.toHexString(((Integer)key).intValue())
-                    //        + " in " + this + ": " + entry);
-                    return entry.newDrawable(this);
-                }
-                else {  // our entry has been purged
-                    //mDrawableCache.remove(key);
-                }
-            }
+        Drawable.ConstantState entry = DrawableCache.get(key);
+        if (entry != null) {
+            //Log.i(TAG, "Returning cached drawable @ #" +
+            //        Integer.toHexString(((Integer)key).intValue())
+            //        + " in " + this + ": " + entry);
+            return entry.newDrawable(this);
         }
         return null;
     }
@@ -31,6 +31,8 @@ public abstract class ContentObserver {
 
     /* package */ Handler mHandler;
 
+    private long mMinDeliveryInterval = 0;
+
     private final class NotificationRunnable implements Runnable {
 
         private boolean mSelf;
@@ -99,6 +101,29 @@ public abstract class ContentObserver {
         return this;
     }
 
+    /**
+     * Sets the minimum time between two calls to {@link #onChange}. Changes
+     * that arrive sooner are collapsed into a single call made once the
+     * interval has passed. The default of 0 delivers changes as soon as the
+     * notifying code has finished.
+     *
+     * @param intervalMillis the minimum delivery interval in milliseconds
+     */
+    public void setMinDeliveryInterval(long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("intervalMillis must not be negative");
+        }
+        mMinDeliveryInterval = intervalMillis;
+    }
+
+    /**
+     * @return the minimum time between two calls to {@link #onChange}
+     * @see #setMinDeliveryInterval(long)
+     */
+    public long getMinDeliveryInterval() {
+        return mMinDeliveryInterval;
+    }
+
     /**
      * Returns true if this observer is interested in notifications for changes
      * made through the cursor the observer is registered with.
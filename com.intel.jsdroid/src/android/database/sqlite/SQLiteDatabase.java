@@ -30,11 +30,16 @@ import java.util.regex.Pattern;
 
 import com.intel.mpt.annotation.MayloonStubAnnotation;
 
+import android.content.ContentService;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.SQLException;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
 
 /**
  * Exposes methods to manage a SQLite database.
@@ -243,6 +248,18 @@ public class SQLiteDatabase extends SQLiteClosable {
     
     private CursorFactory mFactory;
 
+    private static final int ENGINE_NOT_LOADED = 0;
+    private static final int ENGINE_LOADING = 1;
+    private static final int ENGINE_LOADED = 2;
+
+    /** Whether the sql.js engine class has been fetched and evaluated */
+    private static int sEngineState = ENGINE_NOT_LOADED;
+
+    /** Bumped on every write, so that read replicas know when to refresh */
+    private int mWriteGeneration = 0;
+
+    /** True between beginTransaction() and the matching endTransaction() */
+    private boolean mInTransaction = false;
 
 
     private WeakHashMap<SQLiteClosable, Object> mPrograms;
@@ -269,6 +286,11 @@ public class SQLiteDatabase extends SQLiteClosable {
      * @hide
      */
     public static final int MAX_SQL_CACHE_SIZE = 250;
+
+    /**
+     * Number of rows {@link #bulkInsert} hands to the engine in one call.
+     */
+    public static final int BULK_INSERT_CHUNK_SIZE = 200;
     private int mMaxSqlCacheSize = MAX_SQL_CACHE_SIZE; // max cache size per Database instance
     private int mCacheFullWarnings;
     private static final int MAX_WARNINGS_ON_CACHESIZE_CONDITION = 1;
@@ -289,6 +311,30 @@ public class SQLiteDatabase extends SQLiteClosable {
    // private final int mSlowQueryThreshold;
 
 
+    /**
+     * Receives the result of {@link SQLiteDatabase#rawQueryAsync}. Callbacks
+     * run on the thread that issued the query.
+     */
+    public interface OnQueryCompleteListener {
+        /**
+         * Called when an asynchronous query has completed.
+         *
+         * @param token the token passed to {@link SQLiteDatabase#rawQueryAsync}
+         * @param cookie the cookie passed to {@link SQLiteDatabase#rawQueryAsync}
+         * @param cursor the cursor holding the results of the query
+         */
+        public void onQueryComplete(int token, Object cookie, Cursor cursor);
+
+        /**
+         * Called when an asynchronous query has failed.
+         *
+         * @param token the token passed to {@link SQLiteDatabase#rawQueryAsync}
+         * @param cookie the cookie passed to {@link SQLiteDatabase#rawQueryAsync}
+         * @param e the error reported by the engine
+         */
+        public void onQueryError(int token, Object cookie, SQLiteException e);
+    }
+
     public interface CursorFactory {
         /**
          * See
@@ -343,6 +389,91 @@ public class SQLiteDatabase extends SQLiteClosable {
 //         sqliteDatabase = new SQLiteDatabase(name);
 //         return sqliteDatabase;
 //    }
+    /**
+     * Starts fetching the SQL engine in the background if it has not been
+     * loaded yet, so that the first {@link #openDatabase} does not have to
+     * block on it. {@link SQLiteOpenHelper} calls this when it is created.
+     */
+    public static void preloadEngine() {
+        if (sEngineState != ENGINE_NOT_LOADED) {
+            return;
+        }
+        sEngineState = ENGINE_LOADING;
+        boolean async = false;
+        /**
+         * @j2sNative
+         * if (typeof ClazzLoader != "undefined" && ClazzLoader.loadClass != null) {
+         *     ClazzLoader.loadClass("android.database.sqlite.SqlJS", function () {
+         *         android.database.sqlite.SQLiteDatabase.onEngineLoaded();
+         *     }, false, true);
+         *     async = true;
+         * }
+         */{}
+        if (!async) {
+            // No asynchronous loader, so load it on a later turn of the message loop
+            new Handler().post(new Runnable() {
+                public void run() {
+                    loadEngine();
+                }
+            });
+        }
+    }
+
+    /**
+     * Preloads the SQL engine once <code>view</code> has been drawn for the
+     * first time, so that fetching it does not delay the first frame.
+     *
+     * @param view a view of the window whose first frame should go first,
+     *            usually the decor view
+     */
+    public static void warmUpEngineAfterFirstDraw(final View view) {
+        final ViewTreeObserver observer = view.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            private boolean mPosted = false;
+
+            public boolean onPreDraw() {
+                if (!mPosted) {
+                    mPosted = true;
+                    final ViewTreeObserver.OnPreDrawListener listener = this;
+                    // Runs after this frame has been drawn
+                    view.post(new Runnable() {
+                        public void run() {
+                            if (observer.isAlive()) {
+                                observer.removeOnPreDrawListener(listener);
+                            }
+                            preloadEngine();
+                        }
+                    });
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Loads the SQL engine synchronously if it is not loaded yet.
+     *
+     * @return false if the engine could not be loaded
+     */
+    /* package */ static boolean loadEngine() {
+        if (sEngineState == ENGINE_LOADED) {
+            return true;
+        }
+        try {
+            Class.forName("android.database.sqlite.SqlJS");
+        } catch (Exception e) {
+            Log.e(TAG, "Can't load database engine", e);
+            sEngineState = ENGINE_NOT_LOADED;
+            return false;
+        }
+        sEngineState = ENGINE_LOADED;
+        return true;
+    }
+
+    private static void onEngineLoaded() {
+        sEngineState = ENGINE_LOADED;
+    }
+
     /**
      * Equivalent to openDatabase(file.getPath(), factory, CREATE_IF_NECESSARY).
      */
@@ -363,6 +494,7 @@ public class SQLiteDatabase extends SQLiteClosable {
                 if (sqlDBsize == 1) {
                     sqlDBsize = 0;
                     mNativeHandle = 0;
+                    SQLiteWorker.dropReplica(mPath);
                     /**
                      * @j2sNative
                      * var data = this.sqlDB.exportData();
@@ -410,6 +542,7 @@ public class SQLiteDatabase extends SQLiteClosable {
      */
     public void setVersion(int version) {
     	if(DEBUG_NODB) return;
+        mWriteGeneration++;
         /**
          * @j2sNative
          * var notifier;
@@ -725,6 +858,57 @@ public class SQLiteDatabase extends SQLiteClosable {
         return c;
     }
 
+    /**
+     * Runs the provided SQL off the UI thread and delivers a {@link Cursor}
+     * over the result set to the listener, on the thread that called this
+     * method.
+     *
+     * <p>The query runs in a Web Worker against a read replica of this
+     * database, which reflects every write committed before this call. If the
+     * host has no Worker support, or a transaction is open before the worker
+     * holds a committed copy of this database, the query runs synchronously
+     * on a later turn of the calling thread's message loop.
+     *
+     * @param token a token passed into the listener to identify the query
+     * @param cookie an object passed into the listener
+     * @param sql the SQL query. The SQL string must not be ; terminated
+     * @param selectionArgs You may include ?s in where clause in the query,
+     *     which will be replaced by the values from selectionArgs. The
+     *     values will be bound as Strings.
+     * @param listener receives the cursor, or the error if the query failed
+     */
+    public void rawQueryAsync(final int token, final Object cookie, final String sql,
+            final String[] selectionArgs, final OnQueryCompleteListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        Handler handler = new Handler();
+        SQLiteWorker worker = SQLiteWorker.getInstance();
+        if (worker != null
+                && worker.query(this, token, cookie, sql, selectionArgs, listener, handler)) {
+            return;
+        }
+        handler.post(new Runnable() {
+            public void run() {
+                Cursor cursor;
+                try {
+                    cursor = rawQuery(sql, selectionArgs);
+                } catch (SQLiteException e) {
+                    listener.onQueryError(token, cookie, e);
+                    return;
+                }
+                listener.onQueryComplete(token, cookie, cursor);
+            }
+        });
+    }
+
+    /**
+     * Returns a counter that changes every time this database is written.
+     */
+    /* package */ int getWriteGeneration() {
+        return mWriteGeneration;
+    }
+
 
 
 
@@ -853,6 +1037,139 @@ public class SQLiteDatabase extends SQLiteClosable {
     public long insertWithOnConflict(String table, String nullColumnHack,
             ContentValues initialValues, int conflictAlgorithm) {
     	if(DEBUG_NODB) return 1;
+        long insertId = 0;
+        // Read the row id in the same exec() call instead of a second round trip
+        String temp = buildInsertSql(table, nullColumnHack, initialValues, conflictAlgorithm)
+                + " SELECT last_insert_rowid();";
+        mWriteGeneration++;
+        /**
+         * @j2sNative
+         * var notifier;
+         * try {
+         *     var data = this.sqlDB.exec(temp);
+         *     notifier = data[data.length - 1][0].value;
+         * } catch(e) {
+         *     notifier = -1;
+         *     throw(e.message);
+         * }
+         * insertId = parseInt(notifier);
+         */{}
+
+        Log.v("insertedId", "" + insertId);
+		return insertId;
+
+    }
+
+    /**
+     * Inserts many rows into one table. All rows are inserted within a single
+     * savepoint, so the batch is atomic and nests inside an enclosing
+     * transaction, and the statements are handed to the engine in chunks of
+     * {@link #BULK_INSERT_CHUNK_SIZE} so that every chunk costs one call into
+     * the engine rather than one per row. The time spent in each chunk is
+     * logged.
+     *
+     * @param table the table to insert the rows into
+     * @param nullColumnHack optional; may be <code>null</code>. See
+     *            {@link #insert(String, String, ContentValues)}.
+     * @param values the rows to insert
+     * @param conflictAlgorithm for insert conflict resolver
+     * @param rowIds optional; may be <code>null</code>. If given, it must be at
+     *            least as long as <code>values</code> and receives the row ID of
+     *            each inserted row, or -1 for a row skipped by
+     *            {@link #CONFLICT_IGNORE}.
+     * @return the number of rows inserted, which is less than
+     *            <code>values.length</code> if {@link #CONFLICT_IGNORE} skipped
+     *            some of them
+     * @throws SQLException if any row fails, in which case none of them are
+     *            inserted
+     */
+    public int bulkInsert(String table, String nullColumnHack, ContentValues[] values,
+            int conflictAlgorithm, long[] rowIds) {
+        if (DEBUG_NODB) return values.length;
+        if (rowIds != null && rowIds.length < values.length) {
+            throw new IllegalArgumentException("rowIds is shorter than values");
+        }
+        int count = values.length;
+        if (count == 0) {
+            return 0;
+        }
+        // Only CONFLICT_IGNORE skips rows without failing the batch, so the
+        // rows are only counted one by one then
+        boolean countRows = conflictAlgorithm == CONFLICT_IGNORE;
+        int inserted = countRows ? 0 : count;
+        mWriteGeneration++;
+        long batchStart = SystemClock.uptimeMillis();
+        execBatch("SAVEPOINT bulk_insert;");
+        try {
+            for (int first = 0; first < count; first += BULK_INSERT_CHUNK_SIZE) {
+                int last = Math.min(first + BULK_INSERT_CHUNK_SIZE, count);
+                long chunkStart = SystemClock.uptimeMillis();
+                StringBuilder script = new StringBuilder(152 * (last - first));
+                for (int i = first; i < last; i++) {
+                    script.append(buildInsertSql(table, nullColumnHack, values[i],
+                            conflictAlgorithm));
+                    if (rowIds != null || countRows) {
+                        script.append(" SELECT changes(), last_insert_rowid();");
+                    }
+                }
+                String temp = script.toString();
+                /**
+                 * @j2sNative
+                 * var data;
+                 * try {
+                 *     data = this.sqlDB.exec(temp);
+                 * } catch(e) {
+                 *     throw new android.database.SQLException(e.message != null ? e.message : String(e));
+                 * }
+                 * if (rowIds != null || countRows) {
+                 *     for (var i = 0; i < data.length; i++) {
+                 *         var changed = parseInt(data[i][0].value) != 0;
+                 *         if (countRows && changed) {
+                 *             inserted++;
+                 *         }
+                 *         if (rowIds != null) {
+                 *             rowIds[first + i] = changed ? parseInt(data[i][1].value) : -1;
+                 *         }
+                 *     }
+                 * }
+                 */{}
+                Log.v(TAG, "bulkInsert into " + table + ": rows " + first + "-" + (last - 1)
+                        + " took " + (SystemClock.uptimeMillis() - chunkStart) + "ms");
+            }
+        } catch (RuntimeException e) {
+            execBatch("ROLLBACK TO bulk_insert; RELEASE bulk_insert;");
+            throw e;
+        }
+        execBatch("RELEASE bulk_insert;");
+        Log.v(TAG, "bulkInsert into " + table + ": " + inserted + " of " + count
+                + " rows took " + (SystemClock.uptimeMillis() - batchStart) + "ms");
+        return inserted;
+    }
+
+    /**
+     * Equivalent to bulkInsert(table, nullColumnHack, values, CONFLICT_NONE, null).
+     */
+    public int bulkInsert(String table, String nullColumnHack, ContentValues[] values) {
+        return bulkInsert(table, nullColumnHack, values, CONFLICT_NONE, null);
+    }
+
+    /**
+     * Runs one or more statements in a single call into the engine, without the
+     * error recovery of {@link #execSQL(String)}.
+     */
+    private void execBatch(String sql) {
+        /**
+         * @j2sNative
+         * try {
+         *     this.sqlDB.exec(sql);
+         * } catch(e) {
+         *     throw new android.database.SQLException(e.message != null ? e.message : String(e));
+         * }
+         */{}
+    }
+
+    private String buildInsertSql(String table, String nullColumnHack,
+            ContentValues initialValues, int conflictAlgorithm) {
         // Measurements show most sql lengths <= 152
         StringBuilder sql = new StringBuilder(152);
         sql.append("INSERT");
@@ -894,25 +1211,7 @@ public class SQLiteDatabase extends SQLiteClosable {
         sql.append(" VALUES (");
         sql.append(values);
         sql.append(");");
-        long insertId = 0;
-        String temp = sql.toString();
-        /**
-         * @j2sNative
-         * var notifier;
-         * try {
-         *     this.sqlDB.exec(temp);
-         *     var data = this.sqlDB.exec("SELECT LAST_INSERT_ROWID();");
-         *     notifier = data[0][0].value;
-         * } catch(e) {
-         *     notifier = -1;
-         *     throw(e.message);
-         * }
-         * insertId = parseInt(notifier);
-         */{}
-
-        Log.v("insertedId", "" + insertId);
-		return insertId;
-
+        return sql.toString();
     }
 
     /**
@@ -938,6 +1237,7 @@ public class SQLiteDatabase extends SQLiteClosable {
                 sql = sql.replaceFirst("\\?", "'" + whereArgs[i] + "'");
             }
         }
+        mWriteGeneration++;
         /**
          * @j2sNative
          * var notifier;
@@ -1020,6 +1320,7 @@ public class SQLiteDatabase extends SQLiteClosable {
                 temp = temp.replaceFirst("\\?", "'" + whereArgs[i] + "'");
             }
         }
+        mWriteGeneration++;
         /**
          * @j2sNative
          * var notifier;
@@ -1047,6 +1348,7 @@ public class SQLiteDatabase extends SQLiteClosable {
      */
     public void execSQL(String sql) {
     	if(DEBUG_NODB) return;
+        mWriteGeneration++;
     	/**
          * @j2sNative
          * try {
@@ -1082,6 +1384,7 @@ public class SQLiteDatabase extends SQLiteClosable {
                 }
             }
         }
+        mWriteGeneration++;
         /**
          * @j2sNative
          * try {
@@ -1123,16 +1426,15 @@ public class SQLiteDatabase extends SQLiteClosable {
         //TQI3: the path should be "/data/data/<package_name>/database/<database_name>"
     	//the web SQL databse name is set as <package_name>+"_"+<database_name>
 
-        try {
-            // Dynamic load the sql.js
-            Object SQL = Class.forName("android.database.sqlite.SqlJS").newInstance();
-            /**
-             * @j2sNative
-             * SQL = SQL.getSql();
-             */{}
-        } catch (Exception e) {
+        // Dynamic load the sql.js, unless preloadEngine() already fetched it
+        if (!loadEngine()) {
             throw new RuntimeException("Can't load database");
         }
+        Object SQL = null;
+        /**
+         * @j2sNative
+         * SQL = android.database.sqlite.SqlJS.getSql();
+         */{}
 
         /**
          * @j2sNative
@@ -1299,10 +1601,22 @@ public class SQLiteDatabase extends SQLiteClosable {
         } else {
             mTransactionIsSuccessful = false;
         }
-        if (mTransactionIsSuccessful) {
-            execSQL(COMMIT_SQL);
-        } else {
-            execSQL("ROLLBACK;");
+        boolean wasInTransaction = mInTransaction;
+        mInTransaction = false;
+        try {
+            if (mTransactionIsSuccessful) {
+                execSQL(COMMIT_SQL);
+            } else {
+                execSQL("ROLLBACK;");
+            }
+        } finally {
+            if (wasInTransaction) {
+                // Deliver the change notifications held back during the transaction
+                ContentService contentService = ContentService.getContentService();
+                if (contentService != null) {
+                    contentService.endBatch();
+                }
+            }
         }
     }
 
@@ -1317,13 +1631,10 @@ public class SQLiteDatabase extends SQLiteClosable {
     }
 
     /**
-     * @j2sNative
-     * console.log("Missing method: inTransaction");
+     * return true if there is a transaction pending
      */
-    @MayloonStubAnnotation()
     public boolean inTransaction() {
-        System.out.println("Stub" + " Function : inTransaction");
-        return true;
+        return mInTransaction;
     }
 
     /**
@@ -1425,6 +1736,11 @@ public class SQLiteDatabase extends SQLiteClosable {
 //            throw new IllegalStateException("database not open");
 //        }
         execSQL("BEGIN EXCLUSIVE;");
+        mInTransaction = true;
+        ContentService contentService = ContentService.getContentService();
+        if (contentService != null) {
+            contentService.beginBatch();
+        }
         mTransactionIsSuccessful = true;
         mInnerTransactionIsSuccessful = false;
     }
@@ -73,6 +73,8 @@ public  class SQLiteOpenHelper {
         mFactory = factory;
         mNewVersion = version;
         mPath = "/data/data/"+context.getPackageName() + "/data/" + name;
+        // Fetch the engine in the background before the first getWritableDatabase()
+        SQLiteDatabase.preloadEngine();
     }
     
     /**
@@ -0,0 +1,329 @@
+package android.database.sqlite;
+
+import java.util.HashMap;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Hosts a second copy of the sql.js engine in a dedicated Web Worker so that
+ * long read queries do not block input and rendering on the UI thread.
+ *
+ * <p>The worker keeps a read replica of every database it has been asked to
+ * query. The replica is refreshed from {@link SQLiteDatabase}'s exported image
+ * only when the database has been written since the last refresh, and the
+ * image is handed to the worker as a transferable ArrayBuffer. Result rows
+ * come back the same way and are turned into a {@link Cursor} on the thread
+ * that issued the query.
+ *
+ * <p>Writes always go through the synchronous engine owned by
+ * {@link SQLiteDatabase}, so the existing API keeps its semantics.
+ */
+/* package */ class SQLiteWorker {
+    private static final String TAG = "SQLiteWorker";
+    private static final boolean DEBUG = false;
+
+    private static SQLiteWorker sInstance;
+    private static boolean sUnavailable = false;
+
+    private int mNextRequestId = 1;
+    private final HashMap<Integer, Request> mPending = new HashMap<Integer, Request>();
+    /** Database name to the write generation currently loaded in the worker */
+    private final HashMap<String, Integer> mReplicaGenerations = new HashMap<String, Integer>();
+
+    /**
+     * @j2sNative
+     * this.mWorker = null;
+     */{}
+
+    private static class Request {
+        int token;
+        Object cookie;
+        String sql;
+        String[] args;
+        SQLiteDatabase.OnQueryCompleteListener listener;
+        Handler handler;
+        long startTime;
+    }
+
+    /**
+     * Returns the shared worker, starting it on first use, or null if the host
+     * has no Worker support.
+     */
+    static synchronized SQLiteWorker getInstance() {
+        if (sInstance == null && !sUnavailable) {
+            SQLiteWorker worker = new SQLiteWorker();
+            if (worker.start()) {
+                sInstance = worker;
+            } else {
+                sUnavailable = true;
+            }
+        }
+        return sInstance;
+    }
+
+    private boolean start() {
+        if (!SQLiteDatabase.loadEngine()) {
+            return false;
+        }
+        boolean started = false;
+        /**
+         * @j2sNative
+         * if (typeof Worker == "undefined" || typeof Blob == "undefined") {
+         *     return false;
+         * }
+         * var urlFactory = window.URL || window.webkitURL;
+         * if (urlFactory == null || urlFactory.createObjectURL == null) {
+         *     return false;
+         * }
+         * var workerMain = function () {
+         *     var dbs = {};
+         *     var encode = function (rows) {
+         *         var json = JSON.stringify(rows);
+         *         if (typeof TextEncoder != "undefined") {
+         *             return new TextEncoder().encode(json).buffer;
+         *         }
+         *         return json;
+         *     };
+         *     var quote = function (value) {
+         *         if (value == null) {
+         *             return "NULL";
+         *         }
+         *         return "'" + String(value).replace(/'/g, "''") + "'";
+         *     };
+         *     // sql.js only exports sqlite3_exec(), so the arguments are bound
+         *     // here as quoted literals. Quoted names, string literals and
+         *     // comments are copied as they are, so a ? inside them is not
+         *     // taken for a parameter.
+         *     var bind = function (sql, params) {
+         *         if (params == null || params.length == 0) {
+         *             return sql;
+         *         }
+         *         var out = "";
+         *         var next = 0;
+         *         var i = 0;
+         *         while (i < sql.length) {
+         *             var c = sql.charAt(i);
+         *             var end = -1;
+         *             if (c == "'" || c == "\"" || c == "`" || c == "[") {
+         *                 var close = c == "[" ? "]" : c;
+         *                 end = sql.indexOf(close, i + 1);
+         *                 // a doubled quote does not close the literal
+         *                 while (end >= 0 && close != "]" && sql.charAt(end + 1) == close) {
+         *                     end = sql.indexOf(close, end + 2);
+         *                 }
+         *                 end = end < 0 ? sql.length : end + 1;
+         *             } else if (c == "-" && sql.charAt(i + 1) == "-") {
+         *                 end = sql.indexOf("\n", i);
+         *                 end = end < 0 ? sql.length : end + 1;
+         *             } else if (c == "/" && sql.charAt(i + 1) == "*") {
+         *                 end = sql.indexOf("*" + "/", i + 2);
+         *                 end = end < 0 ? sql.length : end + 2;
+         *             }
+         *             if (end >= 0) {
+         *                 out += sql.substring(i, end);
+         *                 i = end;
+         *             } else if (c == "?") {
+         *                 var digits = /^[0-9]+/.exec(sql.substring(i + 1));
+         *                 var index = next;
+         *                 i++;
+         *                 if (digits != null) {
+         *                     index = parseInt(digits[0], 10) - 1;
+         *                     i += digits[0].length;
+         *                 }
+         *                 if (index < 0 || index >= params.length) {
+         *                     throw new Error("bind or column index out of range: " + (index + 1));
+         *                 }
+         *                 out += quote(params[index]);
+         *                 next = index + 1;
+         *             } else {
+         *                 out += c;
+         *                 i++;
+         *             }
+         *         }
+         *         return out;
+         *     };
+         *     self.onmessage = function (e) {
+         *         var m = e.data;
+         *         try {
+         *             if (m.op == "load") {
+         *                 if (dbs[m.name]) {
+         *                     dbs[m.name].close();
+         *                 }
+         *                 dbs[m.name] = sqlJS.open(new Uint8Array(m.image));
+         *             } else if (m.op == "drop") {
+         *                 if (dbs[m.name]) {
+         *                     dbs[m.name].close();
+         *                     delete dbs[m.name];
+         *                 }
+         *             } else if (m.op == "exec") {
+         *                 var payload = encode(dbs[m.name].exec(bind(m.sql, m.params)));
+         *                 if (typeof payload == "string") {
+         *                     self.postMessage({id: m.id, result: payload});
+         *                 } else {
+         *                     self.postMessage({id: m.id, result: payload}, [payload]);
+         *                 }
+         *             }
+         *         } catch (ex) {
+         *             self.postMessage({id: m.id, error: String(ex && ex.message ? ex.message : ex)});
+         *         }
+         *     };
+         * };
+         * try {
+         *     var source = "var sqlJS = " + android.database.sqlite.SqlJS.getEngineSource() + ";\n"
+         *             + "(" + workerMain.toString() + ")();\n";
+         *     var blob = new Blob([source], {type: "text/javascript"});
+         *     this.mWorker = new Worker(urlFactory.createObjectURL(blob));
+         *     var host = this;
+         *     this.mWorker.onmessage = function (e) {
+         *         var m = e.data;
+         *         if (m.error != null) {
+         *             host.onResult(m.id, null, m.error);
+         *             return;
+         *         }
+         *         var json = m.result;
+         *         if (typeof json != "string") {
+         *             json = new TextDecoder().decode(new Uint8Array(json));
+         *         }
+         *         host.onResult(m.id, JSON.parse(json), null);
+         *     };
+         *     started = true;
+         * } catch (e) {
+         *     this.mWorker = null;
+         * }
+         */{}
+        return started;
+    }
+
+    /**
+     * Queues a query against the worker's replica of {@code db}. The listener
+     * is called through {@code handler} once the rows have arrived.
+     *
+     * @return false if the worker has no committed replica of {@code db} to
+     *     serve the query from, in which case nothing has been queued
+     */
+    boolean query(SQLiteDatabase db, int token, Object cookie, String sql, String[] args,
+            SQLiteDatabase.OnQueryCompleteListener listener, Handler handler) {
+        String name = db.getPath();
+        int generation = db.getWriteGeneration();
+        Integer loaded = mReplicaGenerations.get(name);
+        // Inside a transaction the exported image may hold uncommitted pages,
+        // so keep serving the last committed replica until it ends.
+        if (db.inTransaction()) {
+            if (loaded == null) {
+                return false;
+            }
+        } else if (loaded == null || loaded.intValue() != generation) {
+            Object sqlDB = db.getSQLDB();
+            /**
+             * @j2sNative
+             * var image = sqlDB.exportData();
+             * this.mWorker.postMessage({op: "load", name: name, image: image.buffer}, [image.buffer]);
+             */{}
+            mReplicaGenerations.put(name, Integer.valueOf(generation));
+        }
+
+        Request request = new Request();
+        request.token = token;
+        request.cookie = cookie;
+        request.sql = sql;
+        request.args = args;
+        request.listener = listener;
+        request.handler = handler;
+        request.startTime = System.currentTimeMillis();
+        int id = mNextRequestId++;
+        mPending.put(Integer.valueOf(id), request);
+        /**
+         * @j2sNative
+         * var params = null;
+         * if (args != null) {
+         *     params = new Array(args.length);
+         *     for (var i = 0; i < args.length; i++) {
+         *         params[i] = args[i] == null ? null : String(args[i]);
+         *     }
+         * }
+         * this.mWorker.postMessage({op: "exec", id: id, name: name, sql: sql, params: params});
+         */{}
+        return true;
+    }
+
+    /**
+     * Forgets the replica of a database, e.g. after it has been closed. Does
+     * not start the worker if it is not running yet.
+     */
+    static synchronized void dropReplica(String name) {
+        if (sInstance != null && sInstance.mReplicaGenerations.remove(name) != null) {
+            sInstance.postDrop(name);
+        }
+    }
+
+    private void postDrop(String name) {
+        /**
+         * @j2sNative
+         * this.mWorker.postMessage({op: "drop", name: name});
+         */{}
+    }
+
+    private void onResult(int id, Object rows, String error) {
+        final Request request = mPending.remove(Integer.valueOf(id));
+        if (request == null) {
+            return;
+        }
+        if (DEBUG) {
+            Log.v(TAG, "query took " + (System.currentTimeMillis() - request.startTime)
+                    + "ms: " + request.sql);
+        }
+        if (error != null) {
+            final SQLiteException e = new SQLiteException(error);
+            request.handler.post(new Runnable() {
+                public void run() {
+                    request.listener.onQueryError(request.token, request.cookie, e);
+                }
+            });
+            return;
+        }
+        final Cursor cursor = toCursor(rows);
+        request.handler.post(new Runnable() {
+            public void run() {
+                request.listener.onQueryComplete(request.token, request.cookie, cursor);
+            }
+        });
+    }
+
+    /**
+     * Builds a cursor from the row list produced by sql.js's exec(), decoding
+     * text the same way {@link android.database.CursorWindow} does.
+     */
+    private static Cursor toCursor(Object rows) {
+        String[] columns = null;
+        int rowCount = 0;
+        /**
+         * @j2sNative
+         * rowCount = rows.length;
+         * if (rowCount > 0) {
+         *     columns = new Array(rows[0].length);
+         *     for (var i = 0; i < rows[0].length; i++) {
+         *         columns[i] = rows[0][i].column;
+         *     }
+         * }
+         */{}
+        if (columns == null) {
+            return new MatrixCursor(new String[0], 1);
+        }
+        MatrixCursor cursor = new MatrixCursor(columns, rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            Object[] values = new Object[columns.length];
+            /**
+             * @j2sNative
+             * for (var i = 0; i < values.length; i++) {
+             *     var value = rows[row][i].value;
+             *     values[i] = value == null ? null : decodeURI(value);
+             * }
+             */{}
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+}
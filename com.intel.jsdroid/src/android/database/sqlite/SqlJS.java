@@ -5,6 +5,8 @@ public class SqlJS {
         /**
 @j2sNative
 
+var sqlJSFactory = function (options) {
+
 function ca(b) {
     throw b
 }
@@ -24,6 +26,11 @@ if ("undefined" == typeof(Module)) {
 } else {
     this.Module = Module
 }
+if (options) {
+    for (var optionKey in options) {
+        Module[optionKey] = options[optionKey]
+    }
+}
 var ab = typeof process === "object",
     hb = typeof window === "object",
     lb = typeof importScripts === "function",
@@ -27319,17 +27326,40 @@ Module.open = (function (b) {
         })
     }
 });
-var sqlJS = Module;
+return Module;
+};
+// Start small; the engine's sbrk() grows the heap on demand.
+var sqlJSOptions = {TOTAL_STACK: 1048576, TOTAL_MEMORY: 2097152};
+var sqlJS = null;
          */{}
     }
 
+    /**
+     * Returns the engine, instantiating it on first use.
+     */
     public static SqlJS getSql() {
         /**
          * @j2sNative
+         * if (sqlJS == null) {
+         *     sqlJS = sqlJSFactory(sqlJSOptions);
+         * }
          * return sqlJS;
          */{
              return null;
          }
         
     }
+
+    /**
+     * Returns a script expression that evaluates to a new engine, so that a
+     * second copy of the engine can be started in a dedicated Worker.
+     */
+    public static String getEngineSource() {
+        /**
+         * @j2sNative
+         * return "(" + sqlJSFactory.toString() + ")(" + JSON.stringify(sqlJSOptions) + ")";
+         */{
+             return null;
+         }
+    }
 }
@@ -22,6 +22,8 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 import com.intel.mpt.annotation.MayloonStubAnnotation;
 
@@ -58,14 +60,83 @@ public final class Bitmap  {
      * @j2sNative
      * this.mCachedCanvas = null;    // save data into this canvas
      * this.mCachedImageData = null; // all setPixel/getPixel will get data from it as read from cached canvas
-     *                               // may be too slow every time. 
+     *                               // may be too slow every time. Null while the canvas is authoritative.
+     * this.mImageBitmap = null;     // mRawData decoded by the browser, drawn directly until the pixels are needed
      */{}
+    // mCachedImageData holds pixels that are not in the cached canvas yet,
+    // within [mDirtyLeft, mDirtyRight) x [mDirtyTop, mDirtyBottom)
     private boolean mIsImageDataDirty = false;
     private boolean mNeedUpdateIntoCachedCanvas = false;
+    // the cached canvas has been drawn into since mCachedImageData was read,
+    // or there is no mCachedImageData at all
     private boolean mIsCachedCanvasDirty = false;
+    private int mDirtyLeft;
+    private int mDirtyTop;
+    private int mDirtyRight;
+    private int mDirtyBottom;
+
+    // changes whenever the pixels change, see getGenerationId()
+    private int mGenerationId;
+    // the pixels written since generation mChangedSince are within
+    // [mChangedLeft, mChangedRight) x [mChangedTop, mChangedBottom), see
+    // getChangedRect(); drawing into the cached canvas is not tracked
+    private int mChangedSince;
+    private int mChangedLeft;
+    private int mChangedTop;
+    private int mChangedRight;
+    private int mChangedBottom;
+
+    /**
+     * The cached canvas is authoritative. mCachedImageData is dropped once it
+     * has been copied to the canvas, and small reads go to the canvas.
+     */
+    private static final int RESIDENCY_CANVAS = 0;
+    /**
+     * Pixel access dominates. mCachedImageData is kept, and only its dirty
+     * rectangle is copied to the canvas when the bitmap is drawn.
+     */
+    private static final int RESIDENCY_PIXELS = 1;
+    /**
+     * How many pixels may be read from the canvas after it has been drawn
+     * into before the whole bitmap is read back and kept as image data.
+     */
+    private static final int PIXEL_READS_BEFORE_PIXEL_MODE = 256;
+
+    private int mResidency = RESIDENCY_CANVAS;
+    private int mPixelReads;
+
+    /** True if a Uint32Array over ImageData reads a pixel as 0xAABBGGRR */
+    private static final boolean sLittleEndian = isLittleEndian();
     public String mDataURL;
     private Config mConfig;
 
+    /**
+     * Set by the decoder for {@link BitmapFactory.Options#inPurgeable}: the
+     * pixels may be dropped at any time and are decoded again from mRawData
+     * when they are needed.
+     */
+    /* package */ boolean mIsPurgeable;
+
+    /**
+     * Purgeable bitmaps that currently hold pixels, least recently used first.
+     * The entries hold the bitmaps strongly, so they only leave through an
+     * explicit trim to the budget or recycle(), never through the GC.
+     */
+    private static final LinkedHashMap<Integer, ResidentPixels> sResidentPurgeable =
+            new LinkedHashMap<Integer, ResidentPixels>(16, 0.75f, true);
+    private static int sResidentPurgeableBytes = 0;
+    private static int sPurgeableBudget = 16 * 1024 * 1024;
+
+    private static final class ResidentPixels {
+        final Bitmap bitmap;
+        final int bytes;
+
+        ResidentPixels(Bitmap bitmap, int bytes) {
+            this.bitmap = bitmap;
+            this.bytes = bytes;
+        }
+    }
+
     //debug information
     public String fileName;
     public int resID;
@@ -164,6 +235,12 @@ public final class Bitmap  {
     public void recycle() {
         if (!mRecycled) {
             mNinePatch = null;
+            releaseImageBitmap();
+            if (mIsPurgeable) {
+                synchronized (sResidentPurgeable) {
+                    forgetResident();
+                }
+            }
             mRecycled = true;
         }
     }
@@ -333,7 +410,9 @@ public final class Bitmap  {
     }
 
     private void nativeCopyPixelsFromBuffer(Buffer src, int shift) {
-        int[] pixels = (int[]) src.array();
+        // a typed view of the remaining elements, which also covers the
+        // buffers viewing a ByteBuffer, which have no array
+        int[] pixels = (int[]) src.getTypedArray();
         if(null == pixels) return;
         
         checkRecycled("Can't call setPixels() on a recycled bitmap");
@@ -344,56 +423,54 @@ public final class Bitmap  {
             return; // nothing to do
         }
         checkPixelsAccess(0, 0, mWidth, mHeight, 0, mWidth, pixels);
-        if (!ensureCachedCanvas(false, false)) return;
-        mIsImageDataDirty = true;
+        if (!ensurePixelsWritable()) return;
         setPixelsFromBuffer(pixels, shift);
+        markPixelsDirty(0, 0, mWidth, mHeight);
     }
 
     private void setPixelsFromBuffer(int[] pixels, int shift) {
-        for (int i = 0; i < mHeight; i++) {
-            for (int j = 0; (j < mWidth)
-                    && (i * mHeight + j < pixels.length); j++) {
-                checkPixelAccess(j, i);
-                if (!ensureCachedCanvas(false, false))  return;
-
-                 /**
-                  * @j2sNative
-                  *  var data = this.mCachedImageData.data;
-                  *  var index = i * 4 * this.mWidth + j * 4;
-                  *  var color = pixels[i * this.mWidth + j];
-                  *  
-                  *  //shift stands for data buffer type,
-                  *  //as assigned in method "copyPixelsFromBuffer"
-                  *  //similar to the effect of mConfig
-                  *  switch(shift) {
-                  *      case 0:    //byte, not implemented
-                  *         break;
-                  *      case 1:    //short
-                  *         if(this.mConfig.nativeInt == 
-                  *             android.graphics.Bitmap.Config.CONFIG_RGB_565) {
-                  *             data[index] = ((color >> 11) & 0x1F) / 0x1F * 0xFF;
-                  *             data[index+1] = ((color >> 5) & 0x3F) / 0x3F * 0xFF;
-                  *             data[index+2] = (color & 0x1F) / 0x1F * 0xFF;
-                  *             data[index+3] = 0xFF;
-                  *         }
-                  *         else if(this.mConfig.nativeInt == 
-                  *             android.graphics.Bitmap.Config.CONFIG_ARGB_4444) {
-                  *             data[index] = ((color >> 12) & 0xF) / 16 * 256;
-                  *             data[index+1] = ((color >> 8) & 0xF) / 16 * 256;
-                  *             data[index+2] = ((color >> 4) & 0xF) / 16 * 256;
-                  *             data[index+3] = (color & 0xF) / 16 * 256;
-                  *         }
-                  *         break;
-                  *      case 2:    //int, the config is ARGB_8888
-                  *         data[index] = android.graphics.Color.red(color);;
-                  *         data[index+1] = android.graphics.Color.green(color);
-                  *         data[index+2] = android.graphics.Color.blue(color);
-                  *         data[index+3] = android.graphics.Color.alpha(color);;
-                  *         break;
-                  *  }
-                  */{}
-            }
-        }
+        /**
+         * @j2sNative
+         *  var data = this.mCachedImageData.data;
+         *  var count = Math.min(this.mWidth * this.mHeight, pixels.length);
+         *  //shift stands for data buffer type,
+         *  //as assigned in method "copyPixelsFromBuffer"
+         *  //similar to the effect of mConfig
+         *  switch(shift) {
+         *      case 0:    //byte, not implemented
+         *         break;
+         *      case 1:    //short
+         *         for (var i = 0, index = 0; i < count; i++, index += 4) {
+         *             var color = pixels[i];
+         *             if(this.mConfig.nativeInt == 
+         *                 android.graphics.Bitmap.Config.CONFIG_RGB_565) {
+         *                 data[index] = ((color >> 11) & 0x1F) / 0x1F * 0xFF;
+         *                 data[index+1] = ((color >> 5) & 0x3F) / 0x3F * 0xFF;
+         *                 data[index+2] = (color & 0x1F) / 0x1F * 0xFF;
+         *                 data[index+3] = 0xFF;
+         *             }
+         *             else if(this.mConfig.nativeInt == 
+         *                 android.graphics.Bitmap.Config.CONFIG_ARGB_4444) {
+         *                 data[index] = ((color >> 12) & 0xF) / 16 * 256;
+         *                 data[index+1] = ((color >> 8) & 0xF) / 16 * 256;
+         *                 data[index+2] = ((color >> 4) & 0xF) / 16 * 256;
+         *                 data[index+3] = (color & 0xF) / 16 * 256;
+         *             }
+         *         }
+         *         break;
+         *      case 2:    //int, the config is ARGB_8888
+         *         // the whole rows, then what there is of the last one
+         *         var rows = Math.floor(count / this.mWidth);
+         *         var rest = count - rows * this.mWidth;
+         *         if (rows > 0) {
+         *             this.writePixels32(pixels, 0, this.mWidth, 0, 0, this.mWidth, rows);
+         *         }
+         *         if (rest > 0) {
+         *             this.writePixels32(pixels, rows * this.mWidth, this.mWidth, 0, rows, rest, 1);
+         *         }
+         *         break;
+         *  }
+         */{}
     }
 
     /**
@@ -411,7 +488,8 @@ public final class Bitmap  {
     public Bitmap copy(Config config, boolean isMutable) {
         checkRecycled("Can't copy a recycled bitmap");
         Bitmap bitmap = createBitmap(this.getWidth(), this.getHeight(), config);
-        if (!ensureCachedCanvas(false, true))
+        Object source = getDrawingSource();
+        if (source == null)
             return null;
         if (!bitmap.ensureCachedCanvas(true, false))
             return null;
@@ -419,7 +497,7 @@ public final class Bitmap  {
          * @j2sNative 
          * var activeCanvas = bitmap.mCachedCanvas;
          * var activeContext = activeCanvas.getContext("2d");
-         * activeContext.drawImage(this.mCachedCanvas, 0, 0);
+         * activeContext.drawImage(source, 0, 0);
          */{}
         bitmap.mDensity = mDensity;
         return bitmap;
@@ -437,6 +515,9 @@ public final class Bitmap  {
      * @return If fail to create cached canvas, return false
      */
     public Boolean ensureCachedCanvas(Boolean changeCachedCanvas, Boolean needUpdateIntoCachedCanvas) {
+        if (mIsPurgeable && !hasDecodedPixels()) {
+            touchPurgeable();
+        }
          /**
           * @j2sNative
           * if (this.mCachedCanvas == null) {
@@ -450,41 +531,485 @@ public final class Bitmap  {
           *     }
           *
           *     var context = this.mCachedCanvas.getContext('2d');
-          *     var imageData = context.createImageData(this.mCachedCanvas.width, this.mCachedCanvas.height);
-          *     this.mCachedImageData = imageData;
-          *     if (this.mRawData) {
+          *     this.mCachedImageData = null;
+          *     this.mIsCachedCanvasDirty = true;
+          *     this.mResidency = android.graphics.Bitmap.RESIDENCY_CANVAS;
+          *     this.mPixelReads = 0;
+          *     if (this.mRawData && this.mImageBitmap != null) {
+          *        // The browser has already decoded the pixels, so draw them instead
+          *        // of inflating mRawData in script. They are read back only if needed.
+          *        context.drawImage(this.mImageBitmap, 0, 0, this.mCachedCanvas.width, this.mCachedCanvas.height);
+          *        this.releaseImageBitmap();
+          *     } else if (this.mRawData) {
           *        var png = new PNG(this.mRawData, false);
+          *        // The bitmap is smaller or larger than the image when it was decoded with
+          *        // inSampleSize or scaled for density. Decode at full size into a scratch
+          *        // canvas and let the 2D context resample it.
+          *        var resample = png.width != canvas.width || png.height != canvas.height;
+          *        var fullCanvas = null;
+          *        var target = null;
+          *        if (resample) {
+          *            fullCanvas = document.createElement('canvas');
+          *            fullCanvas.width = png.width;
+          *            fullCanvas.height = png.height;
+          *            target = fullCanvas.getContext('2d').createImageData(png.width, png.height);
+          *        } else {
+          *            target = context.createImageData(canvas.width, canvas.height);
+          *        }
           *        // Decode the data from png into imageData
           *        var pixelBytes = png.pixelBitlength / 8;
           *        if (pixelBytes >= 3 && !png.palette.length && png.colors != 1) { // go to fast path for RGBA mode
-          *            png.decodePixels(null, imageData.data); // directly decode the pixels into imageData, avoid copy
+          *            png.decodePixels(null, target.data); // directly decode the pixels into imageData, avoid copy
           *        } else {
-          *            png.copyToImageData(imageData, png.decodePixels());
+          *            png.copyToImageData(target, png.decodePixels());
+          *        }
+          *        if (resample) {
+          *            fullCanvas.getContext('2d').putImageData(target, 0, 0);
+          *            context.drawImage(fullCanvas, 0, 0, canvas.width, canvas.height);
+          *        } else {
+          *            // Keep the pixels until the bitmap is drawn, a getPixel() may come first
+          *            this.mCachedImageData = target;
+          *            this.mIsCachedCanvasDirty = false;
+          *            this.markPixelsDirty(0, 0, canvas.width, canvas.height);
           *        }
-          *        this.mIsImageDataDirty = true;
-          *        needUpdateIntoCachedCanvas = true;
-          *        // this.mDataURL = this.mCachedCanvas.toDataURL(); // not needed, will remove it
-          *        this.mCachedCanvas = canvas;
           *     } else {
-          *         //context.clearRect(0, 0, this.getWidth(), this.getHeight());
+          *         this.mCachedImageData = context.createImageData(canvas.width, canvas.height);
+          *         this.mIsCachedCanvasDirty = false;
           *     }
           * }
           * 
           * // update the ImageData into CachedCanvas if we need to update and data is dirty. 
-          * if (needUpdateIntoCachedCanvas == true && this.mIsImageDataDirty == true) {
-          *     this.mCachedCanvas.getContext("2d").putImageData(this.mCachedImageData,0,0);
-          *     this.mIsImageDataDirty = false;
+          * if (needUpdateIntoCachedCanvas == true) {
+          *     this.syncPixelsToCanvas();
           * }
           * 
           * if (changeCachedCanvas == true) {
-          *     // If the cached canvas is changed. Next time we read the pixels from mCachedImageData,
-          *     // we need to get the latest data from cached canvas.
-          *     this.mIsCachedCanvasDirty = true;
+          *     this.onCachedCanvasChanged();
           * }
           */{}
          return true;
     }
-    
+
+    /**
+     * Returns the cached canvas for drawing into it, e.g. from a Canvas
+     * created on this bitmap. Pending pixel changes are copied to it first,
+     * and the bitmap switches to canvas residency.
+     *
+     * @return the canvas element, or null if it could not be created
+     */
+    public Object getCanvasForDrawing() {
+        if (!ensureCachedCanvas(true, false))
+            return null;
+        Object canvas = null;
+        /**
+         * @j2sNative
+         * canvas = this.mCachedCanvas;
+         */{}
+        return canvas;
+    }
+
+    /**
+     * The cached canvas is about to be drawn into, so mCachedImageData will
+     * no longer hold the current pixels.
+     */
+    private void onCachedCanvasChanged() {
+        syncPixelsToCanvas();
+        /**
+         * @j2sNative
+         * this.mCachedImageData = null;
+         */{}
+        mIsCachedCanvasDirty = true;
+        mResidency = RESIDENCY_CANVAS;
+        mPixelReads = 0;
+        mGenerationId++;
+        clearChangedRect();
+    }
+
+    /**
+     * Copies the dirty rectangle of mCachedImageData to the cached canvas. In
+     * canvas residency the image data is dropped afterwards.
+     */
+    private void syncPixelsToCanvas() {
+        if (mIsImageDataDirty) {
+            /**
+             * @j2sNative
+             * this.mCachedCanvas.getContext("2d").putImageData(this.mCachedImageData, 0, 0,
+             *         this.mDirtyLeft, this.mDirtyTop,
+             *         this.mDirtyRight - this.mDirtyLeft, this.mDirtyBottom - this.mDirtyTop);
+             */{}
+            mIsImageDataDirty = false;
+        }
+        if (mResidency == RESIDENCY_CANVAS && !mIsCachedCanvasDirty) {
+            /**
+             * @j2sNative
+             * this.mCachedImageData = null;
+             */{}
+            mIsCachedCanvasDirty = true;
+        }
+    }
+
+    private void markPixelsDirty(int left, int top, int right, int bottom) {
+        mGenerationId++;
+        if (mChangedLeft >= mChangedRight) {
+            mChangedLeft = left;
+            mChangedTop = top;
+            mChangedRight = right;
+            mChangedBottom = bottom;
+        } else {
+            if (left < mChangedLeft) mChangedLeft = left;
+            if (top < mChangedTop) mChangedTop = top;
+            if (right > mChangedRight) mChangedRight = right;
+            if (bottom > mChangedBottom) mChangedBottom = bottom;
+        }
+        if (!mIsImageDataDirty) {
+            mDirtyLeft = left;
+            mDirtyTop = top;
+            mDirtyRight = right;
+            mDirtyBottom = bottom;
+            mIsImageDataDirty = true;
+            return;
+        }
+        if (left < mDirtyLeft) mDirtyLeft = left;
+        if (top < mDirtyTop) mDirtyTop = top;
+        if (right > mDirtyRight) mDirtyRight = right;
+        if (bottom > mDirtyBottom) mDirtyBottom = bottom;
+    }
+
+    /**
+     * Returns the generation ID of this bitmap. The generation ID changes
+     * whenever the bitmap is modified. This can be used as an efficient way to
+     * check if a bitmap has changed.
+     *
+     * @return The current generation ID for this bitmap.
+     */
+    public int getGenerationId() {
+        return mGenerationId;
+    }
+
+    /**
+     * Returns the area of the pixels written since generation
+     * <code>generation</code>, e.g. to update only that part of a texture.
+     * The area is empty if nothing has been written.
+     *
+     * @param generation a generation returned by {@link #getGenerationId}
+     * @param out set to the area
+     * @return false if the area is not known, either because the bitmap has
+     *         been drawn into since then or because {@link #clearChangedRect}
+     *         has been called after it
+     * @hide
+     */
+    public boolean getChangedRect(int generation, Rect out) {
+        if (generation < mChangedSince) {
+            return false;
+        }
+        if (mChangedLeft >= mChangedRight) {
+            out.setEmpty();
+        } else {
+            out.set(mChangedLeft, mChangedTop, mChangedRight, mChangedBottom);
+        }
+        return true;
+    }
+
+    /**
+     * Starts the area returned by {@link #getChangedRect} over from the
+     * current generation. Called once its pixels have been consumed, so that
+     * it does not keep growing.
+     *
+     * @hide
+     */
+    public void clearChangedRect() {
+        mChangedSince = mGenerationId;
+        mChangedLeft = 0;
+        mChangedTop = 0;
+        mChangedRight = 0;
+        mChangedBottom = 0;
+    }
+
+    /**
+     * Returns the ImageData holding the current pixels, without copying them
+     * to the cached canvas first. Its data is in RGBA order, not
+     * premultiplied.
+     *
+     * @return the ImageData, or null if the current pixels are only in the
+     *         cached canvas or in the image decoded by the browser
+     * @hide
+     */
+    public Object getPixelData() {
+        if (mIsCachedCanvasDirty) {
+            return null;
+        }
+        /**
+         * @j2sNative
+         * return this.mCachedImageData;
+         */{}
+        return null;
+    }
+
+    /**
+     * Makes mCachedImageData hold the current pixels so that they can be
+     * written, and switches to pixel residency.
+     */
+    private boolean ensurePixelsWritable() {
+        if (!ensureCachedCanvas(false, false))
+            return false;
+        mResidency = RESIDENCY_PIXELS;
+        checkCachedCanvasDirty();
+        return true;
+    }
+
+    /**
+     * Called before reading <code>count</code> pixels.
+     *
+     * @return true if they can be read from mCachedImageData, false if the
+     *         caller should read them from the cached canvas
+     */
+    private boolean preparePixelRead(int count) {
+        if (!mIsCachedCanvasDirty) {
+            return true;
+        }
+        mPixelReads += count;
+        if (mResidency == RESIDENCY_PIXELS || mPixelReads > PIXEL_READS_BEFORE_PIXEL_MODE) {
+            mResidency = RESIDENCY_PIXELS;
+            checkCachedCanvasDirty();
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isLittleEndian() {
+        /**
+         * @j2sNative
+         * return new Uint8Array(new Uint32Array([1]).buffer)[0] == 1;
+         */{}
+        return true;
+    }
+
+    /**
+     * Writes ARGB colors into mCachedImageData through a Uint32Array view.
+     */
+    private void writePixels32(int[] colors, int offset, int stride, int x,
+            int y, int width, int height) {
+        /**
+         * @j2sNative
+         * var imageWidth = this.mCachedImageData.width;
+         * if (!android.graphics.Bitmap.sLittleEndian) {
+         *     var data = this.mCachedImageData.data;
+         *     for (var i = 0; i < height; i++) {
+         *         var src = offset + i * stride;
+         *         var index = ((y + i) * imageWidth + x) * 4;
+         *         for (var j = 0; j < width; j++, index += 4) {
+         *             var color = colors[src + j];
+         *             data[index] = (color >> 16) & 0xff;
+         *             data[index+1] = (color >> 8) & 0xff;
+         *             data[index+2] = color & 0xff;
+         *             data[index+3] = (color >>> 24);
+         *         }
+         *     }
+         *     return;
+         * }
+         * var pixels32 = new Uint32Array(this.mCachedImageData.data.buffer);
+         * for (var i = 0; i < height; i++) {
+         *     var src = offset + i * stride;
+         *     var dst = (y + i) * imageWidth + x;
+         *     for (var j = 0; j < width; j++) {
+         *         var color = colors[src + j];
+         *         // 0xAARRGGBB to 0xAABBGGRR
+         *         pixels32[dst + j] = (color & 0xff00ff00) | ((color >> 16) & 0xff) | ((color & 0xff) << 16);
+         *     }
+         * }
+         */{}
+    }
+
+    /**
+     * Reads ARGB colors from <code>imageData</code>, starting at (sx, sy),
+     * through a Uint32Array view.
+     */
+    private static void readPixels32(Object imageData, int sx, int sy, int[] colors,
+            int offset, int stride, int width, int height) {
+        /**
+         * @j2sNative
+         * var imageWidth = imageData.width;
+         * if (!android.graphics.Bitmap.sLittleEndian) {
+         *     var data = imageData.data;
+         *     for (var i = 0; i < height; i++) {
+         *         var dst = offset + i * stride;
+         *         var index = ((sy + i) * imageWidth + sx) * 4;
+         *         for (var j = 0; j < width; j++, index += 4) {
+         *             colors[dst + j] = android.graphics.Color.argb(data[index+3], data[index], data[index+1], data[index+2]);
+         *         }
+         *     }
+         *     return;
+         * }
+         * var pixels32 = new Uint32Array(imageData.data.buffer);
+         * for (var i = 0; i < height; i++) {
+         *     var src = (sy + i) * imageWidth + sx;
+         *     var dst = offset + i * stride;
+         *     for (var j = 0; j < width; j++) {
+         *         var color = pixels32[src + j];
+         *         // 0xAABBGGRR to 0xAARRGGBB
+         *         colors[dst + j] = (color & 0xff00ff00) | ((color >> 16) & 0xff) | ((color & 0xff) << 16);
+         *     }
+         * }
+         */{}
+    }
+
+    /**
+     * Returns the HTML5 image source this bitmap should be drawn from: the
+     * ImageBitmap decoded by the browser as long as nobody has asked for the
+     * pixels, otherwise the cached canvas.
+     *
+     * @return an ImageBitmap or canvas element, or null if the cached canvas
+     *         could not be created
+     */
+    public Object getDrawingSource() {
+        if (mIsPurgeable) {
+            touchPurgeable();
+        }
+        /**
+         * @j2sNative
+         * if (this.mCachedCanvas == null && this.mImageBitmap != null) {
+         *     return this.mImageBitmap;
+         * }
+         */{}
+        if (!ensureCachedCanvas(false, true))
+            return null;
+        Object source = null;
+        /**
+         * @j2sNative
+         * source = this.mCachedCanvas;
+         */{}
+        return source;
+    }
+
+    /**
+     * Called by {@link BitmapDecoder} when the browser has decoded mRawData.
+     * The result is dropped if the pixels have been decoded in script in the
+     * meantime, since the cached canvas is then the only valid copy.
+     */
+    /* package */ void onNativeDecoded(Object image) {
+        /**
+         * @j2sNative
+         * if (this.mRecycled || this.mCachedCanvas != null) {
+         *     if (image.close) image.close();
+         *     return;
+         * }
+         * var width = image.width || image.displayWidth;
+         * var height = image.height || image.displayHeight;
+         * if (width != this.mWidth || height != this.mHeight) {
+         *     // The host ignored the requested size, the script decoder will resample
+         *     if (image.close) image.close();
+         *     return;
+         * }
+         * this.mImageBitmap = image;
+         */{}
+        if (mIsPurgeable) {
+            touchPurgeable();
+        }
+    }
+
+    /**
+     * @return true if the pixels have been decoded from mRawData, either by
+     *         the browser or by the script decoder
+     */
+    /* package */ boolean hasDecodedPixels() {
+        /**
+         * @j2sNative
+         * return this.mCachedCanvas != null || this.mImageBitmap != null;
+         */{}
+        return false;
+    }
+
+    /**
+     * Drops the decoded pixels of a purgeable bitmap. They are decoded again
+     * from mRawData the next time they are needed.
+     */
+    private void purge() {
+        releaseImageBitmap();
+        /**
+         * @j2sNative
+         * this.mCachedCanvas = null;
+         * this.mCachedImageData = null;
+         */{}
+        mIsImageDataDirty = false;
+        mIsCachedCanvasDirty = false;
+        mResidency = RESIDENCY_CANVAS;
+    }
+
+    /**
+     * Marks this purgeable bitmap as the most recently used one, and purges
+     * the least recently used ones if the resident pixels exceed the budget.
+     */
+    private void touchPurgeable() {
+        if (mIsMutable || mRecycled || mRawData == null) {
+            return;
+        }
+        synchronized (sResidentPurgeable) {
+            Integer key = Integer.valueOf(id);
+            if (sResidentPurgeable.get(key) == null) {
+                int bytes = mWidth * mHeight * 4;
+                sResidentPurgeable.put(key, new ResidentPixels(this, bytes));
+                sResidentPurgeableBytes += bytes;
+                trimPurgeableLocked(sPurgeableBudget, this);
+            }
+        }
+    }
+
+    private void forgetResident() {
+        ResidentPixels resident = sResidentPurgeable.remove(Integer.valueOf(id));
+        if (resident != null) {
+            sResidentPurgeableBytes -= resident.bytes;
+        }
+    }
+
+    private static void trimPurgeableLocked(int maxBytes, Bitmap keep) {
+        Iterator<ResidentPixels> it = sResidentPurgeable.values().iterator();
+        while (sResidentPurgeableBytes > maxBytes && it.hasNext()) {
+            ResidentPixels resident = it.next();
+            if (resident.bitmap == keep) {
+                continue;
+            }
+            it.remove();
+            sResidentPurgeableBytes -= resident.bytes;
+            resident.bitmap.purge();
+        }
+    }
+
+    /**
+     * Sets how many bytes of decoded pixels purgeable bitmaps may hold before
+     * the least recently used ones are purged.
+     *
+     * @hide
+     */
+    public static void setPurgeableBudget(int maxBytes) {
+        synchronized (sResidentPurgeable) {
+            sPurgeableBudget = maxBytes;
+            trimPurgeableLocked(maxBytes, null);
+        }
+    }
+
+    /**
+     * Purges the least recently used purgeable bitmaps until their pixels
+     * take at most <code>maxBytes</code>. Pass 0 to purge all of them, e.g.
+     * when the system is low on memory.
+     *
+     * @hide
+     */
+    public static void trimPurgeableBitmaps(int maxBytes) {
+        synchronized (sResidentPurgeable) {
+            trimPurgeableLocked(maxBytes, null);
+        }
+    }
+
+    private void releaseImageBitmap() {
+        /**
+         * @j2sNative
+         * if (this.mImageBitmap != null) {
+         *     if (this.mImageBitmap.close) this.mImageBitmap.close();
+         *     this.mImageBitmap = null;
+         * }
+         */{}
+    }
+
     public void checkCachedCanvasDirty() {
         // If the cached canvas has been modified, we need to update the data into cached image data
         // as getPixel will read pixels from the cached image data.
@@ -494,6 +1019,7 @@ public final class Bitmap  {
              * this.mCachedImageData = this.mCachedCanvas.getContext("2d").getImageData(0, 0, this.getWidth(), this.getHeight());
              * this.mIsCachedCanvasDirty = false;
              */{}
+            mPixelReads = 0;
         }
     }
     
@@ -629,18 +1155,18 @@ public final class Bitmap  {
      */
     public static Bitmap createScaledBitmap(Bitmap src, int dstWidth,
             int dstHeight, boolean filter) {
-        if (!src.ensureCachedCanvas(false, true))
+        Object source = src.getDrawingSource();
+        if (source == null)
             return null;
         Bitmap bitmap = createBitmap(dstWidth, dstHeight, Config.ARGB_8888);
         bitmap.mDensity = src.mDensity;
-        if (!bitmap.ensureCachedCanvas(false, false))
+        Object activeCanvas = bitmap.getCanvasForDrawing();
+        if (activeCanvas == null)
             return null;
         /**
          * @j2sNative 
-         * var activeCanvas = bitmap.mCachedCanvas; 
          * var activeContext = activeCanvas.getContext("2d");
-         * activeContext.drawImage(src.mCachedCanvas, 0, 0, bitmap.getWidth(), bitmap.getHeight());
-         * bitmap.mIsCachedCanvasDirty = true;
+         * activeContext.drawImage(source, 0, 0, bitmap.getWidth(), bitmap.getHeight());
          */{}
         return bitmap;
     }
@@ -982,10 +1508,13 @@ public final class Bitmap  {
         }
         /**
          * @j2sNative 
-         * this.checkCachedCanvasDirty();
-         * var data = this.mCachedImageData.data; 
-         * var index = y * 4 * this.mWidth + x * 4; 
-         * return android.graphics.Color.argb(data[index+3], data[index], data[index+1], data[index+2]);
+         * if (this.preparePixelRead(1)) {
+         *     var data = this.mCachedImageData.data; 
+         *     var index = y * 4 * this.mWidth + x * 4; 
+         *     return android.graphics.Color.argb(data[index+3], data[index], data[index+1], data[index+2]);
+         * }
+         * var data = this.mCachedCanvas.getContext("2d").getImageData(x, y, 1, 1).data;
+         * return android.graphics.Color.argb(data[3], data[0], data[1], data[2]);
          */{}
         return 0;
     }
@@ -1098,7 +1627,7 @@ public final class Bitmap  {
             throw new IllegalStateException();
         }
         checkPixelAccess(x, y);
-        if (!ensureCachedCanvas(false, false))
+        if (!ensurePixelsWritable())
             return;
 
          /**
@@ -1110,7 +1639,7 @@ public final class Bitmap  {
           *  data[index+2] = android.graphics.Color.blue(color);
           *  data[index+3] = android.graphics.Color.alpha(color);;
           */{}
-         mIsImageDataDirty = true;
+         markPixelsDirty(x, y, x + 1, y + 1);
 
     }
 
@@ -1145,10 +1674,10 @@ public final class Bitmap  {
             return; // nothing to do
         }
         checkPixelsAccess(x, y, width, height, offset, stride, pixels);
-        if (!ensureCachedCanvas(false, false))
+        if (!ensurePixelsWritable())
             return;
         nativeSetPixels(pixels, offset, stride, x, y, width, height);
-        mIsImageDataDirty = true;
+        markPixelsDirty(x, y, x + width, y + height);
     }
 
     /**
@@ -1248,35 +1777,39 @@ public final class Bitmap  {
         String fillColor = Color.toString(color);
         /**
          * @j2sNative
-         * if (!this.ensureCachedCanvas(false, false)) return;
-         * var context = this.mCachedCanvas.getContext("2d");
+         * var canvas = this.getCanvasForDrawing();
+         * if (canvas == null) return;
+         * var context = canvas.getContext("2d");
          * context.save();
          * context.fillStyle = fillColor;
-         * context.fillRect(0, 0, this.mCachedCanvas.width, this.mCachedCanvas.height);
+         * context.fillRect(0, 0, canvas.width, canvas.height);
          * context.restore();
          */{}
-         this.mIsCachedCanvasDirty = true;
     }
 
     public void nativeSetPixels(int[] colors, int offset, int stride, int x,
             int y, int width, int height) {
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; (j < width)
-                    && (i * stride + j + offset < colors.length); j++) {
-                setPixel(x + j, y + i, colors[i * stride + j + offset]);
-            }
-        }
+        writePixels32(colors, offset, stride, x, y, width, height);
     }
 
     public void nativeGetPixels(int[] pixels, int offset, int stride, int x,
             int y, int width, int height) {
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; (j < width)
-                    && (i * stride + j + offset < pixels.length); j++) {
-                pixels[i * stride + j + offset] = getPixel(x + j, y + i);
-            }
+        if (preparePixelRead(width * height)) {
+            Object imageData = null;
+            /**
+             * @j2sNative
+             * imageData = this.mCachedImageData;
+             */{}
+            readPixels32(imageData, x, y, pixels, offset, stride, width, height);
+            return;
         }
-
+        // Read just the requested rectangle from the canvas
+        Object region = null;
+        /**
+         * @j2sNative
+         * region = this.mCachedCanvas.getContext("2d").getImageData(x, y, width, height);
+         */{}
+        readPixels32(region, 0, 0, pixels, offset, stride, width, height);
     }
 
     /**
@@ -1096,6 +1096,113 @@ var FlateStream = (function() {
 
 	}
 
+    /**
+     * Hands the encoded data of <code>bm</code> to the browser's image decoder,
+     * which decodes it off the main thread. Once done, the bitmap draws the
+     * resulting ImageBitmap directly. Until then, or on hosts without
+     * createImageBitmap/ImageDecoder, the pixels are decoded by the PNG
+     * decoder above the first time they are needed.
+     *
+     * <p>Called by {@link BitmapFactory} once the final size of the bitmap is
+     * known, so that subsampled and density scaled bitmaps are resized by the
+     * browser while decoding.
+     */
+    /* package */ static void startNativeDecode(Bitmap bm) {
+        byte[] data = bm.mRawData;
+        if (data == null || bm.hasDecodedPixels()) {
+            return;
+        }
+        int width = bm.getWidth();
+        int height = bm.getHeight();
+        /**
+         * @j2sNative
+         * var hasImageBitmap = typeof createImageBitmap != "undefined" && typeof Blob != "undefined";
+         * var hasImageDecoder = typeof ImageDecoder != "undefined";
+         * if (!hasImageBitmap && !hasImageDecoder) return;
+         * var bytes = new Uint8Array(data.length);
+         * for (var i = 0; i < data.length; i++) {
+         *     bytes[i] = data[i] & 0xff;
+         * }
+         * var type = android.graphics.BitmapDecoder.sniffMimeType(bytes);
+         * if (type == null) return;
+         * var onError = function (e) {
+         *     android.util.Log.w("BitmapDecoder", "native decode failed for " + bm.fileName + ": " + e);
+         * };
+         * try {
+         *     if (hasImageBitmap) {
+         *         createImageBitmap(new Blob([bytes], {type: type}),
+         *                 {resizeWidth: width, resizeHeight: height, resizeQuality: "medium"}).then(function (image) {
+         *             bm.onNativeDecoded(image);
+         *         }, onError);
+         *     } else {
+         *         new ImageDecoder({data: bytes, type: type,
+         *                 desiredWidth: width, desiredHeight: height}).decode().then(function (result) {
+         *             bm.onNativeDecoded(result.image);
+         *         }, onError);
+         *     }
+         * } catch (e) {
+         *     onError(e);
+         * }
+         */{}
+    }
+
+    /**
+     * @return the MIME type of the encoded image, judged from its signature,
+     *         or null if it is not a known format
+     */
+    private static String sniffMimeType(Object data) {
+        /**
+         * @j2sNative
+         * if (data.length < 12) return null;
+         * var b = function (i) { return data[i] & 0xff; };
+         * if (b(0) == 0x89 && b(1) == 0x50 && b(2) == 0x4E && b(3) == 0x47) return "image/png";
+         * if (b(0) == 0xFF && b(1) == 0xD8) return "image/jpeg";
+         * if (b(0) == 0x47 && b(1) == 0x49 && b(2) == 0x46) return "image/gif";
+         * if (b(0) == 0x42 && b(1) == 0x4D) return "image/bmp";
+         * if (b(0) == 0x52 && b(1) == 0x49 && b(2) == 0x46 && b(3) == 0x46
+         *         && b(8) == 0x57 && b(9) == 0x45 && b(10) == 0x42 && b(11) == 0x50) return "image/webp";
+         */{}
+        return null;
+    }
+
+    /**
+     * @return true if <code>data</code> is a PNG with the chunk of a nine
+     *         patch, found by skipping from chunk header to chunk header
+     */
+    private static boolean hasNinePatchChunk(byte[] data) {
+        /**
+         * @j2sNative
+         * var b = function (i) { return data[i] & 0xff; };
+         * if (data.length < 8 || b(0) != 0x89 || b(1) != 0x50 || b(2) != 0x4E || b(3) != 0x47) {
+         *     return false;
+         * }
+         * var pos = 8;
+         * while (pos + 8 <= data.length) {
+         *     var length = ((b(pos) << 24) | (b(pos + 1) << 16) | (b(pos + 2) << 8) | b(pos + 3)) >>> 0;
+         *     var type = String.fromCharCode(b(pos + 4), b(pos + 5), b(pos + 6), b(pos + 7));
+         *     if (type == "npTc") {
+         *         return true;
+         *     }
+         *     if (type == "IEND") {
+         *         break;
+         *     }
+         *     // length, type, data and CRC
+         *     pos += 12 + length;
+         * }
+         */{}
+        return false;
+    }
+
+    /**
+     * @return the inSampleSize requested by <code>opts</code>, at least 1
+     */
+    private static int getSampleSize(Options opts) {
+        if (opts == null || opts.inSampleSize <= 1) {
+            return 1;
+        }
+        return opts.inSampleSize;
+    }
+
     private static Config getConfig(int colorType, int bits, int hasAlpha) {
         // FIXME: return bitmap config according to type, currently always return ARGB_8888 because
         // we will decode the data into a HTML5 canvas.
@@ -1130,6 +1237,11 @@ var FlateStream = (function() {
 
         int width = 0, height = 0;
         int colorType = 0, bits = 0, hasAlpha = 0;
+        if (opts != null) {
+            opts.outWidth = -1;
+            opts.outHeight = -1;
+            opts.outMimeType = sniffMimeType(storage);
+        }
         /**
          * @j2sNative 
          * // We will only read some properties here and
@@ -1145,19 +1257,39 @@ var FlateStream = (function() {
          * bits = png.bits;
          * hasAlpha = png.hasAlphaChannel;
          */{}
-        bm = android.graphics.Bitmap.nativeCreateBitmap(null, 0, width, width, height,
-                getConfig(colorType, bits, hasAlpha), false);
-        bm.resID = resId;
-        bm.fileName = fileName;
-        Log.d("BitmapDecoder", "Decode bitmap fileName: " + fileName + " resID:" + resId);
         byte[] np = null;
-        bm.mRawData = storage;
         /**
          * @j2sNative
          * if (png.ninePatchChunk) { // nine patch image
          *     np = png.ninePatchChunk; 
          * }
          */{}
+        // The divs of a nine patch are in image pixels, so it is never subsampled
+        int sampleSize = np == null ? getSampleSize(opts) : 1;
+        width = Math.max(1, width / sampleSize);
+        height = Math.max(1, height / sampleSize);
+        if (opts != null) {
+            opts.outWidth = width;
+            opts.outHeight = height;
+            if (opts.inJustDecodeBounds) {
+                // the bitmap would be scaled for its density by BitmapFactory
+                float scale = BitmapFactory.getDensityScale(opts, np != null);
+                if (scale != 1.0f) {
+                    opts.outWidth = (int) (width * scale + 0.5f);
+                    opts.outHeight = (int) (height * scale + 0.5f);
+                }
+                return null;
+            }
+        }
+        bm = android.graphics.Bitmap.nativeCreateBitmap(null, 0, width, width, height,
+                getConfig(colorType, bits, hasAlpha), false);
+        bm.resID = resId;
+        bm.fileName = fileName;
+        Log.d("BitmapDecoder", "Decode bitmap fileName: " + fileName + " resID:" + resId);
+        // storage is our own copy of the stream, so it can be kept for
+        // re-decoding whatever inInputShareable says
+        bm.mRawData = storage;
+        bm.mIsPurgeable = opts != null && opts.inPurgeable;
          if (np != null) {
              Res_png_9patch patch = Res_png_9patch.deserialize(np);
              bm.setNinePatch(patch);
@@ -1180,29 +1312,61 @@ var FlateStream = (function() {
             int length, Options opts) {
         Bitmap bm = null;
 
+        // The decoders below read from the start of the array. A purgeable
+        // bitmap that may not share its input keeps a private copy as well.
+        boolean shareable = opts == null || !opts.inPurgeable || opts.inInputShareable;
+        if (offset != 0 || length != data.length || !shareable) {
+            byte[] copy = new byte[length];
+            System.arraycopy(data, offset, copy, 0, length);
+            data = copy;
+        }
+
         int width = 0, height = 0;
         int colorType = 0, bits = 0, hasAlpha = 0;
+        boolean justBounds = opts != null && opts.inJustDecodeBounds;
+        if (opts != null) {
+            opts.outWidth = -1;
+            opts.outHeight = -1;
+            opts.outMimeType = sniffMimeType(data);
+        }
         /**
          * @j2sNative 
          *  // We will only read some properties here and
          *  // delay the decode until the pixels are really needed
-         * var png = new PNG(data, false);
+         * var png = new PNG(data, justBounds);
          * width = png.width;height = png.height;
          * colorType = png.colorType;
          * bits = png.bits;
          * hasAlpha = png.hasAlphaChannel;
          */{}
-         
-        bm = android.graphics.Bitmap.createBitmap(width, height,
-                getConfig(colorType, bits, hasAlpha));
+
         byte[] np = null;
-        bm.mRawData = data;
         /**
          * @j2sNative 
          * if (png.ninePatchChunk) { // nine patch image
          *     np = png.ninePatchChunk; 
          * }
          */{}
+        // Reading the bounds stops at the header, so look for the chunk of
+        // a nine patch, which is never subsampled, on its own
+        int sampleSize = getSampleSize(opts);
+        if (np != null || (justBounds && sampleSize > 1 && hasNinePatchChunk(data))) {
+            sampleSize = 1;
+        }
+        width = Math.max(1, width / sampleSize);
+        height = Math.max(1, height / sampleSize);
+        if (opts != null) {
+            opts.outWidth = width;
+            opts.outHeight = height;
+            if (justBounds) {
+                return null;
+            }
+        }
+
+        bm = android.graphics.Bitmap.nativeCreateBitmap(null, 0, width, width, height,
+                getConfig(colorType, bits, hasAlpha), false);
+        bm.mRawData = data;
+        bm.mIsPurgeable = opts != null && opts.inPurgeable;
          if (np != null) {
              Res_png_9patch patch = Res_png_9patch.deserialize(np);
              bm.setNinePatch(patch);
@@ -409,10 +409,10 @@ public class BitmapFactory {
              bm.resID = id;
              /**
               * @j2sNative
-              * if (bm.ensureCachedCanvas()) {
-              *     var _context = bm.mCachedCanvas.getContext("2d");
+              * var _canvas = bm.getCanvasForDrawing();
+              * if (_canvas != null) {
+              *     var _context = _canvas.getContext("2d");
               *     _context.drawImage(img, 0, 0);
-              *     bm.mIsImageDataDirty = true;
               * } else {
               *     bm = null;
               * }
@@ -456,7 +456,11 @@ public class BitmapFactory {
         if ((offset | length) < 0 || data.length < offset + length) {
             throw new ArrayIndexOutOfBoundsException();
         }
-        return BitmapDecoder.nativeDecodeByteArray(data, offset, length, opts);
+        Bitmap bm = BitmapDecoder.nativeDecodeByteArray(data, offset, length, opts);
+        if (bm != null) {
+            BitmapDecoder.startNativeDecode(bm);
+        }
+        return bm;
     }
 
     /**
@@ -533,7 +537,31 @@ public class BitmapFactory {
             bm = BitmapDecoder.nativeDecodeStream(is, tempStorage, outPadding, opts, resourceId, fileName);
         }
 
-        return finishDecode(bm, outPadding, opts);
+        bm = finishDecode(bm, outPadding, opts);
+        if (bm != null) {
+            BitmapDecoder.startNativeDecode(bm);
+        }
+        return bm;
+    }
+
+    /**
+     * Returns the factor {@link #finishDecode} scales a decoded bitmap by for
+     * its density, or 1 if it is not scaled. Nine patches are always scaled.
+     */
+    /* package */ static float getDensityScale(Options opts, boolean isNinePatch) {
+        if (opts == null) {
+            return 1.0f;
+        }
+        final int density = opts.inDensity;
+        final int targetDensity = opts.inTargetDensity;
+        if (density == 0 || targetDensity == 0 || density == targetDensity
+                || density == opts.inScreenDensity) {
+            return 1.0f;
+        }
+        if (!opts.inScaled && !isNinePatch) {
+            return 1.0f;
+        }
+        return targetDensity / (float) density;
     }
 
     private static Bitmap finishDecode(Bitmap bm, Rect outPadding, Options opts) {
@@ -548,20 +576,24 @@ public class BitmapFactory {
         
         bm.setDensity(density);
         final int targetDensity = opts.inTargetDensity;
-        if (targetDensity == 0 || density == targetDensity
-                || density == opts.inScreenDensity) {
-            return bm;
-        }
   
         Res_png_9patch np = bm.getNinePatch();
         final boolean isNinePatch = np != null;
-        if (opts.inScaled || isNinePatch) {
-            float scale = targetDensity / (float)density;
-            // TODO: This is very inefficient and should be done in native by Skia
-            final Bitmap oldBitmap = bm;
-            bm = Bitmap.createScaledBitmap(oldBitmap, (int) (bm.getWidth() * scale + 0.5f),
-                    (int) (bm.getHeight() * scale + 0.5f), true);
-            oldBitmap.recycle();
+        float scale = getDensityScale(opts, isNinePatch);
+        if (scale != 1.0f) {
+            final int scaledWidth = (int) (bm.getWidth() * scale + 0.5f);
+            final int scaledHeight = (int) (bm.getHeight() * scale + 0.5f);
+            if (bm.mRawData != null && !bm.hasDecodedPixels()) {
+                // Nothing has been decoded yet, so decode straight to the
+                // target size instead of scaling a full size copy.
+                bm.setWidth(scaledWidth);
+                bm.setHeight(scaledHeight);
+            } else {
+                // TODO: This is very inefficient and should be done in native by Skia
+                final Bitmap oldBitmap = bm;
+                bm = Bitmap.createScaledBitmap(oldBitmap, scaledWidth, scaledHeight, true);
+                oldBitmap.recycle();
+            }
 
             if (isNinePatch) {
                 np = nativeScaleNinePatch(np, scale, outPadding);
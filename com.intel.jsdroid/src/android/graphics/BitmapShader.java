@@ -22,6 +22,8 @@ public class BitmapShader extends Shader {
     private Bitmap mBitmap;
     private TileMode m_tileX, m_tileY;
     private String mTileMode = null;
+    // what the cached patterns were created from
+    private Object mPatternSource;
 
     /**
      * Call this to create a new shader that will draw with a bitmap.
@@ -44,4 +46,52 @@ public class BitmapShader extends Shader {
             mTileMode = "no-repeat";
         }
     }
+
+    @Override
+    /* package */ Object getNativeShader(Object context) {
+        // An immutable bitmap still changes source once its pixels are
+        // needed, and a pattern on a closed ImageBitmap draws nothing.
+        Object source = mBitmap.getDrawingSource();
+        if (source != mPatternSource) {
+            mPatternSource = source;
+            invalidateNativeShader();
+        }
+        return super.getNativeShader(context);
+    }
+
+    @Override
+    /* package */ Object createNativeShader(Object context) {
+        if (mTileMode == null) {
+            // only repeat and clamp modes are supported.
+            return null;
+        }
+        Object source = mPatternSource;
+        Object pattern = null;
+        float[] v = null;
+        if (mLocalMatrix != null) {
+            v = new float[9];
+            mLocalMatrix.getValues(v);
+        }
+        /**
+         * @j2sNative
+         * if (context.createPattern == null) {
+         *     android.util.Log.e("BitmapShader", "This browser doesn't support createPattern");
+         *     return null;
+         * }
+         * if (source == null) {
+         *     return null;
+         * }
+         * pattern = context.createPattern(source, this.mTileMode);
+         * if (pattern != null && v != null && pattern.setTransform != null) {
+         *     pattern.setTransform({a: v[0], b: v[3], c: v[1], d: v[4], e: v[2], f: v[5]});
+         * }
+         */{}
+        return pattern;
+    }
+
+    @Override
+    /* package */ boolean isNativeShaderCacheable() {
+        // the pattern is a snapshot of the pixels
+        return !mBitmap.isMutable();
+    }
 }
\ No newline at end of file
@@ -47,7 +47,6 @@ public class Canvas {
 	public float alpha = -1;
 	
 	static final boolean DEBUG = false;
-	private ArrayList<CanvasState> transList = new ArrayList<CanvasState>();
     int _ddx;
     int _ddy;
     int _width;
@@ -55,11 +54,52 @@ public class Canvas {
     Matrix ctm = null; // current transformation matrix
     Rect mClipBounds = new Rect(); // current clipBounds
 
-    private class CanvasState {
-        public Rect _rect = null;
-        public Rect _clipBounds = null;
-        public Matrix _ctm = null; // save ctm
-    }
+    // The states pushed by save(), one per save count, kept in primitive
+    // arrays so that saving allocates nothing once the stack is deep enough.
+    // ViewGroup saves and restores around every child it draws.
+    // ddx, ddy, width, height, clip l/t/r/b, ctm type, layer, device clip l/t/r/b, complex clip
+    private static final int STATE_INTS = 15;
+    private static final int STATE_FLOATS = 9; // ctm values
+    private static final int INITIAL_STATE_CAPACITY = 16;
+    private int[] mStateInts = new int[INITIAL_STATE_CAPACITY * STATE_INTS];
+    private float[] mStateFloats = new float[INITIAL_STATE_CAPACITY * STATE_FLOATS];
+
+    // Layers pushed by saveLayer(), drawn into instead of the canvas until
+    // the matching restore() composites them. The Layer objects are kept for
+    // reuse and their elements come from LayerPool.
+    private static final class Layer {
+        Object canvas;
+        // bounds in pixels of the canvas, i.e. not relative to the layer below
+        int left;
+        int top;
+        int width;
+        int height;
+        int alpha;
+        String compositeOperation;
+    }
+    private final ArrayList<Layer> mLayers = new ArrayList<Layer>();
+    private int mLayerCount = 0;
+    private final RectF mLayerBounds = new RectF();
+
+    /**
+     * System property that turns on sprite batching for the canvases of
+     * windows and surface views, see {@link #setSpriteBatching}.
+     *
+     * @hide
+     */
+    public static final String SPRITE_BATCHING_PROPERTY = "mayloon.canvas.spritebatching";
+
+    // Sprite batching, see setSpriteBatching(). The clip is tracked in
+    // pixels as long as it is a rectangle, which the batch clips to; a
+    // clip by a path, or by a rotated rectangle, turns batching off until
+    // it is restored.
+    private static final int NO_CLIP = 1 << 30;
+    private boolean mSpriteBatching = false;
+    private final Rect mDeviceClip = new Rect(-NO_CLIP, -NO_CLIP, NO_CLIP, NO_CLIP);
+    private boolean mComplexClip = false;
+    private final RectF mClipRect = new RectF();
+    private final Matrix mBatchMatrix = new Matrix();
+    private final float[] mBatchValues = new float[9];
 
 	private Bitmap mBM;
 	private final String appCanvasID;
@@ -78,6 +118,14 @@ public class Canvas {
 
 	private int canvasType = 0;
 	private String activeCanvas = null;
+	// element of activeCanvas, kept so that it is not looked up on every draw
+	private Object mActiveElement = null;
+	// last gradient made by drawGradient()
+	private Object mGradient = null;
+	private Object mGradientContext = null;
+	private int mGradientStartColor;
+	private int mGradientEndColor;
+	private int mGradientHeight = -1;
 	private boolean opaqueFlag = false;
 	
     // the SAVE_FLAG constants must match their native equivalents
@@ -111,12 +159,62 @@ public class Canvas {
     }
 
     private void initSave() {
-        saveCount++;
-        CanvasState state = new CanvasState();
-        state._rect = new Rect(_ddx, _ddy, _ddx + _width, _ddy + _height);
-        state._clipBounds = new Rect(mClipBounds);
-        state._ctm = new Matrix(this.ctm);
-        transList.add(state);
+        pushState(false);
+    }
+
+    /**
+     * Pushes the translation, size, clip bounds and matrix on the state
+     * stack, and returns the new save count. <code>layer</code> tells that
+     * the matching restore() must composite the top layer.
+     */
+    private int pushState(boolean layer) {
+        int index = saveCount;
+        if ((index + 1) * STATE_INTS > mStateInts.length) {
+            int capacity = (index + 1) * 2;
+            int[] ints = new int[capacity * STATE_INTS];
+            System.arraycopy(mStateInts, 0, ints, 0, mStateInts.length);
+            mStateInts = ints;
+            float[] floats = new float[capacity * STATE_FLOATS];
+            System.arraycopy(mStateFloats, 0, floats, 0, mStateFloats.length);
+            mStateFloats = floats;
+        }
+        int[] ints = mStateInts;
+        int i = index * STATE_INTS;
+        ints[i] = _ddx;
+        ints[i + 1] = _ddy;
+        ints[i + 2] = _width;
+        ints[i + 3] = _height;
+        ints[i + 4] = mClipBounds.left;
+        ints[i + 5] = mClipBounds.top;
+        ints[i + 6] = mClipBounds.right;
+        ints[i + 7] = mClipBounds.bottom;
+        ints[i + 8] = this.ctm.saveTo(mStateFloats, index * STATE_FLOATS);
+        ints[i + 9] = layer ? 1 : 0;
+        ints[i + 10] = mDeviceClip.left;
+        ints[i + 11] = mDeviceClip.top;
+        ints[i + 12] = mDeviceClip.right;
+        ints[i + 13] = mDeviceClip.bottom;
+        ints[i + 14] = mComplexClip ? 1 : 0;
+        saveCount = index + 1;
+        return saveCount;
+    }
+
+    /**
+     * Pops the state pushed by the matching {@link #pushState}.
+     */
+    private void popState() {
+        int index = saveCount - 1;
+        int[] ints = mStateInts;
+        int i = index * STATE_INTS;
+        _ddx = ints[i];
+        _ddy = ints[i + 1];
+        _width = ints[i + 2];
+        _height = ints[i + 3];
+        mClipBounds.set(ints[i + 4], ints[i + 5], ints[i + 6], ints[i + 7]);
+        this.ctm.restoreFrom(mStateFloats, index * STATE_FLOATS, ints[i + 8]);
+        mDeviceClip.set(ints[i + 10], ints[i + 11], ints[i + 12], ints[i + 13]);
+        mComplexClip = ints[i + 14] != 0;
+        saveCount = index;
     }
 
     public enum EdgeType {
@@ -153,6 +251,173 @@ public class Canvas {
         return activeCanvas;
     }
 
+    /**
+     * Returns the element drawn into: the top layer if there is one, else
+     * the bitmap's canvas, which is marked as changed, or the HTML5 canvas.
+     */
+    private Object getDrawingCanvas() {
+        if (mSpriteBatching) {
+            // the sprites queued before are drawn first
+            SpriteBatch.flush(this);
+        }
+        if (mLayerCount > 0) {
+            return mLayers.get(mLayerCount - 1).canvas;
+        }
+        /**
+         * @j2sNative
+         * if (this.mBM != null) {
+         *     return this.mBM.getCanvasForDrawing();
+         * }
+         */{}
+        return getHTML5Canvas();
+    }
+
+    /**
+     * Same as {@link #getDrawingCanvas} for changes to the state only, such
+     * as save() and restore(), which must not mark a bitmap as changed.
+     */
+    private Object getStateCanvas() {
+        if (mLayerCount > 0) {
+            return mLayers.get(mLayerCount - 1).canvas;
+        }
+        /**
+         * @j2sNative
+         * if (this.mBM != null) {
+         *     return this.mBM.mCachedCanvas;
+         * }
+         */{}
+        return getHTML5Canvas();
+    }
+
+    /**
+     * Returns the element of activeCanvas, looking it up only when it is
+     * not the one found last time.
+     */
+    private Object getHTML5Canvas() {
+        /**
+         * @j2sNative
+         * var element = this.mActiveElement;
+         * if (element == null || element.id != this.activeCanvas || !element.isConnected) {
+         *     element = document.getElementById(this.activeCanvas);
+         *     this.mActiveElement = element;
+         * }
+         * return element;
+         */{}
+        return null;
+    }
+
+    /**
+     * Returns the 2D context drawn into, or null if there is none.
+     */
+    private Object getActiveContext() {
+        Object canvas = getDrawingCanvas();
+        /**
+         * @j2sNative
+         * if (canvas != null) {
+         *     return canvas.getContext("2d");
+         * }
+         */{}
+        return null;
+    }
+
+    /**
+     * Returns the 2D context for changes to the state only.
+     */
+    private Object getStateContext() {
+        Object canvas = getStateCanvas();
+        /**
+         * @j2sNative
+         * if (canvas != null) {
+         *     return canvas.getContext("2d");
+         * }
+         */{}
+        return null;
+    }
+
+    /**
+     * Turns sprite batching on or off. While it is on, the bitmaps and
+     * filled rectangles drawn one after another are queued and drawn
+     * together with WebGL, and reach the canvas when something else is
+     * drawn or {@link #flushSprites} is called. Draws that WebGL cannot do
+     * the same way, e.g. with a shader, a transfer mode, or inside a layer,
+     * still go to the 2D context. Without WebGL this does nothing.
+     *
+     * @hide
+     */
+    public void setSpriteBatching(boolean batching) {
+        if (!batching) {
+            SpriteBatch.flush(this);
+        }
+        mSpriteBatching = batching;
+    }
+
+    /**
+     * Draws the sprites queued by this canvas, if any.
+     *
+     * @hide
+     */
+    public void flushSprites() {
+        SpriteBatch.flush(this);
+    }
+
+    /**
+     * Queues the part <code>src</code> of <code>bitmap</code>, all of it if
+     * <code>src</code> is null, or a rectangle filled with <code>color</code>
+     * if <code>bitmap</code> is null, in the sprite batch. The quad is
+     * the rectangle <code>left</code>, <code>top</code>, <code>right</code>,
+     * <code>bottom</code> transformed by <code>matrix</code>, if not null,
+     * and the current matrix.
+     *
+     * @return false if the caller has to draw it with the 2D context
+     */
+    private boolean batchQuad(Matrix matrix, Bitmap bitmap, Rect src,
+            float left, float top, float right, float bottom, int color, Paint paint) {
+        if (!mSpriteBatching || mLayerCount > 0 || mComplexClip) {
+            return false;
+        }
+        if (paint != null) {
+            if (paint.getShader() != null) {
+                return false;
+            }
+            Xfermode xfermode = paint.getXfermode();
+            if (xfermode != null && (!(xfermode instanceof PorterDuffXfermode)
+                    || xfermode.native_instance != PorterDuff.Mode.SRC_OVER.nativeInt)) {
+                return false;
+            }
+        }
+        Matrix m = this.ctm;
+        if (matrix != null) {
+            mBatchMatrix.setConcat(this.ctm, matrix);
+            m = mBatchMatrix;
+        }
+        float[] values = mBatchValues;
+        m.getValues(values);
+        if (values[Matrix.MPERSP_0] != 0 || values[Matrix.MPERSP_1] != 0
+                || values[Matrix.MPERSP_2] != 1) {
+            return false;
+        }
+        SpriteBatch batch = SpriteBatch.get();
+        if (batch == null) {
+            mSpriteBatching = false;
+            return false;
+        }
+        Object target = mBM != null ? mBM.getCanvasForDrawing() : getHTML5Canvas();
+        if (target == null) {
+            return false;
+        }
+        batch.begin(this, target);
+
+        float canvasAlpha = this.alpha != -1 ? this.alpha : 1;
+        if (bitmap != null) {
+            return batch.addBitmap(values, bitmap, src, left, top, right, bottom,
+                    (int) (0xFF * canvasAlpha), mDeviceClip);
+        }
+        int a = (int) (Color.alpha(color) * canvasAlpha);
+        batch.addRect(values, left, top, right, bottom,
+                (a << 24) | (color & 0xFFFFFF), mDeviceClip);
+        return true;
+    }
+
     /**
      * Construct a canvas with the specified bitmap to draw into. The bitmap
      * must be mutable.
@@ -262,13 +527,11 @@ public class Canvas {
         
         /**
          * @j2sNative
-         * var canvas = null;
-         * if (this.mBM != null) {
-         *    canvas = this.mBM.mCachedCanvas;
-         * } else {
-         *    canvas  = document.getElementById(this.activeCanvas);
+         * // the backing canvas of a bitmap may not be decoded yet
+         * var context = this.getStateContext();
+         * if (context == null) {
+         *     return;
          * }
-         * var context = canvas.getContext("2d");
          * 
          * // line style setting
          * context.fillStyle   = rgb;
@@ -283,62 +546,18 @@ public class Canvas {
          * }  
          * context.textAlign   = textAlign;
          * 
-         * // set Shader if we have.
-         * var gradient = null;
+         * // set Shader if we have, its gradient or pattern is created once per context.
          * if (shader != null) {
-         *     if (shaderType == shaderType.BITMAPSHADER) {
-         *         // We should detect whether browser supports Pattern now. 
-         *         if (context.createPattern == null) {
-         *             android.util.Log.e(this.TAG, "This browser doesn't support createPattern");
-         *             return;
-         *         }
-         *         if (!shader.mBitmap.ensureCachedCanvas(false, true)) return;
-         *         if (shader.mTileMode == null) return; // only repeat mode is supported.
-         *         var bitmapshader = context.createPattern(shader.mBitmap.mCachedCanvas, shader.mTileMode);
-         *         context.fillStyle   = bitmapshader;
-         *         context.strokeStyle = bitmapshader;
-         *     }
          *     if (shaderType == shaderType.COMPOSESHADER) {
          *         android.util.Log.e(this.TAG, "ComposeShader is not implemented!");
          *     }
-         *     if (shaderType == shaderType.LINEARGRADIENT) {
-         *         gradient = context.createLinearGradient(shader.m_pts0.x, shader.m_pts0.y, 
-         *                                                 shader.m_pts1.x, shader.m_pts1.y);
-         *     }
-         *     if (shaderType == shaderType.RADIALGRADIENT) {
-         *         gradient = context.createRadialGradient(shader.m_center.x, shader.m_center.y, 0, 
-         *                                                 shader.m_center.x, shader.m_center.y, shader.m_radius);
-         *     }  
-         *     if (shaderType == shaderType.SWEEPGRADIENT) {
-         *         android.util.Log.e(this.TAG, "SweepGradient is not implemented!");
-         *     }
-         *     var alpha = 0;
-         *     if (gradient != null) {
-         *         if (shader.m_positions != null) {
-         *             for (var i = 0; i < shader.m_positions.length; i++) {
-         *                 gradient.addColorStop(shader.m_positions[i], android.graphics.Color.toString(shader.m_colors[i]));
-         *                 alpha += android.graphics.Color.alpha(shader.m_colors[i]) / 255;
-         *             }
-         *
-         *         } else {
-         *             // Add color stop evenly.
-         *             for (var i = 0; i < shader.m_colors.length; i++) {
-         *                 gradient.addColorStop(i/(shader.m_colors.length-1), android.graphics.Color.toString(shader.m_colors[i]));
-         *                 alpha += android.graphics.Color.alpha(shader.m_colors[i]) / 255;
-         *             }
+         *     var style = shader.getNativeShader(context);
+         *     if (style != null) {
+         *         if (shader.mGradientAlpha >= 0) {
+         *             context.globalAlpha = shader.mGradientAlpha;
          *         }
-         *
-         *         if (shader.m_positions != null && shader.m_positions.length > 0) {
-         *             alpha = alpha / shader.m_positions.length;
-         *         } else if (shader.m_colors != null && shader.m_colors.length > 0) {
-         *             alpha = alpha / shader.m_colors.length;
-         *         } else {
-         *             alpha = 1;
-         *         }
-         *
-         *         context.globalAlpha = alpha;
-         *         context.fillStyle   = gradient;
-         *         context.strokeStyle = gradient;
+         *         context.fillStyle   = style;
+         *         context.strokeStyle = style;
          *     }
          * }
          * 
@@ -433,14 +652,7 @@ public class Canvas {
         
         /**
          * @j2sNative
-         * var _canvas = null;
-         * if (this.mBM != null) {
-         *    _canvas = this.mBM.mCachedCanvas;
-         *    // Update the bitmap cached canvas dirty flag
-         *    this.mBM.mIsCachedCanvasDirty = true;
-         * } else {
-         *    _canvas = document.getElementById(this.activeCanvas);
-         * }
+         * var _canvas = this.getDrawingCanvas();
          * var _context = _canvas.getContext("2d");
          * _context.fillRect(0, 0, _canvas.width, _canvas.height); 
          */
@@ -497,14 +709,7 @@ public class Canvas {
         
         /**
          * @j2sNative
-         * var _canvas = null;
-         * if (this.mBM != null) {
-         *    _canvas = this.mBM.mCachedCanvas;
-         *    // Update the bitmap cached canvas dirty flag
-         *    this.mBM.mIsCachedCanvasDirty = true;
-         * } else {
-         *    _canvas = document.getElementById(this.activeCanvas);
-         * }
+         * var _canvas = this.getDrawingCanvas();
          * var _context = _canvas.getContext("2d");
          * _context.fillText(subText, x, y);
          */{}
@@ -607,24 +812,36 @@ public class Canvas {
     }
     
 	public void drawGradient(int startColor, int endColor, int angle) {
-		String start = Color.toString(startColor);
-		String end = Color.toString(endColor);
+		Object context = getActiveContext();
+		if (context == null) {
+			return;
+		}
+		// the gradient only depends on the colors and the height, so keep it
+		// as long as they and the context stay the same.
+		if (startColor != mGradientStartColor || endColor != mGradientEndColor
+				|| _height != mGradientHeight || context != mGradientContext) {
+			String start = Color.toString(startColor);
+			String end = Color.toString(endColor);
+			Object grad = null;
+			/**
+			 * @j2sNative
+			 * grad = context.createLinearGradient(0, 0, 0, this._height);
+			 * grad.addColorStop(0, start);
+			 * grad.addColorStop(1, end);
+			 */
+			{
+			}
+			mGradient = grad;
+			mGradientContext = context;
+			mGradientStartColor = startColor;
+			mGradientEndColor = endColor;
+			mGradientHeight = _height;
+		}
+		Object grad = mGradient;
 		/**
 		 * @j2sNative
-		 * var _canvas = null;
-         * if (this.mBM != null) {
-         *    _canvas = this.mBM.mCachedCanvas;
-         *    // Update the bitmap cached canvas dirty flag
-         *    this.mBM.mIsCachedCanvasDirty = true;
-         * } else {
-         *    _canvas = document.getElementById(this.activeCanvas);
-         * }
-		 * var _context = _canvas.getContext("2d");
-		 * var grad = _context.createLinearGradient(0, 0, 0, this._height);
-		 * grad.addColorStop(0, start);
-		 * grad.addColorStop(1, end);
-		 * _context.fillStyle = grad;
-		 * _context.fillRect(0, 0, this._width, this._height);
+		 * context.fillStyle = grad;
+		 * context.fillRect(0, 0, this._width, this._height);
 		 */
 		{
 		}
@@ -644,14 +861,7 @@ public class Canvas {
         setHTML5CanvasContext(paint);
         /**
          * @j2sNative
-         * var _canvas = null;
-         * if (this.mBM != null) {
-         *    _canvas = this.mBM.mCachedCanvas;
-         *    // Update the bitmap cached canvas dirty flag
-         *    this.mBM.mIsCachedCanvasDirty = true;
-         * } else {
-         *    _canvas = document.getElementById(this.activeCanvas);
-         * }
+         * var _canvas = this.getDrawingCanvas();
          * var _context = _canvas.getContext("2d");
          * _context.beginPath();
          * _context.moveTo(startX,startY);
@@ -688,7 +898,12 @@ public class Canvas {
      * @param matrix The matrix used to transform the bitmap when it is drawn
      * @param paint  May be null. The paint used to draw the bitmap
      */
-    public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint) { 
+    public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint) {
+        if (batchQuad(matrix, bitmap, null, 0, 0,
+                bitmap.getWidth(), bitmap.getHeight(), 0, paint)) {
+            return;
+        }
+
         // Compute the tranform matrix
         Matrix tmp = new Matrix();
         tmp.setConcat(this.ctm, matrix);
@@ -725,6 +940,11 @@ public class Canvas {
         if (this.activeCanvas == null && this.mBM == null) {
             return;
         }
+
+        if (batchQuad(null, bitmap, null, left, top,
+                left + bitmap.getWidth(), top + bitmap.getHeight(), 0, paint)) {
+            return;
+        }
         
         if (paint != null) {
             Xfermode xfermode = paint.getXfermode();
@@ -740,18 +960,12 @@ public class Canvas {
         
         /**
          * @j2sNative
-         * if (!bitmap.ensureCachedCanvas(false, true)) return;
+         * var source = bitmap.getDrawingSource();
+         * if (source == null) return;
          * // draw offscreen canvas into onscreen canvas
-         * var _activeCanvas = null;
-         * if (this.mBM != null) {
-         *    _activeCanvas = this.mBM.mCachedCanvas;
-         *    // Update the bitmap cached canvas dirty flag
-         *    this.mBM.mIsCachedCanvasDirty = true;
-         * } else {
-         *    _activeCanvas = document.getElementById(this.activeCanvas);
-         * }
+         * var _activeCanvas = this.getDrawingCanvas();
          * var activeContext = _activeCanvas.getContext("2d");
-         * activeContext.drawImage(bitmap.mCachedCanvas, left, top);
+         * activeContext.drawImage(source, left, top);
          */
         {}
     }
@@ -796,6 +1010,10 @@ public class Canvas {
             return;
         }
 
+        if (batchQuad(null, bitmap, src, dst.left, dst.top, dst.right, dst.bottom, 0, paint)) {
+            return;
+        }
+
         if (paint != null) {
             Xfermode xfermode = paint.getXfermode();
             if (xfermode != null && xfermode instanceof PorterDuffXfermode) {
@@ -810,18 +1028,12 @@ public class Canvas {
 
         /**
          * @j2sNative
-         * if (!bitmap.ensureCachedCanvas(false, true)) return;
+         * var source = bitmap.getDrawingSource();
+         * if (source == null) return;
          * // draw offscreen canvas into onscreen canvas
-         * var _activeCanvas = null;
-         * if (this.mBM != null) {
-         *    _activeCanvas = this.mBM.mCachedCanvas;
-         *    // Update the bitmap cached canvas dirty flag
-         *    this.mBM.mIsCachedCanvasDirty = true;
-         * } else {
-         *    _activeCanvas = document.getElementById(this.activeCanvas);
-         * }
+         * var _activeCanvas = this.getDrawingCanvas();
          * var activeContext = _activeCanvas.getContext("2d");
-         * activeContext.drawImage(bitmap.mCachedCanvas, src.left, src.top, src.width(), src.height(),
+         * activeContext.drawImage(source, src.left, src.top, src.width(), src.height(),
          *                                               dst.left, dst.top, dst.width(), dst.height());
          */{}
     }
@@ -867,23 +1079,21 @@ public class Canvas {
             return;
         }
 
+        if (batchQuad(null, bitmap, src, dst.left, dst.top, dst.right, dst.bottom, 0, paint)) {
+            return;
+        }
+
         if (paint != null)
             setHTML5CanvasContext(paint);
 
         /**
          * @j2sNative
-         * if (!bitmap.ensureCachedCanvas(false, true)) return;
+         * var source = bitmap.getDrawingSource();
+         * if (source == null) return;
          * // draw offscreen canvas into onscreen canvas
-         * var _activeCanvas = null;
-         * if (this.mBM != null) {
-         *    _activeCanvas = this.mBM.mCachedCanvas;
-         *    // Update the bitmap cached canvas dirty flag
-         *    this.mBM.mIsCachedCanvasDirty = true;
-         * } else {
-         *    _activeCanvas = document.getElementById(this.activeCanvas);
-         * }
+         * var _activeCanvas = this.getDrawingCanvas();
          * var activeContext = _activeCanvas.getContext("2d");
-         * activeContext.drawImage(bitmap.mCachedCanvas, src.left, src.top, src.width(), src.height(),
+         * activeContext.drawImage(source, src.left, src.top, src.width(), src.height(),
          *                                               dst.left, dst.top, dst.width(), dst.height());
          */{}
     }
@@ -926,24 +1136,12 @@ public class Canvas {
 	public void translate(float dx, float dy) {
 		_ddx += dx;
 		_ddy += dy;
-		if(this.mBM != null){
-			/**
-			 * @j2sNative
-			 * var context = this.mBM.mCachedCanvas.getContext("2d");
-		     * context.translate(dx, dy);
-			 */{}
-		     // track the transformation in ctm
-		    this.ctm.preTranslate(dx, dy);
-			return;
-		} 
-		
+		Object _context = getStateContext();
 		/**
-		  @j2sNative
-		  var _canvas = document.getElementById(this.activeCanvas);
-		  if (_canvas != null) {
-		     var _context = _canvas.getContext("2d");
-		     _context.translate(dx, dy);
-		  }
+		 * @j2sNative
+		 * if (_context != null) {
+		 *     _context.translate(dx, dy);
+		 * }
 		 */{}
 
         // track the transformation in ctm
@@ -957,22 +1155,12 @@ public class Canvas {
      * @param sy The amount to scale in Y
      */
     public void scale(float sx, float sy) {
-        if(this.mBM != null){
-            /**
-             * @j2sNative
-             * var context = this.mBM.mCachedCanvas.getContext("2d");
-             * context.scale(sx, sy);
-             */{}
-             // track the transformation in ctm
-            this.ctm.preScale(sx, sy);
-            return;
-        }
-        
+        Object _context = getStateContext();
         /**
-          @j2sNative
-          var _canvas = document.getElementById(this.activeCanvas);
-          var _context = _canvas.getContext("2d");
-          _context.scale(sx, sy);
+         * @j2sNative
+         * if (_context != null) {
+         *     _context.scale(sx, sy);
+         * }
          */{}
 
         // track the transformation in ctm
@@ -996,14 +1184,7 @@ public class Canvas {
 	public void clear(){
 		/** 
 		 * @j2sNative
-		 * var _activeCanvas = null;
-         * if (this.mBM != null) {
-         *    _activeCanvas = this.mBM.mCachedCanvas;
-         *    // Update the bitmap cached canvas dirty flag
-         *    this.mBM.mIsCachedCanvasDirty = true;
-         * } else {
-         *    _activeCanvas = document.getElementById(this.activeCanvas);
-         * }
+		 * var _activeCanvas = this.getDrawingCanvas();
 		 * if(!_activeCanvas){
 		 * 	return;
 		 * }
@@ -1037,22 +1218,12 @@ public class Canvas {
      * @param degrees The amount to rotate, in degrees
      */
     public void rotate(float degrees) {
-        if(this.mBM != null){
-            /**
-             * @j2sNative
-             * var context = this.mBM.mCachedCanvas.getContext("2d");
-             * context.rotate(degrees * Math.PI / 180);
-             */{}
-             // track the transformation in ctm
-             this.ctm.preRotate(degrees);
-            return;
-        } 
-        
+        Object _context = getStateContext();
         /**
          * @j2sNative 
-         * var _canvas = document.getElementById(this.activeCanvas); 
-         * var _context = _canvas.getContext("2d");
-         * _context.rotate(degrees * Math.PI / 180); 
+         * if (_context != null) {
+         *     _context.rotate(degrees * Math.PI / 180);
+         * }
          */{}
 
         // track the transformation in ctm
@@ -1074,22 +1245,20 @@ public class Canvas {
         float MTRANS_X = mt[Matrix.MTRANS_X];
         float MTRANS_Y = mt[Matrix.MTRANS_Y];
         
-        if(this.mBM != null){
-            /**
-             * @j2sNative
-             * var context = this.mBM.mCachedCanvas.getContext("2d");
-             * context.setTransform(MSCALE_X, MSKEW_Y, MSKEW_X, 
-             *                      MSCALE_Y, MTRANS_X, MTRANS_Y);
-             */{}
-             return;
+        if (mLayerCount > 0) {
+            // a layer's origin is at its left/top on the canvas
+            Layer layer = mLayers.get(mLayerCount - 1);
+            MTRANS_X -= layer.left;
+            MTRANS_Y -= layer.top;
         }
 
+        Object _context = getStateContext();
         /**
          * @j2sNative
-         *  var _canvas = document.getElementById(this.activeCanvas);
-         *  var _context = _canvas.getContext("2d");
-         *  _context.setTransform(MSCALE_X, MSKEW_Y, MSKEW_X, 
-         *                          MSCALE_Y, MTRANS_X, MTRANS_Y);
+         *  if (_context != null) {
+         *      _context.setTransform(MSCALE_X, MSKEW_Y, MSKEW_X, 
+         *                            MSCALE_Y, MTRANS_X, MTRANS_Y);
+         *  }
          */{}
     }
     
@@ -1149,27 +1318,15 @@ public class Canvas {
     }
     
     public int save() {
+        Object context = getStateContext();
         /**
          * @j2sNative 
-         * var canvas = null;
-         * if (this.mBM != null) { 
-         *     canvas = this.mBM.mCachedCanvas;
-         * } else {
-         *     canvas = document.getElementById(this.activeCanvas);
-         * } 
-         * if (canvas != null) {
-         *    var context = canvas.getContext("2d");
+         * if (context != null) {
          *    context.save();
          * }
          */{}
 
-        saveCount++;
-        CanvasState state = new CanvasState();
-        state._rect = new Rect(_ddx, _ddy, _ddx + _width, _ddy + _height);
-        state._clipBounds = new Rect(mClipBounds);
-        state._ctm = new Matrix(this.ctm);
-        transList.add(state);
-        return saveCount;
+        return pushState(false);
     }
     
     /**
@@ -1189,7 +1346,12 @@ public class Canvas {
      * @return       value to pass to restoreToCount() to balance this save()
      */
     public int saveLayer(RectF bounds, Paint paint, int saveFlags) {
-        return save();
+        if (bounds == null) {
+            return saveLayerInternal(false, 0, 0, 0, 0, paint != null ? paint.getAlpha() : 0xFF,
+                    paint != null ? paint.getXfermode() : null);
+        }
+        return saveLayerInternal(true, bounds.left, bounds.top, bounds.right, bounds.bottom,
+                paint != null ? paint.getAlpha() : 0xFF, paint != null ? paint.getXfermode() : null);
     }
 
     /**
@@ -1197,40 +1359,177 @@ public class Canvas {
      */
     public int saveLayer(float left, float top, float right, float bottom,
                          Paint paint, int saveFlags) {
-        //HTML5 supports save() and restore() menthod only
-        return save();
+        return saveLayerInternal(true, left, top, right, bottom,
+                paint != null ? paint.getAlpha() : 0xFF, paint != null ? paint.getXfermode() : null);
+    }
+
+    /**
+     * This behaves the same as save(), but in addition it allocates an
+     * offscreen bitmap. All drawing calls are directed there, and only when
+     * the balancing call to restore() is made is that offscreen transfered to
+     * the canvas (or the previous layer), with the specified alpha.
+     *
+     * @param bounds    May be null. The maximum size the offscreen bitmap
+     *                  needs to be (in local coordinates)
+     * @param alpha     The alpha to apply to the offscreen when when it is
+     *                  drawn during restore()
+     * @param saveFlags see _SAVE_FLAG constants
+     * @return          value to pass to restoreToCount() to balance this call
+     */
+    public int saveLayerAlpha(RectF bounds, int alpha, int saveFlags) {
+        if (bounds == null) {
+            return saveLayerInternal(false, 0, 0, 0, 0, alpha, null);
+        }
+        return saveLayerInternal(true, bounds.left, bounds.top, bounds.right, bounds.bottom, alpha, null);
+    }
+
+    private int saveLayerInternal(boolean hasBounds, float left, float top, float right, float bottom,
+            int alpha, Xfermode xfermode) {
+        // the layer below, or the canvas itself
+        Layer below = mLayerCount > 0 ? mLayers.get(mLayerCount - 1) : null;
+        int belowLeft = below != null ? below.left : 0;
+        int belowTop = below != null ? below.top : 0;
+        flushSprites();
+        Object parent = getStateCanvas();
+        int parentWidth = 0;
+        int parentHeight = 0;
+        /**
+         * @j2sNative
+         * if (parent != null) {
+         *     parentWidth = parent.width;
+         *     parentHeight = parent.height;
+         *     parent.getContext("2d").save();
+         * }
+         */{}
+
+        // bounds in pixels of the canvas, clipped to the surface drawn into
+        int l = belowLeft;
+        int t = belowTop;
+        int r = belowLeft + parentWidth;
+        int b = belowTop + parentHeight;
+        if (hasBounds) {
+            mLayerBounds.set(left, top, right, bottom);
+            this.ctm.mapRect(mLayerBounds);
+            l = Math.max(l, (int) Math.floor(mLayerBounds.left));
+            t = Math.max(t, (int) Math.floor(mLayerBounds.top));
+            r = Math.min(r, (int) Math.ceil(mLayerBounds.right));
+            b = Math.min(b, (int) Math.ceil(mLayerBounds.bottom));
+        }
+
+        Layer layer;
+        if (mLayerCount < mLayers.size()) {
+            layer = mLayers.get(mLayerCount);
+        } else {
+            layer = new Layer();
+            mLayers.add(layer);
+        }
+        layer.left = l;
+        layer.top = t;
+        // an empty layer still takes the drawing, which is then dropped
+        layer.width = Math.max(0, r - l);
+        layer.height = Math.max(0, b - t);
+        layer.alpha = alpha & 0xFF;
+        layer.compositeOperation = getCompositeOperation(xfermode);
+        layer.canvas = LayerPool.obtain(layer.width, layer.height);
+        mLayerCount++;
+
+        int count = pushState(true);
+        // start with the transformation of the canvas, moved to the layer
+        setHTML5CanvasMatrix(this.ctm);
+        return count;
+    }
+
+    /**
+     * Draws the top layer into the layer below or the canvas, and gives
+     * its element back to the pool.
+     */
+    private void compositeLayer() {
+        Layer layer = mLayers.get(--mLayerCount);
+        Layer below = mLayerCount > 0 ? mLayers.get(mLayerCount - 1) : null;
+        int x = layer.left - (below != null ? below.left : 0);
+        int y = layer.top - (below != null ? below.top : 0);
+        Object source = layer.canvas;
+        if (layer.width > 0 && layer.height > 0 && layer.alpha > 0
+                && layer.compositeOperation != null) {
+            Object target = getDrawingCanvas();
+            /**
+             * @j2sNative
+             * if (target != null) {
+             *     var context = target.getContext("2d");
+             *     context.save();
+             *     context.setTransform(1, 0, 0, 1, 0, 0);
+             *     context.globalAlpha = layer.alpha / 255;
+             *     context.globalCompositeOperation = layer.compositeOperation;
+             *     context.drawImage(source, 0, 0, layer.width, layer.height,
+             *                       x, y, layer.width, layer.height);
+             *     context.restore();
+             * }
+             */{}
+        }
+        layer.canvas = null;
+        LayerPool.recycle(source);
+    }
+
+    /**
+     * Returns the HTML5 composite operation for the xfermode of a layer, or
+     * null if the mode leaves the destination as it is.
+     */
+    private static String getCompositeOperation(Xfermode xfermode) {
+        if (!(xfermode instanceof PorterDuffXfermode)) {
+            return "source-over";
+        }
+        int mode = xfermode.native_instance;
+        if (mode == PorterDuff.Mode.CLEAR.nativeInt) {
+            return "destination-out";
+        } else if (mode == PorterDuff.Mode.SRC.nativeInt) {
+            return "copy";
+        } else if (mode == PorterDuff.Mode.DST.nativeInt) {
+            // keeps the destination, which means drawing nothing at all
+            return null;
+        } else if (mode == PorterDuff.Mode.SRC_IN.nativeInt) {
+            return "source-in";
+        } else if (mode == PorterDuff.Mode.SRC_OUT.nativeInt) {
+            return "source-out";
+        } else if (mode == PorterDuff.Mode.SRC_ATOP.nativeInt) {
+            return "source-atop";
+        } else if (mode == PorterDuff.Mode.DST_OVER.nativeInt) {
+            return "destination-over";
+        } else if (mode == PorterDuff.Mode.DST_IN.nativeInt) {
+            return "destination-in";
+        } else if (mode == PorterDuff.Mode.DST_OUT.nativeInt) {
+            return "destination-out";
+        } else if (mode == PorterDuff.Mode.DST_ATOP.nativeInt) {
+            return "destination-atop";
+        } else if (mode == PorterDuff.Mode.XOR.nativeInt) {
+            return "xor";
+        } else if (mode == PorterDuff.Mode.DARKEN.nativeInt) {
+            return "darken";
+        } else if (mode == PorterDuff.Mode.LIGHTEN.nativeInt) {
+            return "lighten";
+        } else if (mode == PorterDuff.Mode.MULTIPLY.nativeInt) {
+            return "multiply";
+        } else if (mode == PorterDuff.Mode.SCREEN.nativeInt) {
+            return "screen";
+        }
+        return "source-over";
     }
 
     public void restore() {
         if (saveCount <= 1) {
             throw new IllegalStateException("Underflow in restore");
         }
+        if (mStateInts[(saveCount - 1) * STATE_INTS + 9] != 0) {
+            compositeLayer();
+        }
+        Object context = getStateContext();
         /**
          * @j2sNative
-         * var canvas = null;
-         * if (this.mBM != null) {
-         *     canvas = this.mBM.mCachedCanvas;
-         * } else {
-         *     canvas = document.getElementById(this.activeCanvas);
-         * }
-         * if (canvas != null) {
-         *    var context = canvas.getContext("2d");
+         * if (context != null) {
          *    context.restore();
          * }
          */{}
-         
-        Rect cache = ((CanvasState) transList.get(saveCount - 1))._rect;
-        _ddx = cache.left;
-        _ddy = cache.top;
-        _width = cache.right - cache.left;
-        _height = cache.bottom - cache.top;
-        Rect clip = ((CanvasState) transList.get(saveCount - 1))._clipBounds;
-        this.mClipBounds.copyFrom(clip);
-        Matrix mt = ((CanvasState) transList.get(saveCount - 1))._ctm;
-        this.ctm.set(mt);
 
-        transList.remove(saveCount - 1);
-        saveCount--;
+        popState();
     }
 
     public int getSaveCount() {
@@ -1248,14 +1547,11 @@ public class Canvas {
 
     public boolean clipRect(float left, float top,
                             float right, float bottom) {
+        // the sprites queued before are not clipped
+        flushSprites();
         /**
          * @j2sNative 
-         * var canvas = null;
-         * if (this.mBM != null) { 
-         *     canvas = this.mBM.mCachedCanvas;
-         * } else { 
-         *     canvas = document.getElementById(this.activeCanvas);
-         * } 
+         * var canvas = this.getStateCanvas();
          * if (canvas != null) {
          *    var _context = canvas.getContext("2d");
          *    _context.beginPath();
@@ -1266,6 +1562,17 @@ public class Canvas {
          */{}
 
         mClipBounds.set((int)left, (int)top, (int)right, (int)bottom);
+
+        if (this.ctm.rectStaysRect()) {
+            mClipRect.set(left, top, right, bottom);
+            this.ctm.mapRect(mClipRect);
+            if (!mDeviceClip.intersect(Math.round(mClipRect.left), Math.round(mClipRect.top),
+                    Math.round(mClipRect.right), Math.round(mClipRect.bottom))) {
+                mDeviceClip.setEmpty();
+            }
+        } else {
+            mComplexClip = true;
+        }
         return true;
     }
     
@@ -1315,6 +1622,11 @@ public class Canvas {
      */
     public void drawRect(float left, float top, float right, float bottom,
                          Paint paint) {
+        if (paint != null && paint.getStyle() == Paint.Style.FILL
+                && left < right && top < bottom
+                && batchQuad(null, null, null, left, top, right, bottom, paint.getColor(), paint)) {
+            return;
+        }
         Path path = new Path();
         path.addRect(left, top, right, bottom, Direction.CW);
         this.drawPath(path, paint);
@@ -1437,14 +1749,43 @@ public class Canvas {
             }
             setHTML5CanvasContext(paint);
         }
-        
-        if (this.mBM != null) {
-            path.drawOnCanvas(null, this.mBM, paint);
-        } else {
-            path.drawOnCanvas(this.activeCanvas, null, paint);
+
+        Object context = getActiveContext();
+        if (context != null) {
+            path.drawOnContext(context, paint);
         }
     }
 
+    /**
+     * Intersect the current clip with the specified path.
+     *
+     * @param path The path to intersect with the current clip
+     * @return     true if the resulting is non-empty
+     */
+    public boolean clipPath(Path path) {
+        return clipPath(path, Region.Op.INTERSECT);
+    }
+
+    /**
+     * Modify the current clip with the specified path. Only
+     * {@link Region.Op#INTERSECT} is supported by HTML5.
+     *
+     * @param path The path to operate on the current clip
+     * @param op   How the clip is modified
+     * @return     true if the resulting is non-empty
+     */
+    public boolean clipPath(Path path, Region.Op op) {
+        if (op != Region.Op.INTERSECT) {
+            Log.e(TAG, "clipPath only supports Region.Op.INTERSECT");
+        }
+        Object context = getActiveContext();
+        if (context != null) {
+            path.clipOnContext(context);
+        }
+        mComplexClip = true;
+        return true;
+    }
+
     /**
      * Draw a series of points. Each point is centered at the coordinate
      * specified by pts[], and its diameter is specified by the paint's stroke
@@ -1652,14 +1993,7 @@ public class Canvas {
     	setHTML5CanvasContext(paint);
     	/**
          * @j2sNative
-         * var _canvas = null;
-         * if (this.mBM != null) {
-         *    _canvas = this.mBM.mCachedCanvas;
-         *    // Update the bitmap cached canvas dirty flag
-         *    this.mBM.mIsCachedCanvasDirty = true;
-         * } else {
-         *    _canvas = document.getElementById(this.activeCanvas);
-         * }
+         * var _canvas = this.getDrawingCanvas();
          * var _context = _canvas.getContext("2d");
          * _context.fillRect(0, 0, _canvas.width, _canvas.height); 
          */
@@ -1728,33 +2062,21 @@ public class Canvas {
         return;
     }
 
+    /**
+     * Helper for saveLayerAlpha() that takes 4 values instead of a RectF.
+     */
     public int saveLayerAlpha(int left, int top, int right, int bottom, int Alpha, int saveFlags) {
-        /**
-         * @j2sNative 
-         * var canvas = null;
-         * if (this.mBM != null) { 
-         *     canvas = this.mBM.mCachedCanvas;
-         * } else {
-         *     canvas = document.getElementById(this.activeCanvas);
-         * } 
-         * if (canvas != null) {
-         *    var context = canvas.getContext("2d");
-         *    var alpha = (Alpha & 0xFF) / 255;
-         *    context.globalAlpha = alpha;
-         *    context.save();
-         * }
-         */{}
+        return saveLayerInternal(true, left, top, right, bottom, Alpha, null);
+    }
 
-        saveCount++;
-        CanvasState state = new CanvasState();
-        _ddx = left;
-        _ddy = top;
-        _width = right - left;
-        _height = bottom - top;
-        state._rect = new Rect(_ddx, _ddy, _ddx + _width, _ddy + _height);
-        state._clipBounds = new Rect(mClipBounds);
-        state._ctm = new Matrix(this.ctm);
-        transList.add(state);
-        return saveCount;
+    /**
+     * Releases the offscreen surfaces kept for layers and the composites
+     * cached by nine-patches.
+     *
+     * @hide
+     */
+    public static void freeCaches() {
+        LayerPool.clear();
+        NinePatch.releaseAllComposites();
     }
 }
@@ -0,0 +1,111 @@
+package android.graphics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Offscreen canvas elements backing {@link Canvas#saveLayer}, pooled by
+ * size so that the layers drawn on every frame, e.g. for a fading view,
+ * keep reusing the same elements instead of creating new ones.
+ *
+ * <p>Sizes are rounded up to a multiple of {@link #BUCKET} pixels in both
+ * directions, so a layer that changes size slightly from frame to frame
+ * still finds its element. Elements above the pool's budget are released.
+ */
+/* package */ final class LayerPool {
+    private static final int BUCKET = 64;
+    private static final int MAX_POOLED_PIXELS = 4 * 1024 * 1024;
+
+    private static final HashMap<Integer, ArrayList<Object>> sPool =
+            new HashMap<Integer, ArrayList<Object>>();
+    private static int sPooledPixels;
+
+    private LayerPool() {
+    }
+
+    private static int roundUp(int size) {
+        return Math.max(BUCKET, (size + BUCKET - 1) / BUCKET * BUCKET);
+    }
+
+    private static Integer keyOf(int width, int height) {
+        return Integer.valueOf((width / BUCKET) << 16 | (height / BUCKET));
+    }
+
+    /**
+     * Returns a cleared canvas element at least <code>width</code> x
+     * <code>height</code> pixels large, with a default 2D context state.
+     */
+    static Object obtain(int width, int height) {
+        int w = roundUp(width);
+        int h = roundUp(height);
+        ArrayList<Object> list = sPool.get(keyOf(w, h));
+        if (list != null && !list.isEmpty()) {
+            sPooledPixels -= w * h;
+            return list.remove(list.size() - 1);
+        }
+        Object canvas = null;
+        /**
+         * @j2sNative
+         * canvas = document.createElement("canvas");
+         * canvas.width = w;
+         * canvas.height = h;
+         */{}
+        return canvas;
+    }
+
+    /**
+     * Gives back an element returned by {@link #obtain}.
+     */
+    static void recycle(Object canvas) {
+        int w = 0;
+        int h = 0;
+        /**
+         * @j2sNative
+         * w = canvas.width;
+         * h = canvas.height;
+         */{}
+        if (sPooledPixels + w * h > MAX_POOLED_PIXELS) {
+            release(canvas);
+            return;
+        }
+        /**
+         * @j2sNative
+         * var context = canvas.getContext("2d");
+         * if (context.reset != null) {
+         *     context.reset();
+         * } else {
+         *     canvas.width = w;
+         * }
+         */{}
+        Integer key = keyOf(w, h);
+        ArrayList<Object> list = sPool.get(key);
+        if (list == null) {
+            list = new ArrayList<Object>();
+            sPool.put(key, list);
+        }
+        list.add(canvas);
+        sPooledPixels += w * h;
+    }
+
+    private static void release(Object canvas) {
+        /**
+         * @j2sNative
+         * // browsers keep the backing store of a detached canvas until it is shrunk
+         * canvas.width = 0;
+         * canvas.height = 0;
+         */{}
+    }
+
+    /**
+     * Releases every pooled element.
+     */
+    static void clear() {
+        for (ArrayList<Object> list : sPool.values()) {
+            for (int i = 0; i < list.size(); i++) {
+                release(list.get(i));
+            }
+        }
+        sPool.clear();
+        sPooledPixels = 0;
+    }
+}
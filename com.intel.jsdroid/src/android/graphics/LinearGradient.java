@@ -82,4 +82,19 @@ public class LinearGradient extends Shader {
         m_colors[0] = color0; m_colors[1] = color1;
         //native_instance = nativeCreate2(x0, y0, x1, y1, color0, color1, tile.nativeInt);
     }
+
+    @Override
+    /* package */ Object createNativeShader(Object context) {
+        float[] pts = new float[] { m_pts0.x, m_pts0.y, m_pts1.x, m_pts1.y };
+        if (mLocalMatrix != null) {
+            mLocalMatrix.mapPoints(pts);
+        }
+        Object gradient = null;
+        /**
+         * @j2sNative
+         * gradient = context.createLinearGradient(pts[0], pts[1], pts[2], pts[3]);
+         */{}
+        mGradientAlpha = addColorStops(gradient, m_colors, m_positions);
+        return gradient;
+    }
 }
\ No newline at end of file
@@ -70,6 +70,23 @@ public class Matrix {
             System.arraycopy(src.mSkMatrix.fMat, 0, mSkMatrix.fMat, 0, src.mSkMatrix.fMat.length);
         }
     }
+
+    /**
+     * Copies the 9 values of the matrix into <code>values</code> at
+     * <code>offset</code>, and returns its type mask for {@link #restoreFrom}.
+     */
+    /* package */ int saveTo(float[] values, int offset) {
+        System.arraycopy(mSkMatrix.fMat, 0, values, offset, 9);
+        return mSkMatrix.fTypeMask;
+    }
+
+    /**
+     * Reverses {@link #saveTo}.
+     */
+    /* package */ void restoreFrom(float[] values, int offset, int typeMask) {
+        System.arraycopy(values, offset, mSkMatrix.fMat, 0, 9);
+        mSkMatrix.fTypeMask = typeMask;
+    }
     
     /** Returns true iff obj is a Matrix and its values equal our values.
     */
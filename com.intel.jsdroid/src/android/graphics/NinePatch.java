@@ -16,6 +16,8 @@
 
 package android.graphics;
 
+import java.util.ArrayList;
+
 import android.graphics.BitmapFactory.Res_png_9patch;
 import android.util.Log;
 
@@ -38,7 +40,7 @@ import android.util.Log;
  * </p>
  */
 public class NinePatch {
-    public static final boolean debug = true;
+    public static final boolean debug = false;
     /** 
      * Create a drawable projection from a bitmap to nine patches.
      *
@@ -103,7 +105,8 @@ public class NinePatch {
      * @param location  Where to draw the bitmap.
      */
     public void draw(Canvas canvas, Rect location) {
-        draw(canvas, new RectF(location), mPaint, canvas.mDensity, mBitmap.getDensity());
+        mTmpLocation.set(location);
+        draw(canvas, mTmpLocation, mPaint, canvas.mDensity, mBitmap.getDensity());
     }
 
     /** 
@@ -114,7 +117,8 @@ public class NinePatch {
      * @param paint     The Paint to draw through.
      */
     public void draw(Canvas canvas, Rect location, Paint paint) {
-        draw(canvas, new RectF(location), paint, canvas.mDensity, mBitmap.getDensity());
+        mTmpLocation.set(location);
+        draw(canvas, mTmpLocation, paint, canvas.mDensity, mBitmap.getDensity());
     }
     
     private void draw(Canvas canvas, RectF location, Paint paint, int destDensity, int srcDensity) {
@@ -122,9 +126,7 @@ public class NinePatch {
 
         if (destDensity == srcDensity || destDensity == 0
                 || srcDensity == 0) {
-            Log.v("NinePatch", "Drawing unscaled 9-patch: (" + location.left + "," + location.top
-                    + ")-(" + location.right + "," + location.bottom + ")");
-            NinePatch_Draw(canvas, location, mBitmap, chunk, paint);
+            drawPatches(canvas, location, chunk, paint, destDensity);
         } else {
             canvas.save();
 
@@ -135,11 +137,8 @@ public class NinePatch {
             location.right = (location.right - location.left) / scale;
             location.bottom = (location.bottom - location.top) / scale;
             location.left = location.top = 0;
-            Log.v("NinePatch", "Drawing unscaled 9-patch: (" + location.left + "," + location.top
-                    + ")-(" + location.right + "," + location.bottom + ")" + " " + "srcDensity="
-                    + srcDensity + " destDensity=" + destDensity);
 
-            NinePatch_Draw(canvas, location, mBitmap, chunk, paint);
+            drawPatches(canvas, location, chunk, paint, destDensity);
 
             canvas.restore();
         }
@@ -147,6 +146,119 @@ public class NinePatch {
         // In MayLoon, just draw the original bitmap.
         //canvas.drawBitmap(mBitmap, null, location, paint);
     }
+
+    /**
+     * Draws the patches into <code>location</code>, from a composite cached
+     * for its size whenever possible, so that drawing the same patch at the
+     * same size again is a single drawImage() instead of one per patch.
+     */
+    private void drawPatches(Canvas canvas, RectF location, Res_png_9patch chunk, Paint paint,
+            int density) {
+        Bitmap composite = getComposite(location, chunk, paint, density);
+        if (composite != null) {
+            // still go through a paint so that the canvas' layer alpha applies
+            canvas.drawBitmap(composite, location.left, location.top,
+                    paint != null ? paint : sCompositePaint);
+        } else {
+            NinePatch_Draw(canvas, location, mBitmap, chunk, paint);
+        }
+    }
+
+    /**
+     * Returns the composite of the patches stretched to the size of
+     * <code>location</code>, rendering it on a miss, or null if that size
+     * or paint cannot be served from a composite.
+     */
+    private Bitmap getComposite(RectF location, Res_png_9patch chunk, Paint paint, int density) {
+        float w = location.width();
+        float h = location.height();
+        int width = (int) w;
+        int height = (int) h;
+        // Fractional sizes would be resampled by the composite, and paints
+        // with a transfer mode or shader must be applied patch by patch.
+        if (width != w || height != h || width <= 0 || height <= 0
+                || width * height > MAX_COMPOSITE_PIXELS
+                || mBitmap.isMutable() || mBitmap.isRecycled()
+                || (paint != null && (paint.getXfermode() != null || paint.getShader() != null))) {
+            return null;
+        }
+        int alpha = paint != null ? paint.getAlpha() : 0xFF;
+
+        Composite[] composites = mComposites;
+        for (int i = 0; i < mCompositeCount; i++) {
+            Composite c = composites[i];
+            if (c.width == width && c.height == height && c.density == density
+                    && c.alpha == alpha) {
+                // move to front, most recently used first
+                for (int k = i; k > 0; k--) {
+                    composites[k] = composites[k - 1];
+                }
+                composites[0] = c;
+                return c.bitmap;
+            }
+        }
+
+        Composite c;
+        if (mCompositeCount == MAX_COMPOSITES) {
+            c = composites[MAX_COMPOSITES - 1];
+            c.bitmap.recycle();
+        } else {
+            c = new Composite();
+            mCompositeCount++;
+            if (!mHoldsComposites) {
+                mHoldsComposites = true;
+                synchronized (sWithComposites) {
+                    sWithComposites.add(this);
+                }
+            }
+        }
+        for (int k = mCompositeCount - 1; k > 0; k--) {
+            composites[k] = composites[k - 1];
+        }
+        composites[0] = c;
+        c.width = width;
+        c.height = height;
+        c.density = density;
+        c.alpha = alpha;
+        c.bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        c.bitmap.setDensity(mBitmap.getDensity());
+        NinePatch_Draw(new Canvas(c.bitmap), new RectF(0, 0, width, height), mBitmap, chunk,
+                paint);
+        return c.bitmap;
+    }
+
+    /**
+     * Drops the composites rendered for past target sizes.
+     *
+     * @hide
+     */
+    public void releaseComposites() {
+        for (int i = 0; i < mCompositeCount; i++) {
+            mComposites[i].bitmap.recycle();
+            mComposites[i] = null;
+        }
+        mCompositeCount = 0;
+        if (mHoldsComposites) {
+            mHoldsComposites = false;
+            synchronized (sWithComposites) {
+                sWithComposites.remove(this);
+            }
+        }
+    }
+
+    /**
+     * Drops the composites of every patch, e.g. when the system is low on
+     * memory. They are rendered again the next time they are drawn.
+     *
+     * @hide
+     */
+    public static void releaseAllComposites() {
+        synchronized (sWithComposites) {
+            for (int i = sWithComposites.size() - 1; i >= 0; i--) {
+                sWithComposites.get(i).releaseComposites();
+            }
+        }
+    }
     
     private void NinePatch_Draw(Canvas canvas, RectF location, Bitmap bitmap, Res_png_9patch chunk,
             Paint paint) {
@@ -410,6 +522,36 @@ public class NinePatch {
     private Paint        mPaint;
     private String       mSrcName;  // Useful for debugging
 
+    private final RectF  mTmpLocation = new RectF();
+
+    /** Largest composite cached, in pixels */
+    private static final int MAX_COMPOSITE_PIXELS = 512 * 1024;
+    /** Number of target sizes a patch keeps composites for */
+    private static final int MAX_COMPOSITES = 4;
+
+    private static final class Composite {
+        int width;
+        int height;
+        int density;
+        int alpha;
+        Bitmap bitmap;
+    }
+
+    private static final Paint sCompositePaint = new Paint();
+
+    /** Most recently used first */
+    private final Composite[] mComposites = new Composite[MAX_COMPOSITES];
+    private int mCompositeCount;
+    /** Whether this patch is listed in sWithComposites */
+    private boolean mHoldsComposites;
+
+    /**
+     * Patches that hold composites, see {@link #releaseAllComposites}. They
+     * are held strongly and leave the list when their composites are
+     * released.
+     */
+    private static final ArrayList<NinePatch> sWithComposites = new ArrayList<NinePatch>();
+
     private static void validateNinePatchChunk(Bitmap bitmap, Res_png_9patch chunk) {
 //        if (chunk.length < 32) {
 //            throw new RuntimeException("Array too small for chunk.");
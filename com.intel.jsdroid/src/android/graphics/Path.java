@@ -586,6 +586,21 @@ public class Path {
         native_drawOnCanvas(mNativePath, activeCanvas, bitmap, paint);
     }
 
+    /**
+     * Fills and/or strokes this path on a 2D context already set up for
+     * <code>paint</code>.
+     */
+    /*package*/ void drawOnContext(Object context, Paint paint) {
+        mNativePath.drawOnContext(context, paint);
+    }
+
+    /**
+     * Intersects the clip of a 2D context with this path.
+     */
+    /*package*/ void clipOnContext(Object context) {
+        mNativePath.clipOnContext(context);
+    }
+
     protected void finalize() throws Throwable {
         try {
             //finalizer(mNativePath);
@@ -641,7 +656,13 @@ public class Path {
         private String mCanvasId;
         private Bitmap mBitmap;
 
-        private PointF[] mPts;
+        private PointF[] mPts = new PointF[4];
+
+        // The browser's Path2D built from fPts/fVerbs, replayed by fill(),
+        // stroke() and clip() without emitting the verbs one by one. Built on
+        // first use and dropped by every change to the geometry.
+        private Object mPath2D;
+        private float[] mMatrixValues;
         
         SkPath() {
             fPts = new ArrayList<PointF>();
@@ -652,7 +673,10 @@ public class Path {
         }
         
         SkPath(SkPath src) {
-            //this = src;
+            this();
+            if (src != null) {
+                this.set(src);
+            }
         }
 
         public void reset() {
@@ -660,6 +684,7 @@ public class Path {
             fVerbs.clear();
             
             fBoundsIsDirty = true;
+            mPath2D = null;
         }
 
         public void rewind() {
@@ -667,15 +692,20 @@ public class Path {
             fVerbs.clear();
             
             fBoundsIsDirty = true;
+            mPath2D = null;
         }
         
         public void set(SkPath src) {
             if (src != this) {
-                fPts = src.fPts;
-                fVerbs = src.fVerbs;
+                // copy, the lists are changed in place afterwards
+                fPts = new ArrayList<PointF>(src.fPts);
+                fVerbs = new ArrayList<Integer>(src.fVerbs);
                 
                 fFillType = src.fFillType;
                 fBoundsIsDirty = src.fBoundsIsDirty;
+                // a Path2D is replaced rather than changed once built, see
+                // addPath(), so it can be shared
+                mPath2D = src.mPath2D;
             }
         }
         
@@ -708,6 +738,7 @@ public class Path {
                 this.moveTo(x, y);
             } else {
                 fPts.set(count - 1, new PointF(x, y));
+                mPath2D = null;
             }
         }
 
@@ -716,8 +747,8 @@ public class Path {
         }
 
         public void setFillType(int ft) {
-            if (ft != kWinding_FillType) {
-                Log.e("Path", "Only Winding FillType is supported in HTML5");
+            if ((ft & 2) != 0) {
+                Log.e("Path", "Inverse FillTypes are not supported in HTML5");
             }
             this.fFillType = ft; 
         }
@@ -734,6 +765,7 @@ public class Path {
             }
             
             fBoundsIsDirty = true;
+            mPath2D = null;
         }
         
         public void rMoveTo(float x, float y) {
@@ -750,6 +782,7 @@ public class Path {
             fVerbs.add(kLine_Verb);
             
             fBoundsIsDirty = true;
+            mPath2D = null;
         }
         
         public void rLineTo(float x, float y) {
@@ -768,6 +801,7 @@ public class Path {
             fVerbs.add(kQuad_Verb);
             
             fBoundsIsDirty = true;
+            mPath2D = null;
         }
         
         public void rQuadTo(float x1, float y1, float x2, float y2) {
@@ -787,6 +821,7 @@ public class Path {
             fVerbs.add(kCubic_Verb);
             
             fBoundsIsDirty = true;
+            mPath2D = null;
         }
         
         public void rCubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
@@ -1142,6 +1177,7 @@ public class Path {
                     case kQuad_Verb:
                     case kCubic_Verb:
                         fVerbs.add(kClose_Verb);
+                        mPath2D = null;
                         break;
                     default:
                         // don't add a close if the prev wasn't a primitive
@@ -1367,6 +1403,11 @@ public class Path {
         }
 
         private void addPath(SkPath src, Matrix matrix) {
+            // Appending to a Path2D is cheaper than building it again, so
+            // keep the one we have up to date if there is one.
+            Object oldPath2D = mPath2D;
+            Object srcPath2D = oldPath2D != null && src != this ? src.getPath2D() : null;
+
             PointF[] pts = new PointF[4];
             int verb;
             PathIter iter = new PathIter(src, false);
@@ -1407,6 +1448,18 @@ public class Path {
                         Log.e("Path", "unknown verb");
                 }
             }
+
+            if (srcPath2D != null) {
+                // the current Path2D may be shared with copies made by set(),
+                // so append to a new one that starts with it
+                Object path2D = newPath2D();
+                /**
+                 * @j2sNative
+                 * path2D.addPath(oldPath2D);
+                 */{}
+                appendPath2D(path2D, srcPath2D, matrix);
+                mPath2D = path2D;
+            }
         }
         
         public void transform(Matrix matrix, SkPath dst) {
@@ -1459,44 +1512,78 @@ public class Path {
                     dst.fBoundsIsDirty = true;
                 }
 
+                int count = fPts.size();
+                float[] mapped = new float[count * 2];
+                for (int i = 0; i < count; i ++) {
+                    mapped[i * 2 + 0] = fPts.get(i).x;
+                    mapped[i * 2 + 1] = fPts.get(i).y;
+                }
+                matrix.mapPoints(mapped);
+                ArrayList<PointF> dstPts = new ArrayList<PointF>(count);
+                for (int i = 0; i < count; i ++) {
+                    dstPts.add(new PointF(mapped[i * 2 + 0], mapped[i * 2 + 1]));
+                }
+
+                // The transformed Path2D comes from the current one through
+                // addPath(), rather than from replaying the mapped points.
+                Object path2D = null;
+                if (mPath2D != null) {
+                    path2D = newPath2D();
+                    appendPath2D(path2D, mPath2D, matrix);
+                }
+
                 if (this != dst) {
-                    dst.fVerbs = fVerbs;
-                    //dst->fPts.setCount(fPts.count());
+                    dst.fVerbs = new ArrayList<Integer>(fVerbs);
                     dst.fFillType = fFillType;
                 }
-                float[] dstPts = new float[fPts.size() * 2];
-                float[] srcPts = new float[fPts.size() * 2];
-                for (int i = 0; i < fPts.size(); i ++) {
-                    srcPts[i * 2 + 0] = fPts.get(i).x;
-                    srcPts[i * 2 + 1] = fPts.get(i).y;
+                dst.fPts = dstPts;
+                dst.mPath2D = path2D;
+            }
+        }
+
+        /**
+         * Returns the Path2D of this path, building it if needed, or null if
+         * the browser has no Path2D.
+         */
+        private Object getPath2D() {
+            if (mPath2D == null) {
+                Object path2D = newPath2D();
+                if (path2D != null) {
+                    this.replay(path2D);
+                    mPath2D = path2D;
                 }
-                matrix.mapPoints(dstPts, srcPts);
             }
+            return mPath2D;
         }
 
-        public void drawOnCanvas(String canvas, Bitmap bitmap, Paint paint) {
-            // Workaround
-            this.mCanvasId = canvas;
-            this.mBitmap = bitmap;
+        private Object newPath2D() {
             /**
              * @j2sNative
-             * var _canvas = null;
-             * if (this.mCanvasId != null) {
-             *     _canvas = document.getElementById(this.mCanvasId);
-             * } else {
-             *     _canvas = this.mBitmap.mCachedCanvas;
-             *     // Update the bitmap cached canvas dirty flag
-             *     this.mBitmap.mIsCachedCanvasDirty = true;
-             * }
-             * if (_canvas == null) {
-             *     throw "Can't get canvas for this path!";
+             * if (typeof Path2D != "undefined") {
+             *     return new Path2D();
              * }
-             * var ctx = _canvas.getContext("2d");
-             * ctx.beginPath();
              */{}
-             
+            return null;
+        }
+
+        private void appendPath2D(Object dst, Object src, Matrix matrix) {
+            if (mMatrixValues == null) {
+                mMatrixValues = new float[9];
+            }
+            float[] v = mMatrixValues;
+            matrix.getValues(v);
+            /**
+             * @j2sNative
+             * dst.addPath(src, {a: v[0], b: v[3], c: v[1], d: v[4], e: v[2], f: v[5]});
+             */{}
+        }
+
+        /**
+         * Emits the verbs of this path on <code>target</code>, either a 2D
+         * context or a Path2D, which share the path building methods.
+         */
+        private void replay(Object target) {
              PathIter iter = new PathIter(this, false);
-             this.mPts = new PointF[4];
              int verb;
              
              while ((verb = iter.next(this.mPts)) != kDone_Verb) {
@@ -1504,56 +1591,113 @@ public class Path {
                      case kMove_Verb:
                          /**
                           * @j2sNative
-                          * ctx.moveTo(this.mPts[0].x, this.mPts[0].y);
+                          * target.moveTo(this.mPts[0].x, this.mPts[0].y);
                           */{}
                          break;
                      case kLine_Verb:
                          /**
                           * @j2sNative
-                          * ctx.lineTo(this.mPts[1].x, this.mPts[1].y);
+                          * target.lineTo(this.mPts[1].x, this.mPts[1].y);
                           */{}
                          break;
                      case kQuad_Verb:
                          /**
                           * @j2sNative
-                          * ctx.quadraticCurveTo(this.mPts[1].x, this.mPts[1].y, this.mPts[2].x, this.mPts[2].y);
+                          * target.quadraticCurveTo(this.mPts[1].x, this.mPts[1].y, this.mPts[2].x, this.mPts[2].y);
                           */{}
                           break;
                      case kCubic_Verb:
                          /**
                           * @j2sNative
-                          * ctx.bezierCurveTo(this.mPts[1].x, this.mPts[1].y, this.mPts[2].x, this.mPts[2].y, this.mPts[3].x, this.mPts[3].y);
+                          * target.bezierCurveTo(this.mPts[1].x, this.mPts[1].y, this.mPts[2].x, this.mPts[2].y, this.mPts[3].x, this.mPts[3].y);
                           */{}
                           break;
                      case kClose_Verb:
                          /**
                           * @j2sNative
-                          * ctx.closePath();
+                          * target.closePath();
                           */{}
                           break;
                       default:
                           break;
                  }
              } // while
+        }
+
+        public void drawOnCanvas(String canvas, Bitmap bitmap, Paint paint) {
+            // Workaround
+            this.mCanvasId = canvas;
+            this.mBitmap = bitmap;
+            Object ctx = null;
+            /**
+             * @j2sNative
+             * var _canvas = null;
+             * if (this.mCanvasId != null) {
+             *     _canvas = document.getElementById(this.mCanvasId);
+             * } else {
+             *     _canvas = this.mBitmap.getCanvasForDrawing();
+             * }
+             * if (_canvas == null) {
+             *     throw "Can't get canvas for this path!";
+             * }
+             * ctx = _canvas.getContext("2d");
+             */{}
+            this.mBitmap = null;
+            drawOnContext(ctx, paint);
+        }
+
+        public void drawOnContext(Object ctx, Paint paint) {
+            Object path2D = getPath2D();
+            String rule = (fFillType & 1) != 0 ? "evenodd" : "nonzero";
+            if (path2D == null) {
+                /**
+                 * @j2sNative
+                 * ctx.beginPath();
+                 */{}
+                this.replay(ctx);
+            }
 
             Style sty = paint.getStyle();
-            if (Style.FILL.equals(sty)) {
+            if (Style.FILL.equals(sty) || Style.FILL_AND_STROKE.equals(sty)) {
                 /**
                  * @j2sNative
-                 * ctx.fill();
+                 * if (path2D != null) {
+                 *     ctx.fill(path2D, rule);
+                 * } else {
+                 *     ctx.fill(rule);
+                 * }
                  */{}
-            } else if (Style.STROKE.equals(sty)) {
+            }
+            if (Style.STROKE.equals(sty) || Style.FILL_AND_STROKE.equals(sty)) {
                 /**
                  * @j2sNative
-                 * ctx.stroke();
+                 * if (path2D != null) {
+                 *     ctx.stroke(path2D);
+                 * } else {
+                 *     ctx.stroke();
+                 * }
                  */{}
-            } else if (Style.FILL_AND_STROKE.equals(sty)) {
+            }
+        }
+
+        public void clipOnContext(Object ctx) {
+            Object path2D = getPath2D();
+            String rule = (fFillType & 1) != 0 ? "evenodd" : "nonzero";
+            if (path2D == null) {
                 /**
                  * @j2sNative
-                 * ctx.fill();
-                 * ctx.stroke();
+                 * ctx.beginPath();
                  */{}
+                this.replay(ctx);
             }
+            /**
+             * @j2sNative
+             * if (path2D != null) {
+             *     ctx.clip(path2D, rule);
+             * } else {
+             *     ctx.clip(rule);
+             * }
+             */{}
         }
         
         private class PathIter {
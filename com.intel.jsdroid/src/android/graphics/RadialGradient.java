@@ -88,4 +88,22 @@ public class RadialGradient extends Shader {
         m_colors[0] = color0; m_colors[1] = color1;
         //native_instance = nativeCreate2(x, y, radius, color0, color1, tile.nativeInt);
     }
+
+    @Override
+    /* package */ Object createNativeShader(Object context) {
+        float[] center = new float[] { m_center.x, m_center.y };
+        float radius = m_radius;
+        if (mLocalMatrix != null) {
+            mLocalMatrix.mapPoints(center);
+            radius = mLocalMatrix.mapRadius(radius);
+        }
+        Object gradient = null;
+        /**
+         * @j2sNative
+         * gradient = context.createRadialGradient(center[0], center[1], 0,
+         *                                         center[0], center[1], radius);
+         */{}
+        mGradientAlpha = addColorStops(gradient, m_colors, m_positions);
+        return gradient;
+    }
 }
\ No newline at end of file
@@ -28,6 +28,16 @@ public class Shader {
     /* package */ int native_instance;
     Matrix mLocalMatrix;
 
+    // Bumped whenever the CanvasGradient/CanvasPattern objects created for
+    // this shader no longer match it.
+    private int mGeneration;
+    // Average alpha of a gradient's colors, or -1 for other shaders
+    /* package */ float mGradientAlpha = -1;
+    /**
+     * @j2sNative
+     * this.mNativeShaders = null; // 2D context -> {generation, value}
+     */{}
+
     public enum TileMode {
         /**
          * replicate the edge color if the shader draws outside of its
@@ -83,6 +93,76 @@ public class Shader {
             }
             mLocalMatrix.set(localM);
         }
+        invalidateNativeShader();
+    }
+
+    /**
+     * Returns the CanvasGradient or CanvasPattern drawing this shader on the
+     * 2D context <code>context</code>. It is created once per context and
+     * reused until the shader changes.
+     */
+    /* package */ Object getNativeShader(Object context) {
+        /**
+         * @j2sNative
+         * var cache = this.mNativeShaders;
+         * if (cache == null && typeof WeakMap != "undefined") {
+         *     cache = this.mNativeShaders = new WeakMap();
+         * }
+         * var entry = cache != null ? cache.get(context) : null;
+         * if (entry != null && entry.generation == this.mGeneration) {
+         *     return entry.value;
+         * }
+         * var value = this.createNativeShader(context);
+         * if (cache != null && value != null && this.isNativeShaderCacheable()) {
+         *     cache.set(context, {generation: this.mGeneration, value: value});
+         * }
+         * return value;
+         */{}
+        return null;
+    }
+
+    /**
+     * Creates the CanvasGradient or CanvasPattern of this shader on
+     * <code>context</code>, or returns null if HTML5 cannot draw it.
+     */
+    /* package */ Object createNativeShader(Object context) {
+        return null;
+    }
+
+    /**
+     * Whether objects created by {@link #createNativeShader} may be reused
+     * until {@link #invalidateNativeShader} is called.
+     */
+    /* package */ boolean isNativeShaderCacheable() {
+        return true;
+    }
+
+    /**
+     * Drops the objects created by {@link #createNativeShader}, e.g. after
+     * the colors or the local matrix have changed.
+     */
+    /* package */ void invalidateNativeShader() {
+        mGeneration++;
+    }
+
+    /**
+     * Adds the colors of a gradient to <code>gradient</code>, a CanvasGradient,
+     * and returns their average alpha, which Canvas applies as the global
+     * alpha as color stops are drawn opaque.
+     */
+    /* package */ static float addColorStops(Object gradient, int[] colors, float[] positions) {
+        float alpha = 0;
+        int count = colors.length;
+        for (int i = 0; i < count; i++) {
+            float position = positions != null ? positions[i] : (float) i / (count - 1);
+            String color = Color.toString(colors[i]);
+            /**
+             * @j2sNative
+             * gradient.addColorStop(position, color);
+             */{}
+            alpha += Color.alpha(colors[i]) / 255f;
+        }
+        return count > 0 ? alpha / count : 1;
     }
 
     protected void finalize() throws Throwable {
@@ -0,0 +1,514 @@
+package android.graphics;
+
+import android.util.Log;
+
+/**
+ * WebGL renderer behind the canvases that batch sprites, see
+ * {@link Canvas#setSpriteBatching}. The bitmaps and filled rectangles drawn
+ * one after another are queued as instances of one quad and drawn with a
+ * single call into a WebGL canvas element, which is then composited into
+ * the element of the canvas. Anything else drawn on the canvas flushes the
+ * queue first and is drawn with the 2D context as before.
+ *
+ * <p>Bitmaps are packed on the fly into an atlas texture, row by row, and
+ * uploaded again when their generation changes. Bitmaps larger than
+ * {@link #MAX_SPRITE_SIZE}, and browsers without instanced drawing, leave the
+ * drawing to the 2D context.
+ *
+ * <p>There is a single batch for all canvases, since a page only gets a few
+ * WebGL contexts. It is flushed whenever another canvas or element starts
+ * using it.
+ */
+/* package */ final class SpriteBatch {
+    private static final String TAG = "SpriteBatch";
+
+    private static final int ATLAS_SIZE = 2048;
+    // larger bitmaps are drawn with the 2D context
+    private static final int MAX_SPRITE_SIZE = 512;
+    // transparent pixels kept around each bitmap in the atlas, so that
+    // filtering does not pick up its neighbours
+    private static final int PADDING = 1;
+    // per quad: the two rows of the affine transformation of the unit
+    // square, the rectangle in the atlas, the color and the clip
+    private static final int INSTANCE_FLOATS = 3 + 3 + 4 + 4 + 4;
+    private static final int MAX_INSTANCES = 4096;
+
+    private static final String VERTEX_SHADER =
+            "attribute vec2 aCorner;\n"
+            + "attribute vec3 aRow0;\n"
+            + "attribute vec3 aRow1;\n"
+            + "attribute vec4 aTexRect;\n"
+            + "attribute vec4 aColor;\n"
+            + "attribute vec4 aClip;\n"
+            + "uniform vec2 uSize;\n"
+            + "varying vec2 vTexCoord;\n"
+            + "varying vec4 vColor;\n"
+            + "varying vec2 vPosition;\n"
+            + "varying vec4 vClip;\n"
+            + "void main() {\n"
+            + "    vec3 corner = vec3(aCorner, 1.0);\n"
+            + "    vec2 p = vec2(dot(aRow0, corner), dot(aRow1, corner));\n"
+            + "    vTexCoord = mix(aTexRect.xy, aTexRect.zw, aCorner);\n"
+            + "    vColor = aColor;\n"
+            + "    vPosition = p;\n"
+            + "    vClip = aClip;\n"
+            + "    gl_Position = vec4(p.x / uSize.x * 2.0 - 1.0, 1.0 - p.y / uSize.y * 2.0, 0.0, 1.0);\n"
+            + "}\n";
+
+    // a negative texture coordinate stands for a rectangle without bitmap
+    private static final String FRAGMENT_SHADER =
+            "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+            + "precision highp float;\n"
+            + "#else\n"
+            + "precision mediump float;\n"
+            + "#endif\n"
+            + "uniform sampler2D uAtlas;\n"
+            + "varying vec2 vTexCoord;\n"
+            + "varying vec4 vColor;\n"
+            + "varying vec2 vPosition;\n"
+            + "varying vec4 vClip;\n"
+            + "void main() {\n"
+            + "    if (vPosition.x < vClip.x || vPosition.y < vClip.y\n"
+            + "            || vPosition.x > vClip.z || vPosition.y > vClip.w) {\n"
+            + "        discard;\n"
+            + "    }\n"
+            + "    gl_FragColor = vTexCoord.x < 0.0 ? vColor : texture2D(uAtlas, vTexCoord) * vColor;\n"
+            + "}\n";
+
+    private static SpriteBatch sBatch;
+    private static boolean sUnsupported;
+
+    // the canvas whose quads are queued, and the element they go to
+    private Canvas mOwner;
+    private Object mTarget;
+    private int mTargetWidth;
+    private int mTargetHeight;
+
+    private int mCount;
+    // bounds of the queued or drawn quads that are not composited yet
+    private int mDirtyLeft;
+    private int mDirtyTop;
+    private int mDirtyRight;
+    private int mDirtyBottom;
+
+    // next free place in the atlas
+    private int mShelfX;
+    private int mShelfY;
+    private int mShelfHeight;
+    // bumped when the atlas is cleared, which drops the places of all bitmaps
+    private int mAtlasGeneration;
+    // place of the bitmap found by placeBitmap()
+    private int mPlaceX;
+    private int mPlaceY;
+
+    /**
+     * @j2sNative
+     * this.mCanvas = null;     // the WebGL canvas element
+     * this.mGL = null;
+     * this.mInstancing = null; // ANGLE_instanced_arrays, null on WebGL 2
+     * this.mInstances = null;  // Float32Array of the queued quads
+     * this.mInstanceBuffer = null;
+     * this.mAtlas = null;
+     * this.mSizeLocation = null;
+     */{}
+
+    private SpriteBatch() {
+    }
+
+    /**
+     * Returns the batch, or null if WebGL or instanced drawing is not
+     * available.
+     */
+    static SpriteBatch get() {
+        if (sBatch == null && !sUnsupported) {
+            SpriteBatch batch = new SpriteBatch();
+            if (batch.init()) {
+                sBatch = batch;
+            } else {
+                Log.w(TAG, "WebGL instancing is not available, sprites are drawn with the 2D context");
+                sUnsupported = true;
+            }
+        }
+        return sBatch;
+    }
+
+    /**
+     * Composites the quads queued by <code>owner</code>, if any.
+     */
+    static void flush(Canvas owner) {
+        SpriteBatch batch = sBatch;
+        if (batch != null && batch.mOwner == owner) {
+            batch.flush();
+        }
+    }
+
+    private boolean init() {
+        /**
+         * @j2sNative
+         * var canvas = document.createElement("canvas");
+         * var attributes = {
+         *     alpha : true,
+         *     premultipliedAlpha : true,
+         *     preserveDrawingBuffer : true,
+         *     antialias : false,
+         *     depth : false,
+         *     stencil : false
+         * };
+         * var gl = canvas.getContext("webgl2", attributes);
+         * var instancing = null;
+         * if (gl == null) {
+         *     gl = canvas.getContext("webgl", attributes) || canvas.getContext("experimental-webgl", attributes);
+         *     if (gl == null) return false;
+         *     instancing = gl.getExtension("ANGLE_instanced_arrays");
+         *     if (instancing == null) return false;
+         * }
+         *
+         * var compile = function(type, source) {
+         *     var shader = gl.createShader(type);
+         *     gl.shaderSource(shader, source);
+         *     gl.compileShader(shader);
+         *     if (!gl.getShaderParameter(shader, gl.COMPILE_STATUS)) {
+         *         android.util.Log.e(android.graphics.SpriteBatch.TAG, gl.getShaderInfoLog(shader));
+         *         return null;
+         *     }
+         *     return shader;
+         * };
+         * var vertexShader = compile(gl.VERTEX_SHADER, android.graphics.SpriteBatch.VERTEX_SHADER);
+         * var fragmentShader = compile(gl.FRAGMENT_SHADER, android.graphics.SpriteBatch.FRAGMENT_SHADER);
+         * if (vertexShader == null || fragmentShader == null) return false;
+         * var program = gl.createProgram();
+         * gl.attachShader(program, vertexShader);
+         * gl.attachShader(program, fragmentShader);
+         * gl.bindAttribLocation(program, 0, "aCorner");
+         * gl.linkProgram(program);
+         * if (!gl.getProgramParameter(program, gl.LINK_STATUS)) {
+         *     android.util.Log.e(android.graphics.SpriteBatch.TAG, gl.getProgramInfoLog(program));
+         *     return false;
+         * }
+         * gl.useProgram(program);
+         * gl.uniform1i(gl.getUniformLocation(program, "uAtlas"), 0);
+         * this.mSizeLocation = gl.getUniformLocation(program, "uSize");
+         *
+         * var divisor = function(location, value) {
+         *     if (instancing != null) {
+         *         instancing.vertexAttribDivisorANGLE(location, value);
+         *     } else {
+         *         gl.vertexAttribDivisor(location, value);
+         *     }
+         * };
+         * // the unit square, drawn as a strip
+         * var corners = gl.createBuffer();
+         * gl.bindBuffer(gl.ARRAY_BUFFER, corners);
+         * gl.bufferData(gl.ARRAY_BUFFER, new Float32Array([0, 0, 1, 0, 0, 1, 1, 1]), gl.STATIC_DRAW);
+         * gl.enableVertexAttribArray(0);
+         * gl.vertexAttribPointer(0, 2, gl.FLOAT, false, 0, 0);
+         *
+         * var floats = android.graphics.SpriteBatch.INSTANCE_FLOATS;
+         * this.mInstances = new Float32Array(android.graphics.SpriteBatch.MAX_INSTANCES * floats);
+         * this.mInstanceBuffer = gl.createBuffer();
+         * gl.bindBuffer(gl.ARRAY_BUFFER, this.mInstanceBuffer);
+         * gl.bufferData(gl.ARRAY_BUFFER, this.mInstances.byteLength, gl.DYNAMIC_DRAW);
+         * var layout = [["aRow0", 3], ["aRow1", 3], ["aTexRect", 4], ["aColor", 4], ["aClip", 4]];
+         * var offset = 0;
+         * for (var i = 0; i < layout.length; i++) {
+         *     var location = gl.getAttribLocation(program, layout[i][0]);
+         *     gl.enableVertexAttribArray(location);
+         *     gl.vertexAttribPointer(location, layout[i][1], gl.FLOAT, false, floats * 4, offset * 4);
+         *     divisor(location, 1);
+         *     offset += layout[i][1];
+         * }
+         *
+         * var atlas = gl.createTexture();
+         * gl.activeTexture(gl.TEXTURE0);
+         * gl.bindTexture(gl.TEXTURE_2D, atlas);
+         * gl.texParameteri(gl.TEXTURE_2D, gl.TEXTURE_MIN_FILTER, gl.LINEAR);
+         * gl.texParameteri(gl.TEXTURE_2D, gl.TEXTURE_MAG_FILTER, gl.LINEAR);
+         * gl.texParameteri(gl.TEXTURE_2D, gl.TEXTURE_WRAP_S, gl.CLAMP_TO_EDGE);
+         * gl.texParameteri(gl.TEXTURE_2D, gl.TEXTURE_WRAP_T, gl.CLAMP_TO_EDGE);
+         * gl.pixelStorei(gl.UNPACK_PREMULTIPLY_ALPHA_WEBGL, true);
+         * this.mAtlas = atlas;
+         *
+         * gl.enable(gl.BLEND);
+         * gl.blendFunc(gl.ONE, gl.ONE_MINUS_SRC_ALPHA);
+         * gl.clearColor(0, 0, 0, 0);
+         * this.mCanvas = canvas;
+         * this.mGL = gl;
+         * this.mInstancing = instancing;
+         */{}
+        clearAtlas();
+        return true;
+    }
+
+    /**
+     * Makes <code>owner</code>, drawing into the element
+     * <code>target</code>, the canvas whose quads are queued, flushing the
+     * ones of the canvas before.
+     */
+    void begin(Canvas owner, Object target) {
+        int width = 0;
+        int height = 0;
+        /**
+         * @j2sNative
+         * width = target.width;
+         * height = target.height;
+         */{}
+        if (owner == mOwner && target == mTarget
+                && width == mTargetWidth && height == mTargetHeight) {
+            return;
+        }
+        flush();
+        mOwner = owner;
+        mTarget = target;
+        mTargetWidth = width;
+        mTargetHeight = height;
+        /**
+         * @j2sNative
+         * var canvas = this.mCanvas;
+         * var gl = this.mGL;
+         * // the element only grows, resizing it clears it
+         * if (canvas.width < width || canvas.height < height) {
+         *     canvas.width = Math.max(canvas.width, width);
+         *     canvas.height = Math.max(canvas.height, height);
+         * }
+         * // the target is at the top left of the element
+         * gl.viewport(0, canvas.height - height, width, height);
+         * gl.uniform2f(this.mSizeLocation, width, height);
+         */{}
+    }
+
+    /**
+     * Queues the part <code>src</code> of <code>bitmap</code>, or all of it
+     * if <code>src</code> is null, drawn into the rectangle
+     * <code>left</code>, <code>top</code>, <code>right</code>,
+     * <code>bottom</code> transformed by <code>matrix</code>.
+     *
+     * @param matrix the 9 values of the matrix
+     * @param alpha the alpha the bitmap is drawn with, 0 to 255
+     * @param clip the clip, in pixels of the target
+     * @return false if the bitmap has to be drawn with the 2D context
+     */
+    boolean addBitmap(float[] matrix, Bitmap bitmap, Rect src, float left, float top,
+            float right, float bottom, int alpha, Rect clip) {
+        if (!placeBitmap(bitmap)) {
+            return false;
+        }
+        float u0 = (float) mPlaceX / ATLAS_SIZE;
+        float v0 = (float) mPlaceY / ATLAS_SIZE;
+        float u1 = (float) (mPlaceX + bitmap.getWidth()) / ATLAS_SIZE;
+        float v1 = (float) (mPlaceY + bitmap.getHeight()) / ATLAS_SIZE;
+        if (src != null) {
+            u1 = u0 + (float) src.right / ATLAS_SIZE;
+            v1 = v0 + (float) src.bottom / ATLAS_SIZE;
+            u0 += (float) src.left / ATLAS_SIZE;
+            v0 += (float) src.top / ATLAS_SIZE;
+        }
+        float a = alpha / 255.0f;
+        addQuad(matrix, left, top, right, bottom, u0, v0, u1, v1, a, a, a, a, clip);
+        return true;
+    }
+
+    /**
+     * Queues the rectangle <code>left</code>, <code>top</code>,
+     * <code>right</code>, <code>bottom</code> transformed by
+     * <code>matrix</code>, filled with <code>color</code>.
+     */
+    void addRect(float[] matrix, float left, float top, float right, float bottom,
+            int color, Rect clip) {
+        float a = Color.alpha(color) / 255.0f;
+        float r = Color.red(color) / 255.0f * a;
+        float g = Color.green(color) / 255.0f * a;
+        float b = Color.blue(color) / 255.0f * a;
+        addQuad(matrix, left, top, right, bottom, -1, -1, -1, -1, r, g, b, a, clip);
+    }
+
+    private void addQuad(float[] m, float left, float top, float right, float bottom,
+            float u0, float v0, float u1, float v1,
+            float r, float g, float b, float a, Rect clip) {
+        float width = right - left;
+        float height = bottom - top;
+        // the unit square to the rectangle, then to the target
+        float a0 = m[Matrix.MSCALE_X] * width;
+        float c0 = m[Matrix.MSKEW_X] * height;
+        float x0 = m[Matrix.MSCALE_X] * left + m[Matrix.MSKEW_X] * top + m[Matrix.MTRANS_X];
+        float b0 = m[Matrix.MSKEW_Y] * width;
+        float d0 = m[Matrix.MSCALE_Y] * height;
+        float y0 = m[Matrix.MSKEW_Y] * left + m[Matrix.MSCALE_Y] * top + m[Matrix.MTRANS_Y];
+
+        // bounds of the quad within the clip and the target
+        float minX = x0 + Math.min(0, a0) + Math.min(0, c0);
+        float maxX = x0 + Math.max(0, a0) + Math.max(0, c0);
+        float minY = y0 + Math.min(0, b0) + Math.min(0, d0);
+        float maxY = y0 + Math.max(0, b0) + Math.max(0, d0);
+        int clipLeft = Math.max(0, clip.left);
+        int clipTop = Math.max(0, clip.top);
+        int clipRight = Math.min(mTargetWidth, clip.right);
+        int clipBottom = Math.min(mTargetHeight, clip.bottom);
+        int l = Math.max(clipLeft, (int) Math.floor(minX));
+        int t = Math.max(clipTop, (int) Math.floor(minY));
+        int rr = Math.min(clipRight, (int) Math.ceil(maxX));
+        int bb = Math.min(clipBottom, (int) Math.ceil(maxY));
+        if (l >= rr || t >= bb || a <= 0) {
+            return;
+        }
+        if (mDirtyLeft >= mDirtyRight) {
+            mDirtyLeft = l;
+            mDirtyTop = t;
+            mDirtyRight = rr;
+            mDirtyBottom = bb;
+        } else {
+            if (l < mDirtyLeft) mDirtyLeft = l;
+            if (t < mDirtyTop) mDirtyTop = t;
+            if (rr > mDirtyRight) mDirtyRight = rr;
+            if (bb > mDirtyBottom) mDirtyBottom = bb;
+        }
+
+        if (mCount == MAX_INSTANCES) {
+            drawQueued();
+        }
+        int i = mCount * INSTANCE_FLOATS;
+        mCount++;
+        /**
+         * @j2sNative
+         * var q = this.mInstances;
+         * q[i] = a0; q[i + 1] = c0; q[i + 2] = x0;
+         * q[i + 3] = b0; q[i + 4] = d0; q[i + 5] = y0;
+         * q[i + 6] = u0; q[i + 7] = v0; q[i + 8] = u1; q[i + 9] = v1;
+         * q[i + 10] = r; q[i + 11] = g; q[i + 12] = b; q[i + 13] = a;
+         * q[i + 14] = clipLeft; q[i + 15] = clipTop; q[i + 16] = clipRight; q[i + 17] = clipBottom;
+         */{}
+    }
+
+    /**
+     * Finds or makes the place of <code>bitmap</code> in the atlas, leaving
+     * it in mPlaceX and mPlaceY, and uploads its pixels if they are not
+     * there yet.
+     *
+     * @return false if the bitmap does not go into the atlas
+     */
+    private boolean placeBitmap(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width > MAX_SPRITE_SIZE || height > MAX_SPRITE_SIZE) {
+            return false;
+        }
+        int generation = bitmap.getGenerationId();
+        boolean placed = false;
+        /**
+         * @j2sNative
+         * var place = bitmap._atlasPlace;
+         * if (place != null && place.atlas == this.mAtlasGeneration) {
+         *     this.mPlaceX = place.x;
+         *     this.mPlaceY = place.y;
+         *     if (place.generation == generation) return true;
+         *     placed = true;
+         * }
+         */{}
+        if (placed) {
+            // queued quads still show the pixels that are replaced
+            drawQueued();
+        } else {
+            int w = width + 2 * PADDING;
+            int h = height + 2 * PADDING;
+            if (mShelfX + w > ATLAS_SIZE) {
+                mShelfX = 0;
+                mShelfY += mShelfHeight;
+                mShelfHeight = 0;
+            }
+            if (mShelfY + h > ATLAS_SIZE) {
+                drawQueued();
+                clearAtlas();
+            }
+            mPlaceX = mShelfX + PADDING;
+            mPlaceY = mShelfY + PADDING;
+            mShelfX += w;
+            mShelfHeight = Math.max(mShelfHeight, h);
+        }
+
+        Object source = bitmap.getPixelData();
+        if (source == null) {
+            source = bitmap.getDrawingSource();
+        }
+        if (source == null) {
+            return false;
+        }
+        int x = mPlaceX;
+        int y = mPlaceY;
+        int atlas = mAtlasGeneration;
+        /**
+         * @j2sNative
+         * var gl = this.mGL;
+         * gl.texSubImage2D(gl.TEXTURE_2D, 0, x, y, gl.RGBA, gl.UNSIGNED_BYTE, source);
+         * bitmap._atlasPlace = { atlas : atlas, x : x, y : y, generation : generation };
+         */{}
+        return true;
+    }
+
+    private void clearAtlas() {
+        mAtlasGeneration++;
+        mShelfX = 0;
+        mShelfY = 0;
+        mShelfHeight = 0;
+        /**
+         * @j2sNative
+         * var gl = this.mGL;
+         * gl.texImage2D(gl.TEXTURE_2D, 0, gl.RGBA, android.graphics.SpriteBatch.ATLAS_SIZE,
+         *         android.graphics.SpriteBatch.ATLAS_SIZE, 0, gl.RGBA, gl.UNSIGNED_BYTE, null);
+         */{}
+    }
+
+    /**
+     * Draws the queued quads into the WebGL canvas.
+     */
+    private void drawQueued() {
+        if (mCount == 0) {
+            return;
+        }
+        int count = mCount;
+        mCount = 0;
+        /**
+         * @j2sNative
+         * var gl = this.mGL;
+         * gl.bufferSubData(gl.ARRAY_BUFFER, 0,
+         *         this.mInstances.subarray(0, count * android.graphics.SpriteBatch.INSTANCE_FLOATS));
+         * if (this.mInstancing != null) {
+         *     this.mInstancing.drawArraysInstancedANGLE(gl.TRIANGLE_STRIP, 0, 4, count);
+         * } else {
+         *     gl.drawArraysInstanced(gl.TRIANGLE_STRIP, 0, 4, count);
+         * }
+         */{}
+    }
+
+    /**
+     * Draws the queued quads and composites them into the target, then
+     * clears the part of the WebGL canvas they were drawn into.
+     */
+    private void flush() {
+        drawQueued();
+        if (mDirtyLeft >= mDirtyRight || mTarget == null) {
+            return;
+        }
+        int left = mDirtyLeft;
+        int top = mDirtyTop;
+        int width = mDirtyRight - mDirtyLeft;
+        int height = mDirtyBottom - mDirtyTop;
+        mDirtyLeft = mDirtyTop = mDirtyRight = mDirtyBottom = 0;
+        Object target = mTarget;
+        /**
+         * @j2sNative
+         * var context = target.getContext("2d");
+         * var canvas = this.mCanvas;
+         * context.save();
+         * context.setTransform(1, 0, 0, 1, 0, 0);
+         * context.globalAlpha = 1;
+         * context.globalCompositeOperation = "source-over";
+         * context.drawImage(canvas, left, top, width, height, left, top, width, height);
+         * context.restore();
+         *
+         * var gl = this.mGL;
+         * gl.enable(gl.SCISSOR_TEST);
+         * gl.scissor(left, canvas.height - top - height, width, height);
+         * gl.clear(gl.COLOR_BUFFER_BIT);
+         * gl.disable(gl.SCISSOR_TEST);
+         */{}
+    }
+}
@@ -16,7 +16,13 @@
 
 package android.graphics;
 
+import android.util.Log;
+
 public class SweepGradient extends Shader {
+    // whether the browser has createConicGradient(), checked on first use
+    private static boolean sConicChecked = false;
+    private static boolean sConicSupported = false;
+
     private PointF m_center;
     private int[] m_colors;
     private float[] m_positions;
@@ -73,4 +79,36 @@ public class SweepGradient extends Shader {
         m_colors[0] = color0; m_colors[1] = color1;
         //native_instance = nativeCreate2(cx, cy, color0, color1);
     }
+
+    @Override
+    /* package */ Object createNativeShader(Object context) {
+        if (!sConicChecked) {
+            boolean supported = false;
+            /**
+             * @j2sNative
+             * supported = context.createConicGradient != null;
+             */{}
+            sConicChecked = true;
+            sConicSupported = supported;
+            if (!supported) {
+                Log.e("SweepGradient", "This browser doesn't support createConicGradient");
+            }
+        }
+        if (!sConicSupported) {
+            return null;
+        }
+        // the sweep starts along the x axis, wherever the local matrix puts it
+        float[] pts = new float[] { m_center.x, m_center.y, m_center.x + 1, m_center.y };
+        if (mLocalMatrix != null) {
+            mLocalMatrix.mapPoints(pts);
+        }
+        double startAngle = Math.atan2(pts[3] - pts[1], pts[2] - pts[0]);
+        Object gradient = null;
+        /**
+         * @j2sNative
+         * gradient = context.createConicGradient(startAngle, pts[0], pts[1]);
+         */{}
+        mGradientAlpha = addColorStops(gradient, m_colors, m_positions);
+        return gradient;
+    }
 }
\ No newline at end of file
@@ -328,6 +328,22 @@ public class NinePatchDrawable extends Drawable {
         return mNinePatch.getTransparentRegion(getBounds());
     }
     
+    /**
+     * Drops the composites cached by the patch of <code>state</code>, if it
+     * is the state of a nine-patch, e.g. once the state has been evicted
+     * from the drawable cache.
+     *
+     * @hide
+     */
+    public static void releaseComposites(ConstantState state) {
+        if (state instanceof NinePatchState) {
+            NinePatch patch = ((NinePatchState) state).mNinePatch;
+            if (patch != null) {
+                patch.releaseComposites();
+            }
+        }
+    }
+
     @Override
     public ConstantState getConstantState() {
         mNinePatchState.mChangingConfigurations = super.getChangingConfigurations();
@@ -0,0 +1,361 @@
+package android.opengl;
+
+/**
+ * Emulates the client side vertex and index arrays of OpenGL ES, which WebGL
+ * does not have, with buffer objects owned by {@link GLES20}.
+ *
+ * <p>glVertexAttribPointer() with a java.nio buffer only records the pointer.
+ * At draw time, only the range of each enabled client array that the draw
+ * reads is uploaded, into a buffer of a small ring owned by that attribute.
+ * The arrays of different attributes therefore never overwrite each other,
+ * and a buffer the previous draws read from is not written again right away.
+ * An array whose range and contents did not change since its last upload is
+ * not uploaded again.
+ *
+ * <p>Index arrays are uploaded into buffers cached by java.nio storage,
+ * offset, count and type, and only uploaded again once the storage has been
+ * written. Every buffer is deleted by {@link #release}.
+ */
+/* package */ final class GLBufferArena {
+    private static final int RING_SIZE = 3;
+    private static final int MAX_INDEX_BUFFERS = 64;
+
+    private static final int GL_ARRAY_BUFFER = 0x8892;
+    private static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+
+    // per attribute index: the client array pointer and the ring of buffers
+    private static Object sSlots;
+    // Map of java.nio storage to the index buffers cached for it
+    private static Object sIndexBuffers;
+    private static int sIndexBufferCount;
+    // the buffers bound by the application, restored after an upload
+    private static Object sArrayBufferBinding;
+    private static Object sElementBufferBinding;
+
+    private GLBufferArena() {
+    }
+
+    /**
+     * Called when GLES20 gets a new context.
+     */
+    static void init() {
+        /**
+         * @j2sNative
+         * android.opengl.GLBufferArena.sSlots = [];
+         * android.opengl.GLBufferArena.sIndexBuffers = new Map();
+         */{}
+        sIndexBufferCount = 0;
+        sArrayBufferBinding = null;
+        sElementBufferBinding = null;
+    }
+
+    /**
+     * Deletes every buffer of the arena. The context must still be current.
+     */
+    static void release() {
+        Object slots = sSlots;
+        Object indexBuffers = sIndexBuffers;
+        /**
+         * @j2sNative
+         * var gl = android.opengl.GLES20.prototype.mContext;
+         * if (gl != null && slots != null) {
+         *     for (var i = 0; i < slots.length; i++) {
+         *         var slot = slots[i];
+         *         if (slot == null) continue;
+         *         for (var j = 0; j < slot.ring.length; j++) {
+         *             gl.deleteBuffer(slot.ring[j].buffer);
+         *         }
+         *     }
+         * }
+         * if (gl != null && indexBuffers != null) {
+         *     indexBuffers.forEach(function(entries) {
+         *         for (var i = 0; i < entries.length; i++) {
+         *             gl.deleteBuffer(entries[i].buffer);
+         *         }
+         *     });
+         * }
+         */{}
+        sSlots = null;
+        sIndexBuffers = null;
+        sIndexBufferCount = 0;
+        sArrayBufferBinding = null;
+        sElementBufferBinding = null;
+    }
+
+    /**
+     * Tracks the buffers bound by the application.
+     */
+    static void onBindBuffer(int target, Object buffer) {
+        if (target == GL_ARRAY_BUFFER) {
+            sArrayBufferBinding = buffer;
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            sElementBufferBinding = buffer;
+        }
+    }
+
+    private static Object getSlot(int index) {
+        /**
+         * @j2sNative
+         * var slots = android.opengl.GLBufferArena.sSlots;
+         * if (slots == null) {
+         *     android.opengl.GLBufferArena.init();
+         *     slots = android.opengl.GLBufferArena.sSlots;
+         * }
+         * var slot = slots[index];
+         * if (slot == null) {
+         *     slot = { enabled: false, client: false, size: 0, type: 0, normalized: false,
+         *              stride: 0, view: null, start: 0, length: 0,
+         *              ring: [], next: 0, last: null };
+         *     slots[index] = slot;
+         * }
+         * return slot;
+         */{}
+        return null;
+    }
+
+    static void setEnabled(int index, boolean enabled) {
+        Object slot = getSlot(index);
+        /**
+         * @j2sNative
+         * slot.enabled = enabled;
+         */{}
+    }
+
+    /**
+     * Records a client array pointer. The array is read when it is drawn,
+     * from the position <code>ptr</code> has now.
+     */
+    static void setPointer(int index, int size, int type, boolean normalized, int stride,
+            java.nio.Buffer ptr) {
+        Object slot = getSlot(index);
+        /**
+         * @j2sNative
+         * var bytes = ptr.byteBuffer != null ? ptr.byteBuffer : ptr;
+         * var shift = ptr._elementSizeShift;
+         * slot.client = true;
+         * slot.size = size;
+         * slot.type = type;
+         * slot.normalized = normalized;
+         * slot.stride = stride;
+         * slot.view = bytes.backingArray;
+         * slot.start = bytes.offset + (ptr.position() << shift);
+         * slot.length = ptr.remaining() << shift;
+         */{}
+    }
+
+    /**
+     * The attribute now reads from a buffer object of the application.
+     */
+    static void clearPointer(int index) {
+        Object slot = getSlot(index);
+        /**
+         * @j2sNative
+         * slot.client = false;
+         * slot.view = null;
+         * slot.last = null;
+         */{}
+    }
+
+    /**
+     * Uploads the vertices <code>[first, first + count)</code> of every
+     * enabled client array and points the attributes at them. A negative
+     * count stands for every vertex up to the end of each array.
+     */
+    static void prepareArrays(int first, int count) {
+        Object slots = sSlots;
+        Object binding = sArrayBufferBinding;
+        int ringSize = RING_SIZE;
+        /**
+         * @j2sNative
+         * if (slots == null) return;
+         * var gl = android.opengl.GLES20.prototype.mContext;
+         * var uploaded = false;
+         * for (var i = 0; i < slots.length; i++) {
+         *     var slot = slots[i];
+         *     if (slot == null || !slot.client || !slot.enabled || slot.view == null) continue;
+         *     var elementSize = slot.size * android.opengl.GLBufferArena.sizeOfType(slot.type);
+         *     var stride = slot.stride != 0 ? slot.stride : elementSize;
+         *     var skip = first * stride;
+         *     var length = count < 0 ? slot.length - skip : (count - 1) * stride + elementSize;
+         *     length = Math.min(length, slot.length - skip);
+         *     if (length <= 0) continue;
+         *     var version = slot.view._version | 0;
+         *     var last = slot.last;
+         *     var entry;
+         *     if (last != null && last.view == slot.view && last.version == version
+         *             && last.start == slot.start && last.skip <= skip
+         *             && last.skip + last.length >= skip + length) {
+         *         // the vertices are already in the buffer of the last upload
+         *         entry = last;
+         *         gl.bindBuffer(gl.ARRAY_BUFFER, entry.buffer);
+         *     } else {
+         *         if (slot.ring.length < ringSize) {
+         *             entry = { buffer: gl.createBuffer(), capacity: 0 };
+         *             slot.ring.push(entry);
+         *         } else {
+         *             entry = slot.ring[slot.next];
+         *         }
+         *         slot.next = (slot.next + 1) % ringSize;
+         *         gl.bindBuffer(gl.ARRAY_BUFFER, entry.buffer);
+         *         if (entry.capacity < skip + length) {
+         *             var capacity = 1024;
+         *             while (capacity < skip + length) capacity *= 2;
+         *             gl.bufferData(gl.ARRAY_BUFFER, capacity, gl.STREAM_DRAW);
+         *             entry.capacity = capacity;
+         *         }
+         *         // the vertices go where the attribute reads them with an offset of 0
+         *         gl.bufferSubData(gl.ARRAY_BUFFER, skip,
+         *                 new Uint8Array(slot.view.buffer, slot.view.byteOffset + slot.start + skip, length));
+         *         entry.view = slot.view;
+         *         entry.version = version;
+         *         entry.start = slot.start;
+         *         entry.skip = skip;
+         *         entry.length = length;
+         *         slot.last = entry;
+         *     }
+         *     gl.vertexAttribPointer(i, slot.size, slot.type, slot.normalized, slot.stride, 0);
+         *     uploaded = true;
+         * }
+         * if (uploaded) {
+         *     gl.bindBuffer(gl.ARRAY_BUFFER, binding);
+         * }
+         */{}
+    }
+
+    /**
+     * Draws <code>count</code> indices read from the client array
+     * <code>indices</code>, uploading only the vertices they refer to.
+     */
+    static void drawElements(int mode, int count, int type, java.nio.Buffer indices) {
+        Object entry = getIndexBuffer(count, type, indices);
+        if (entry == null) {
+            return;
+        }
+        int min = 0;
+        int max = 0;
+        Object binding = sElementBufferBinding;
+        /**
+         * @j2sNative
+         * min = entry.min;
+         * max = entry.max;
+         */{}
+        prepareArrays(min, max - min + 1);
+        /**
+         * @j2sNative
+         * var gl = android.opengl.GLES20.prototype.mContext;
+         * gl.bindBuffer(gl.ELEMENT_ARRAY_BUFFER, entry.buffer);
+         * gl.drawElements(mode, count, type, 0);
+         * gl.bindBuffer(gl.ELEMENT_ARRAY_BUFFER, binding);
+         */{}
+    }
+
+    /**
+     * Returns the cached index buffer holding the <code>count</code> indices
+     * at the position of <code>indices</code>, with the range of vertices
+     * they refer to, uploading them if the storage has changed.
+     */
+    private static Object getIndexBuffer(int count, int type, java.nio.Buffer indices) {
+        if (sIndexBuffers == null) {
+            init();
+        }
+        Object indexBuffers = sIndexBuffers;
+        /**
+         * @j2sNative
+         * if (count <= 0) return null;
+         * var gl = android.opengl.GLES20.prototype.mContext;
+         * var bytes = indices.byteBuffer != null ? indices.byteBuffer : indices;
+         * var view = bytes.backingArray;
+         * var size = android.opengl.GLBufferArena.sizeOfType(type);
+         * var start = bytes.offset + (indices.position() << indices._elementSizeShift);
+         * var length = Math.min(count * size, view.byteLength - start);
+         * if (length <= 0) return null;
+         * var version = view._version | 0;
+         *
+         * var entries = indexBuffers.get(view);
+         * var entry = null;
+         * if (entries == null) {
+         *     entries = [];
+         * } else {
+         *     for (var i = 0; i < entries.length; i++) {
+         *         var e = entries[i];
+         *         if (e.start == start && e.length == length && e.type == type) {
+         *             entry = e;
+         *             break;
+         *         }
+         *     }
+         *     // most recently used last
+         *     indexBuffers["delete"](view);
+         * }
+         * indexBuffers.set(view, entries);
+         * if (entry != null && entry.version == version) {
+         *     return entry;
+         * }
+         *
+         * if (entry == null) {
+         *     entry = { buffer: gl.createBuffer(), start: start, length: length, type: type,
+         *               version: -1, min: 0, max: 0 };
+         *     entries.push(entry);
+         *     android.opengl.GLBufferArena.sIndexBufferCount++;
+         *     android.opengl.GLBufferArena.trimIndexBuffers(view);
+         * }
+         * var data = new Uint8Array(view.buffer, view.byteOffset + start, length);
+         * gl.bindBuffer(gl.ELEMENT_ARRAY_BUFFER, entry.buffer);
+         * gl.bufferData(gl.ELEMENT_ARRAY_BUFFER, data, gl.STATIC_DRAW);
+         * gl.bindBuffer(gl.ELEMENT_ARRAY_BUFFER, android.opengl.GLBufferArena.sElementBufferBinding);
+         *
+         * // the range of vertices to upload, read the way the GPU reads the indices
+         * var min = 0xFFFFFFFF;
+         * var max = 0;
+         * var n = length / size | 0;
+         * for (var i = 0; i < n; i++) {
+         *     var index = size == 1 ? view.getUint8(start + i)
+         *             : size == 2 ? view.getUint16(start + i * 2, true)
+         *             : view.getUint32(start + i * 4, true);
+         *     if (index < min) min = index;
+         *     if (index > max) max = index;
+         * }
+         * entry.version = version;
+         * entry.min = n > 0 ? min : 0;
+         * entry.max = n > 0 ? max : 0;
+         * return entry;
+         */{}
+        return null;
+    }
+
+    /**
+     * Deletes the least recently used index buffers above the budget, except
+     * those of the storage <code>keep</code>.
+     */
+    private static void trimIndexBuffers(Object keep) {
+        Object indexBuffers = sIndexBuffers;
+        int maxIndexBuffers = MAX_INDEX_BUFFERS;
+        /**
+         * @j2sNative
+         * var gl = android.opengl.GLES20.prototype.mContext;
+         * var it = indexBuffers.keys();
+         * while (android.opengl.GLBufferArena.sIndexBufferCount > maxIndexBuffers) {
+         *     var view = it.next().value;
+         *     if (view == null || view == keep) break;
+         *     var entries = indexBuffers.get(view);
+         *     for (var i = 0; i < entries.length; i++) {
+         *         gl.deleteBuffer(entries[i].buffer);
+         *     }
+         *     android.opengl.GLBufferArena.sIndexBufferCount -= entries.length;
+         *     indexBuffers["delete"](view);
+         * }
+         */{}
+    }
+
+    private static int sizeOfType(int type) {
+        switch (type) {
+            case GLES20.GL_BYTE:
+            case GLES20.GL_UNSIGNED_BYTE:
+                return 1;
+            case GLES20.GL_SHORT:
+            case GLES20.GL_UNSIGNED_SHORT:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
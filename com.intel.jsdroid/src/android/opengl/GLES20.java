@@ -20,6 +20,7 @@
 package android.opengl;
 
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.util.Log;
 
 /** OpenGL ES 2.0
@@ -335,9 +336,10 @@ public class GLES20 {
     public static final boolean DEBUG = false;
     
     public static void classInit() {
+        GLBufferArena.init();
+        GLStateCache.init();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mCachedBuffer = null;
          * var shaderArray = new Array();
          * // In OpenGLES2.0, 0 is invalid id for shader, so we begin at index 1;
          * shaderArray.push(-1);
@@ -362,14 +364,18 @@ public class GLES20 {
          * var renderBufferArray = new Array();
          * // In OpenGLES2.0, -1 is invalid id for buffer id, so we begin at index 0;
          * android.opengl.GLES20.prototype.mRenderBufferArray = renderBufferArray;
+         * // lets links run in the background, see isProgramLinkCompleted()
+         * var gl = android.opengl.GLES20.prototype.mContext;
+         * android.opengl.GLES20.prototype.mParallelShaderCompile =
+         *         gl != null ? gl.getExtension("KHR_parallel_shader_compile") : null;
          */{}
     }
     
     public static void classTerminate() {
         // Do clean-up
+        GLBufferArena.release();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mCachedBuffer = null;
          * android.opengl.GLES20.prototype.mShaderArray = null;
          * android.opengl.GLES20.prototype.mProgramArray = null;
          * android.opengl.GLES20.prototype.mUniformLocationArray = null;
@@ -377,9 +383,43 @@ public class GLES20 {
          * android.opengl.GLES20.prototype.mBufferArray = null;
          * android.opengl.GLES20.prototype.mFrameBufferArray = null;
          * android.opengl.GLES20.prototype.mRenderBufferArray = null;
+         * android.opengl.GLES20.prototype.mParallelShaderCompile = null;
          */{}
     }
 
+    /**
+     * Returns whether the link of <code>program</code> has completed, so
+     * that querying its status or its active variables does not wait for
+     * the driver. Always true without KHR_parallel_shader_compile, where
+     * there is no way to tell.
+     *
+     * @hide
+     */
+    public static boolean isProgramLinkCompleted(int program) {
+        /**
+         * @j2sNative
+         * var ext = android.opengl.GLES20.prototype.mParallelShaderCompile;
+         * var gl = android.opengl.GLES20.prototype.mContext;
+         * if (ext != null && gl != null) {
+         *     var _program = android.opengl.GLES20.prototype.mProgramArray[program];
+         *     return _program == null
+         *             || gl.getProgramParameter(_program, ext.COMPLETION_STATUS_KHR) == true;
+         * }
+         */{}
+        return true;
+    }
+
+    /**
+     * @hide
+     */
+    public static boolean isParallelShaderCompileSupported() {
+        /**
+         * @j2sNative
+         * return android.opengl.GLES20.prototype.mParallelShaderCompile != null;
+         */{}
+        return false;
+    }
+
     private static void checkWebGLContext() {
         /**
          * @j2sNative
@@ -404,7 +444,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.activeTexture(texture);
+         * if (android.opengl.GLStateCache.update("activeTexture", texture)) {
+         *     android.opengl.GLES20.prototype.mContext.activeTexture(texture);
+         * }
          */{}
     }
 
@@ -448,7 +490,10 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _buffer = android.opengl.GLES20.prototype.mBufferArray[buffer];
-         * android.opengl.GLES20.prototype.mContext.bindBuffer(target, _buffer);
+         * if (android.opengl.GLStateCache.update("buffer" + target, _buffer)) {
+         *     android.opengl.GLES20.prototype.mContext.bindBuffer(target, _buffer);
+         * }
+         * android.opengl.GLBufferArena.onBindBuffer(target, _buffer);
          */{}
     }
 
@@ -490,7 +535,10 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _texture = android.opengl.GLES20.prototype.mTextureArray[texture];
-         * android.opengl.GLES20.prototype.mContext.bindTexture(target, _texture);
+         * var key = android.opengl.GLStateCache.textureKey(target);
+         * if (key == null || android.opengl.GLStateCache.update(key, _texture)) {
+         *     android.opengl.GLES20.prototype.mContext.bindTexture(target, _texture);
+         * }
          */{}
     }
 
@@ -517,7 +565,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.blendEquation(mode);
+         * if (android.opengl.GLStateCache.update("blendEquation", mode, mode)) {
+         *     android.opengl.GLES20.prototype.mContext.blendEquation(mode);
+         * }
          */{}
     }
 
@@ -530,7 +580,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.blendEquationSeparate(modeRGB, modeAlpha);
+         * if (android.opengl.GLStateCache.update("blendEquation", modeRGB, modeAlpha)) {
+         *     android.opengl.GLES20.prototype.mContext.blendEquationSeparate(modeRGB, modeAlpha);
+         * }
          */{}
     }
 
@@ -543,7 +595,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.blendFunc(sfactor, dfactor);
+         * if (android.opengl.GLStateCache.update("blendFunc", sfactor, dfactor, sfactor, dfactor)) {
+         *     android.opengl.GLES20.prototype.mContext.blendFunc(sfactor, dfactor);
+         * }
          */{}
     }
 
@@ -558,7 +612,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.blendFuncSeparate(srcRGB, dstRGB, srcAlpha, dstAlpha);
+         * if (android.opengl.GLStateCache.update("blendFunc", srcRGB, dstRGB, srcAlpha, dstAlpha)) {
+         *     android.opengl.GLES20.prototype.mContext.blendFuncSeparate(srcRGB, dstRGB, srcAlpha, dstAlpha);
+         * }
          */{}
     }
 
@@ -571,20 +627,34 @@ public class GLES20 {
         int usage
     ) {
         checkWebGLContext();
+        Object bytes = data != null ? bytesOf(data, size) : null;
         /**
          * @j2sNative
-         * var arraybuffer = null;
-         * if (data instanceof java.nio.ByteBuffer) {
-         *     arraybuffer = data.backingArray;
+         * if (bytes == null) {
+         *     android.opengl.GLES20.prototype.mContext.bufferData(target, size, usage);
          * } else {
-         *     arraybuffer = data.byteBuffer.backingArray;
+         *     android.opengl.GLES20.prototype.mContext.bufferData(target, bytes, usage);
          * }
-         * var offset = data.position() * Math.pow(2, data._elementSizeShift);
-         * arraybuffer = arraybuffer.buffer.slice(offset);
-         * android.opengl.GLES20.prototype.mContext.bufferData(target, arraybuffer, usage);
          */{}
     }
 
+    /**
+     * Returns the remaining contents of <code>data</code>, up to
+     * <code>size</code> bytes, as a Uint8Array. It is a view of the buffer's
+     * storage when the buffer has a typed form in native order, so nothing
+     * is copied before WebGL reads it.
+     */
+    private static Object bytesOf(java.nio.Buffer data, int size) {
+        Object array = data.getTypedArray();
+        /**
+         * @j2sNative
+         * if (array == null) return null;
+         * var length = Math.min(size, array.byteLength);
+         * return new Uint8Array(array.buffer, array.byteOffset, length);
+         */{}
+        return null;
+    }
+
     // C function void glBufferSubData ( GLenum target, GLintptr offset, GLsizeiptr size, const GLvoid *data )
 
     public static void glBufferSubData(
@@ -594,16 +664,10 @@ public class GLES20 {
         java.nio.Buffer data
     ) {
         checkWebGLContext();
+        Object bytes = bytesOf(data, size);
         /**
          * @j2sNative
-         * var arraybuffer = null;
-         * if (data instanceof java.nio.ByteBuffer) {
-         *     arraybuffer = data.backingArray;
-         * } else {
-         *     arraybuffer = data.byteBuffer.backingArray;
-         * }
-         * var _offset = data.position() * Math.pow(2, data._elementSizeShift);
-         * android.opengl.GLES20.prototype.mContext.bufferSubData(target, offset, arraybuffer.buffer.slice(_offset));
+         * android.opengl.GLES20.prototype.mContext.bufferSubData(target, offset, bytes);
          */{}
     }
 
@@ -644,7 +708,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.clearColor(red, green, blue, alpha);
+         * if (android.opengl.GLStateCache.update("clearColor", red, green, blue, alpha)) {
+         *     android.opengl.GLES20.prototype.mContext.clearColor(red, green, blue, alpha);
+         * }
          */{}
     }
 
@@ -744,6 +810,7 @@ public class GLES20 {
         int border
     ) {
         checkWebGLContext();
+        forgetBitmapUpload(target, level);
         /**
          * @j2sNative
          * android.opengl.GLES20.prototype.mContext.copyTexImage2D(target, level, internalformat, x, y, width, height, border);
@@ -763,9 +830,10 @@ public class GLES20 {
         int height
     ) {
         checkWebGLContext();
+        forgetBitmapUpload(target, level);
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.copyTexSubImage2D(target, level, internalformat, x, y, width, height, border);
+         * android.opengl.GLES20.prototype.mContext.copyTexSubImage2D(target, level, xoffset, yoffset, x, y, width, height);
          */{}
     }
 
@@ -810,7 +878,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.cullFace(mode);
+         * if (android.opengl.GLStateCache.update("cullFace", mode)) {
+         *     android.opengl.GLES20.prototype.mContext.cullFace(mode);
+         * }
          */{}
     }
 
@@ -827,6 +897,7 @@ public class GLES20 {
          * for (var i = 0; i < n; i++) {
          *     var buffer = android.opengl.GLES20.prototype.mBufferArray[buffers[offset + i]];
          *     android.opengl.GLES20.prototype.mContext.deleteBuffer(buffer);
+         *     android.opengl.GLStateCache.forgetObject(buffer);
          * }
          */{}
     }
@@ -872,6 +943,7 @@ public class GLES20 {
          * @j2sNative
          * var _program = android.opengl.GLES20.prototype.mProgramArray[program];
          * android.opengl.GLES20.prototype.mContext.deleteProgram(_program);
+         * android.opengl.GLStateCache.forgetObject(_program);
          * android.opengl.GLES20.prototype.mProgramArray.splice(program, 1);
          */{}
     }
@@ -927,6 +999,7 @@ public class GLES20 {
          * for (var i = 0; i < n; i++) {
          *     var texture = android.opengl.GLES20.prototype.mTextureArray[textures[offset + i]];
          *     android.opengl.GLES20.prototype.mContext.deleteTexture(texture);
+         *     android.opengl.GLStateCache.forgetObject(texture);
          * }
          */{}
     }
@@ -946,7 +1019,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.depthFunc(func);
+         * if (android.opengl.GLStateCache.update("depthFunc", func)) {
+         *     android.opengl.GLES20.prototype.mContext.depthFunc(func);
+         * }
          */{}
     }
 
@@ -958,7 +1033,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.depthMask(flag);
+         * if (android.opengl.GLStateCache.update("depthMask", flag)) {
+         *     android.opengl.GLES20.prototype.mContext.depthMask(flag);
+         * }
          */{}
     }
 
@@ -998,7 +1075,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.disable(cap);
+         * if (android.opengl.GLStateCache.update("cap" + cap, false)) {
+         *     android.opengl.GLES20.prototype.mContext.disable(cap);
+         * }
          */{}
     }
 
@@ -1012,6 +1091,7 @@ public class GLES20 {
          * @j2sNative
          * android.opengl.GLES20.prototype.mContext.disableVertexAttribArray(index);
          */{} 
+        GLBufferArena.setEnabled(index, false);
     }
 
     // C function void glDrawArrays ( GLenum mode, GLint first, GLsizei count )
@@ -1022,6 +1102,7 @@ public class GLES20 {
         int count
     ) {
         checkWebGLContext();
+        GLBufferArena.prepareArrays(first, count);
         /**
          * @j2sNative
          * android.opengl.GLES20.prototype.mContext.drawArrays(mode, first, count);
@@ -1037,6 +1118,8 @@ public class GLES20 {
         int offset
     ) {
         checkWebGLContext();
+        // the range of vertices is unknown without reading the index buffer
+        GLBufferArena.prepareArrays(0, -1);
         /**
          * @j2sNative
          * android.opengl.GLES20.prototype.mContext.drawElements(mode, count, type, offset);
@@ -1052,20 +1135,9 @@ public class GLES20 {
         java.nio.Buffer indices
     ) {
         checkWebGLContext();
-        /**
-         * @j2sNative
-         * // WebGL does not support client side arrays, we need to gen
-         * // a buffer object and upload the data into buffer object, then
-         * // bind the buffer object and call vertexAttribPointer.
-         * var buffer = android.opengl.GLES20.prototype.mContext.createBuffer();
-         * android.opengl.GLES20.prototype.mContext.bindBuffer(android.opengl.GLES20.prototype.mContext.ELEMENT_ARRAY_BUFFER, buffer);
-         * var arraybuffer = indices.byteBuffer.backingArray;
-         * var offset = indices.position() * Math.pow(2, indices._elementSizeShift);
-         * android.opengl.GLES20.prototype.mContext.bufferData(android.opengl.GLES20.prototype.mContext.ELEMENT_ARRAY_BUFFER, arraybuffer,
-         *                                                     android.opengl.GLES20.prototype.mContext.STATIC_DRAW);
-         * android.opengl.GLES20.prototype.mContext.drawElements(mode, count, type, offset);                                                   
-         * 
-         */{}
+        // WebGL does not support client side arrays, the arena uploads the
+        // indices and the vertices they refer to into buffer objects.
+        GLBufferArena.drawElements(mode, count, type, indices);
     }
 
     // C function void glEnable ( GLenum cap )
@@ -1076,7 +1148,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.enable(cap);
+         * if (android.opengl.GLStateCache.update("cap" + cap, true)) {
+         *     android.opengl.GLES20.prototype.mContext.enable(cap);
+         * }
          */{}
     }
 
@@ -1090,6 +1164,7 @@ public class GLES20 {
          * @j2sNative
          * android.opengl.GLES20.prototype.mContext.enableVertexAttribArray(index);
          */{}
+        GLBufferArena.setEnabled(index, true);
     }
 
     // C function void glFinish ( void )
@@ -1155,7 +1230,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.frontFace(mode);
+         * if (android.opengl.GLStateCache.update("frontFace", mode)) {
+         *     android.opengl.GLES20.prototype.mContext.frontFace(mode);
+         * }
          */{}
     }
 
@@ -1904,10 +1981,22 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _program = android.opengl.GLES20.prototype.mProgramArray[program];
+         * // the same name gives the same id, so that the values recorded on
+         * // the location by GLStateCache apply to every caller
+         * var locations = _program._locations;
+         * if (locations == null) {
+         *     locations = _program._locations = {};
+         * }
+         * var id = locations[name];
+         * if (id != null) {
+         *     return id;
+         * }
          * var location = android.opengl.GLES20.prototype.mContext.getUniformLocation(_program, name);
          * if (location) {
          *     android.opengl.GLES20.prototype.mUniformLocationArray.push(location);
-         *     return android.opengl.GLES20.prototype.mUniformLocationArray.length - 1;
+         *     id = android.opengl.GLES20.prototype.mUniformLocationArray.length - 1;
+         *     locations[name] = id;
+         *     return id;
          * }
          */{}
          return -1;
@@ -2136,7 +2225,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.lineWidth(width);
+         * if (android.opengl.GLStateCache.update("lineWidth", width)) {
+         *     android.opengl.GLES20.prototype.mContext.lineWidth(width);
+         * }
          */{}
     }
 
@@ -2150,6 +2241,8 @@ public class GLES20 {
          * @j2sNative
          * var _program = android.opengl.GLES20.prototype.mProgramArray[program];
          * android.opengl.GLES20.prototype.mContext.linkProgram(_program);
+         * // linking resets the uniforms and invalidates their locations
+         * _program._locations = null;
          */{}
     }
 
@@ -2235,7 +2328,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.scissor(x, y, width, height);
+         * if (android.opengl.GLStateCache.update("scissor", x, y, width, height)) {
+         *     android.opengl.GLES20.prototype.mContext.scissor(x, y, width, height);
+         * }
          */{}
     }
 
@@ -2373,7 +2468,15 @@ public class GLES20 {
          */{}
     }
 
+    // the area of a bitmap changed since it was uploaded, see uploadChangedRect()
+    private static final Rect sChangedRect = new Rect();
+
     // This function is special for MayLoon: it can upload a bitmap into a texture.
+    //
+    // Level 0 of a texture remembers the bitmap and generation uploaded into
+    // it. Uploading the same bitmap again is dropped if it has not changed,
+    // and only updates the area written with setPixel()/setPixels() if that
+    // is known.
     public static void glTexImage2D(
             int target,
             int level,
@@ -2386,11 +2489,139 @@ public class GLES20 {
             Bitmap bitmap
         ) {
         checkWebGLContext();
+        Object texture = level == 0 ? GLStateCache.boundTexture(target) : null;
+        int generation = bitmap.getGenerationId();
+        boolean sameImage = false;
+        /**
+         * @j2sNative
+         * var upload = texture != null ? texture._upload : null;
+         * if (upload != null && upload.bitmap === bitmap && upload.internalformat == internalformat
+         *         && upload.format == format && upload.type == type
+         *         && upload.width == width && upload.height == height) {
+         *     if (upload.generation == generation) return;
+         *     sameImage = true;
+         * }
+         */{}
+        if (sameImage && uploadChangedRect(target, texture, bitmap, format, type)) {
+            return;
+        }
+        // the pixels written last are in the ImageData, not in the canvas yet
+        Object source = bitmap.getPixelData();
+        if (source == null) {
+            source = bitmap.getDrawingSource();
+        }
+        if (source == null) {
+            return;
+        }
         /**
          * @j2sNative
-         * bitmap.ensureCachedCanvas();
          * android.opengl.GLES20.prototype.mContext.texImage2D(target, level, internalformat,
-         *                                                     format, type, bitmap.mCachedCanvas);
+         *                                                     format, type, source);
+         * if (texture != null) {
+         *     texture._upload = {
+         *         bitmap : bitmap,
+         *         generation : generation,
+         *         internalformat : internalformat,
+         *         format : format,
+         *         type : type,
+         *         width : width,
+         *         height : height
+         *     };
+         * }
+         */{}
+        bitmap.clearChangedRect();
+    }
+
+    /**
+     * Updates level 0 of <code>texture</code>, which holds an older generation
+     * of <code>bitmap</code>, with the area changed since then.
+     *
+     * @return false if the area is not known, or the pixels can only be
+     *         uploaded from a DOM source, which cannot be cropped
+     */
+    private static boolean uploadChangedRect(int target, Object texture, Bitmap bitmap,
+            int format, int type) {
+        if (format != GL_RGBA || type != GL_UNSIGNED_BYTE) {
+            return false;
+        }
+        Object pixels = bitmap.getPixelData();
+        int generation = 0;
+        /**
+         * @j2sNative
+         * generation = texture._upload.generation;
+         */{}
+        Rect rect = sChangedRect;
+        if (pixels == null || !bitmap.getChangedRect(generation, rect)) {
+            return false;
+        }
+        int stride = bitmap.getWidth() << 2;
+        int left = rect.left;
+        int top = rect.top;
+        int width = rect.width();
+        int height = rect.height();
+        /**
+         * @j2sNative
+         * if (width > 0 && height > 0) {
+         *     var data = pixels.data;
+         *     var region = null;
+         *     if (width << 2 == stride) {
+         *         // whole rows are contiguous
+         *         region = new Uint8Array(data.buffer, data.byteOffset + top * stride, height * stride);
+         *     } else {
+         *         var rowBytes = width << 2;
+         *         region = new Uint8Array(rowBytes * height);
+         *         for (var row = 0; row < height; row++) {
+         *             var start = (top + row) * stride + (left << 2);
+         *             region.set(data.subarray(start, start + rowBytes), row * rowBytes);
+         *         }
+         *     }
+         *     android.opengl.GLES20.prototype.mContext.texSubImage2D(target, 0, left, top, width, height,
+         *                                                            format, type, region);
+         * }
+         * texture._upload.generation = bitmap.getGenerationId();
+         */{}
+        bitmap.clearChangedRect();
+        return true;
+    }
+
+    // This function is special for MayLoon: it can upload a bitmap into a part of a texture.
+    public static void glTexSubImage2D(
+            int target,
+            int level,
+            int xoffset,
+            int yoffset,
+            int format,
+            int type,
+            Bitmap bitmap
+        ) {
+        checkWebGLContext();
+        forgetBitmapUpload(target, level);
+        Object source = bitmap.getPixelData();
+        if (source == null) {
+            source = bitmap.getDrawingSource();
+        }
+        /**
+         * @j2sNative
+         * if (source == null) return;
+         * android.opengl.GLES20.prototype.mContext.texSubImage2D(target, level, xoffset, yoffset,
+         *                                                        format, type, source);
+         */{}
+    }
+
+    /**
+     * Called before level <code>level</code> of the texture bound to
+     * <code>target</code> is written from anything but a whole bitmap.
+     */
+    private static void forgetBitmapUpload(int target, int level) {
+        if (level != 0) {
+            return;
+        }
+        Object texture = GLStateCache.boundTexture(target);
+        /**
+         * @j2sNative
+         * if (texture != null) {
+         *     texture._upload = null;
+         * }
          */{}
     }
     
@@ -2408,27 +2639,22 @@ public class GLES20 {
         java.nio.Buffer pixels
     ) {
         checkWebGLContext();
+        forgetBitmapUpload(target, level);
+        Object array = pixels != null ? pixels.getTypedArray() : null;
         /**
          * @j2sNative
          * var arraybuffer = null;
-         * if (pixels instanceof java.nio.ByteBuffer) {
-         *     arraybuffer = pixels.backingArray;
-         * } else {
-         *     arraybuffer = pixels.byteBuffer.backingArray;
-         * }
-         * var offset = pixels.position() * Math.pow(2, pixels._elementSizeShift);
-         * switch (type) {
-         *     case android.opengl.GLES20.GL_UNSIGNED_BYTE:
-         *         arraybuffer = new Uint8Array(arraybuffer.buffer, offset);
-         *         break;
-         *     case android.opengl.GLES20.GL_UNSIGNED_SHORT_5_6_5:
-         *     case android.opengl.GLES20.GL_UNSIGNED_SHORT_4_4_4_4:
-         *     case android.opengl.GLES20.GL_UNSIGNED_SHORT_5_5_5_1:
-         *         arraybuffer = new Uint16Array(arraybuffer.buffer, offset);
-         *         break;
-         *     default:
-         *         arraybuffer = new Uint8Array(arraybuffer.buffer, offset);
-         *         break;   
+         * if (array != null) {
+         *     switch (type) {
+         *         case android.opengl.GLES20.GL_UNSIGNED_SHORT_5_6_5:
+         *         case android.opengl.GLES20.GL_UNSIGNED_SHORT_4_4_4_4:
+         *         case android.opengl.GLES20.GL_UNSIGNED_SHORT_5_5_5_1:
+         *             arraybuffer = new Uint16Array(array.buffer, array.byteOffset, array.byteLength >> 1);
+         *             break;
+         *         default:
+         *             arraybuffer = new Uint8Array(array.buffer, array.byteOffset, array.byteLength);
+         *             break;
+         *     }
          * }
          * android.opengl.GLES20.prototype.mContext.texImage2D(target, level, internalformat, width, height, border,
          *                                                     format, type, arraybuffer);
@@ -2521,7 +2747,9 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * android.opengl.GLES20.prototype.mContext.uniform1f(_location, x);
+         * if (android.opengl.GLStateCache.updateUniform(_location, x)) {
+         *     android.opengl.GLES20.prototype.mContext.uniform1f(_location, x);
+         * }
          */{}
     }
 
@@ -2537,8 +2765,10 @@ public class GLES20 {
          /**
           * @j2sNative
           * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-          * var uniformArray = v.slice(offset, offset + count);
-          * android.opengl.GLES20.prototype.mContext.uniform1fv(_location, uniformArray);
+          * if (android.opengl.GLStateCache.updateUniformArray(_location, v, offset, count)) {
+          *     var uniformArray = v.slice(offset, offset + count);
+          *     android.opengl.GLES20.prototype.mContext.uniform1fv(_location, uniformArray);
+          * }
           */{}
     }
 
@@ -2560,7 +2790,9 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * android.opengl.GLES20.prototype.mContext.uniform1i(_location, x);
+         * if (android.opengl.GLStateCache.updateUniform(_location, x)) {
+         *     android.opengl.GLES20.prototype.mContext.uniform1i(_location, x);
+         * }
          */{}
     }
 
@@ -2576,8 +2808,10 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * var uniformArray = value.slice(offset, offset + count);
-         * android.opengl.GLES20.prototype.mContext.uniform1iv(_location, uniformArray);
+         * if (android.opengl.GLStateCache.updateUniformArray(_location, v, offset, count)) {
+         *     var uniformArray = v.slice(offset, offset + count);
+         *     android.opengl.GLES20.prototype.mContext.uniform1iv(_location, uniformArray);
+         * }
          */{}
     }
 
@@ -2600,7 +2834,9 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * android.opengl.GLES20.prototype.mContext.uniform2f(_location, x, y);
+         * if (android.opengl.GLStateCache.updateUniform(_location, x, y)) {
+         *     android.opengl.GLES20.prototype.mContext.uniform2f(_location, x, y);
+         * }
          */{}
     }
 
@@ -2616,8 +2852,10 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * var uniformArray = v.slice(offset, offset + count);
-         * android.opengl.GLES20.prototype.mContext.uniform2fv(_location, uniformArray);
+         * if (android.opengl.GLStateCache.updateUniformArray(_location, v, offset, count * 2)) {
+         *     var uniformArray = v.slice(offset, offset + count * 2);
+         *     android.opengl.GLES20.prototype.mContext.uniform2fv(_location, uniformArray);
+         * }
          */{}
     }
 
@@ -2640,7 +2878,9 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * android.opengl.GLES20.prototype.mContext.uniform2i(_location, x, y);
+         * if (android.opengl.GLStateCache.updateUniform(_location, x, y)) {
+         *     android.opengl.GLES20.prototype.mContext.uniform2i(_location, x, y);
+         * }
          */{}
     }
 
@@ -2656,8 +2896,10 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * var uniformArray = v.slice(offset, offset + count);
-         * android.opengl.GLES20.prototype.mContext.uniform2iv(_location, uniformArray);
+         * if (android.opengl.GLStateCache.updateUniformArray(_location, v, offset, count * 2)) {
+         *     var uniformArray = v.slice(offset, offset + count * 2);
+         *     android.opengl.GLES20.prototype.mContext.uniform2iv(_location, uniformArray);
+         * }
          */{}
     }
 
@@ -2681,7 +2923,9 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * android.opengl.GLES20.prototype.mContext.uniform3f(_location, x, y, z);
+         * if (android.opengl.GLStateCache.updateUniform(_location, x, y, z)) {
+         *     android.opengl.GLES20.prototype.mContext.uniform3f(_location, x, y, z);
+         * }
          */{}
     }
 
@@ -2697,8 +2941,10 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * var uniformArray = v.slice(offset, offset + count * 3);
-         * android.opengl.GLES20.prototype.mContext.uniform3fv(_location, uniformArray);
+         * if (android.opengl.GLStateCache.updateUniformArray(_location, v, offset, count * 3)) {
+         *     var uniformArray = v.slice(offset, offset + count * 3);
+         *     android.opengl.GLES20.prototype.mContext.uniform3fv(_location, uniformArray);
+         * }
          */{}
     }
 
@@ -2722,7 +2968,9 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * android.opengl.GLES20.prototype.mContext.uniform3i(_location, x, y, z);
+         * if (android.opengl.GLStateCache.updateUniform(_location, x, y, z)) {
+         *     android.opengl.GLES20.prototype.mContext.uniform3i(_location, x, y, z);
+         * }
          */{}
     }
 
@@ -2738,8 +2986,10 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * var uniformArray = v.slice(offset, offset + count);
-         * android.opengl.GLES20.prototype.mContext.uniform3iv(_location, uniformArray);
+         * if (android.opengl.GLStateCache.updateUniformArray(_location, v, offset, count * 3)) {
+         *     var uniformArray = v.slice(offset, offset + count * 3);
+         *     android.opengl.GLES20.prototype.mContext.uniform3iv(_location, uniformArray);
+         * }
          */{}
     }
 
@@ -2764,7 +3014,9 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * android.opengl.GLES20.prototype.mContext.uniform4f(_location, x, y, z, w);
+         * if (android.opengl.GLStateCache.updateUniform(_location, x, y, z, w)) {
+         *     android.opengl.GLES20.prototype.mContext.uniform4f(_location, x, y, z, w);
+         * }
          */{}
     }
 
@@ -2780,8 +3032,10 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * var uniformArray = v.slice(offset, offset + count * 4);
-         * android.opengl.GLES20.prototype.mContext.uniform4fv(_location, uniformArray);
+         * if (android.opengl.GLStateCache.updateUniformArray(_location, v, offset, count * 4)) {
+         *     var uniformArray = v.slice(offset, offset + count * 4);
+         *     android.opengl.GLES20.prototype.mContext.uniform4fv(_location, uniformArray);
+         * }
          */{}
     }
 
@@ -2806,7 +3060,9 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * android.opengl.GLES20.prototype.mContext.uniform4i(_location, x, y, z, w);
+         * if (android.opengl.GLStateCache.updateUniform(_location, x, y, z, w)) {
+         *     android.opengl.GLES20.prototype.mContext.uniform4i(_location, x, y, z, w);
+         * }
          */{}
     }
 
@@ -2822,8 +3078,10 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * var uniformArray = v.slice(offset, offset + count);
-         * android.opengl.GLES20.prototype.mContext.uniform4iv(_location, uniformArray);
+         * if (android.opengl.GLStateCache.updateUniformArray(_location, v, offset, count * 4)) {
+         *     var uniformArray = v.slice(offset, offset + count * 4);
+         *     android.opengl.GLES20.prototype.mContext.uniform4iv(_location, uniformArray);
+         * }
          */{}
     }
 
@@ -2848,8 +3106,10 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * var matrixArray = value.slice(offset, offset + count * 4);
-         * android.opengl.GLES20.prototype.mContext.uniformMatrix2fv(_location, transpose, matrixArray);
+         * if (android.opengl.GLStateCache.updateUniformArray(_location, value, offset, count * 4)) {
+         *     var matrixArray = value.slice(offset, offset + count * 4);
+         *     android.opengl.GLES20.prototype.mContext.uniformMatrix2fv(_location, transpose, matrixArray);
+         * }
          */{}
     }
 
@@ -2875,8 +3135,12 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * var matrixArray = value.slice(offset, offset + count * 9);
-         * android.opengl.GLES20.prototype.mContext.uniformMatrix3fv(_location, transpose, matrixArray);
+         * if (android.opengl.GLStateCache.updateUniformArray(_location, value, offset, count * 9)) {
+         *     // the typed arrays of the matrices in OpenGLES10 are passed as they are
+         *     var matrixArray = value instanceof Float32Array && offset == 0 && value.length == count * 9
+         *             ? value : value.slice(offset, offset + count * 9);
+         *     android.opengl.GLES20.prototype.mContext.uniformMatrix3fv(_location, transpose, matrixArray);
+         * }
          */{}
     }
 
@@ -2902,8 +3166,12 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * var matrixArray = value.slice(offset, offset + count * 16);
-         * android.opengl.GLES20.prototype.mContext.uniformMatrix4fv(_location, transpose, matrixArray);
+         * if (android.opengl.GLStateCache.updateUniformArray(_location, value, offset, count * 16)) {
+         *     // the typed arrays of the matrices in OpenGLES10 are passed as they are
+         *     var matrixArray = value instanceof Float32Array && offset == 0 && value.length == count * 16
+         *             ? value : value.slice(offset, offset + count * 16);
+         *     android.opengl.GLES20.prototype.mContext.uniformMatrix4fv(_location, transpose, matrixArray);
+         * }
          */{}
     }
 
@@ -2919,10 +3187,10 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _location = android.opengl.GLES20.prototype.mUniformLocationArray[location];
-         * var arraybuffer = value.byteBuffer.backingArray;
-         * var offset = value.position() * Math.pow(2, value._elementSizeShift);
-         * var floatarray = new Float32Array(arraybuffer.buffer, offset, count * 16);
-         * android.opengl.GLES20.prototype.mContext.uniformMatrix4fv(_location, transpose, floatarray);
+         * var floatarray = value.getTypedArray().subarray(0, count * 16);
+         * if (android.opengl.GLStateCache.updateUniformArray(_location, floatarray, 0, count * 16)) {
+         *     android.opengl.GLES20.prototype.mContext.uniformMatrix4fv(_location, transpose, floatarray);
+         * }
          */{}
     }
 
@@ -2935,7 +3203,9 @@ public class GLES20 {
         /**
          * @j2sNative
          * var _program = android.opengl.GLES20.prototype.mProgramArray[program];
-         * android.opengl.GLES20.prototype.mContext.useProgram(_program);
+         * if (android.opengl.GLStateCache.update("program", _program)) {
+         *     android.opengl.GLES20.prototype.mContext.useProgram(_program);
+         * }
          */{}
     }
 
@@ -3109,6 +3379,7 @@ public class GLES20 {
         int offset
     ) {
         checkWebGLContext();
+        GLBufferArena.clearPointer(indx);
         /**
          * @j2sNative
          * android.opengl.GLES20.prototype.mContext.vertexAttribPointer(indx, size, type, normalized, stride, offset);
@@ -3127,23 +3398,9 @@ public class GLES20 {
         int remaining
     ) {
         checkWebGLContext();
-        /**
-         * @j2sNative
-         * // WebGL does not support client side arrays, we need to gen
-         * // a buffer object and upload the data into buffer object, then
-         * // bind the buffer object and call vertexAttribPointer.
-         * if (android.opengl.GLES20.prototype.mCachedBuffer == null) {
-         *     android.opengl.GLES20.prototype.mCachedBuffer = android.opengl.GLES20.prototype.mContext.createBuffer();
-         * }
-         * var buffer = android.opengl.GLES20.prototype.mCachedBuffer;
-         * android.opengl.GLES20.prototype.mContext.bindBuffer(android.opengl.GLES20.prototype.mContext.ARRAY_BUFFER, buffer);
-         * var arraybuffer = ptr.byteBuffer.backingArray;
-         * var offset = ptr.position() * Math.pow(2, ptr._elementSizeShift);
-         * android.opengl.GLES20.prototype.mContext.bufferData(android.opengl.GLES20.prototype.mContext.ARRAY_BUFFER, arraybuffer,
-         *                                                     android.opengl.GLES20.prototype.mContext.DYNAMIC_DRAW);
-         * android.opengl.GLES20.prototype.mContext.vertexAttribPointer(indx, size, type, normalized, stride, offset);                                                   
-         * 
-         */{}
+        // WebGL does not support client side arrays, the arena uploads the
+        // part of the array a draw reads when it is drawn.
+        GLBufferArena.setPointer(indx, size, type, normalized, stride, ptr);
     }
 
     public static void glVertexAttribPointer(
@@ -3175,7 +3432,9 @@ public class GLES20 {
         checkWebGLContext();
         /**
          * @j2sNative
-         * android.opengl.GLES20.prototype.mContext.viewport(x, y, width, height);
+         * if (android.opengl.GLStateCache.update("viewport", x, y, width, height)) {
+         *     android.opengl.GLES20.prototype.mContext.viewport(x, y, width, height);
+         * }
          */{}
     }
 
@@ -0,0 +1,239 @@
+package android.opengl;
+
+/**
+ * Shadow of the WebGL context state set through {@link GLES20}, used to
+ * drop the calls that would not change it, e.g. binding the texture that is
+ * already bound or enabling a capability that is already enabled.
+ *
+ * <p>States are recorded by key, with up to four values each. Uniform values
+ * are recorded on their location, which GLES20 hands out once per program
+ * and name. The shadow starts from the defaults of a new context, and a
+ * state that is not known, e.g. after the object it referred to has been
+ * deleted, is always set.
+ *
+ * <p>The calls issued and elided are counted per frame, which
+ * {@link GLSurfaceView} ends after every onDrawFrame().
+ *
+ * @hide
+ */
+public final class GLStateCache {
+    // key -> the values last set, see update()
+    private static Object sState;
+
+    private static int sIssuedCount;
+    private static int sElidedCount;
+    private static int sLastIssuedCount;
+    private static int sLastElidedCount;
+    private static int sFrameCount;
+
+    private GLStateCache() {
+    }
+
+    /**
+     * Called when GLES20 gets a new context, whose state is the default one.
+     */
+    static void init() {
+        /**
+         * @j2sNative
+         * var gl = android.opengl.GLES20.prototype.mContext;
+         * var state = {};
+         * if (gl != null) {
+         *     state["activeTexture"] = [gl.TEXTURE0];
+         *     state["program"] = [null];
+         *     state["cap" + gl.BLEND] = [false];
+         *     state["cap" + gl.CULL_FACE] = [false];
+         *     state["cap" + gl.DEPTH_TEST] = [false];
+         *     state["cap" + gl.DITHER] = [true];
+         *     state["cap" + gl.SCISSOR_TEST] = [false];
+         *     state["cap" + gl.STENCIL_TEST] = [false];
+         *     state["blendFunc"] = [gl.ONE, gl.ZERO, gl.ONE, gl.ZERO];
+         *     state["blendEquation"] = [gl.FUNC_ADD, gl.FUNC_ADD];
+         *     state["depthFunc"] = [gl.LESS];
+         *     state["depthMask"] = [true];
+         *     state["cullFace"] = [gl.BACK];
+         *     state["frontFace"] = [gl.CCW];
+         *     state["clearColor"] = [0, 0, 0, 0];
+         * }
+         * android.opengl.GLStateCache.sState = state;
+         */{}
+        sIssuedCount = 0;
+        sElidedCount = 0;
+        sLastIssuedCount = 0;
+        sLastElidedCount = 0;
+        sFrameCount = 0;
+    }
+
+    /**
+     * Records the state <code>key</code> set by a call, and returns whether
+     * the call has to be issued, i.e. whether the state was unknown or
+     * differs. Values are numbers, booleans or WebGL objects; the ones a
+     * state does not have are left out.
+     */
+    static boolean update(String key, Object v0, Object v1, Object v2, Object v3) {
+        /**
+         * @j2sNative
+         * var state = android.opengl.GLStateCache.sState;
+         * if (state == null) {
+         *     android.opengl.GLStateCache.init();
+         *     state = android.opengl.GLStateCache.sState;
+         * }
+         * var values = state[key];
+         * if (values != null && values[0] === v0 && values[1] === v1
+         *         && values[2] === v2 && values[3] === v3) {
+         *     android.opengl.GLStateCache.sElidedCount++;
+         *     return false;
+         * }
+         * if (values == null) {
+         *     values = state[key] = [];
+         * }
+         * values[0] = v0;
+         * values[1] = v1;
+         * values[2] = v2;
+         * values[3] = v3;
+         */{}
+        sIssuedCount++;
+        return true;
+    }
+
+    /**
+     * Forgets every state whose first value is <code>object</code>, e.g.
+     * the bindings of a deleted texture, which WebGL unbinds.
+     */
+    static void forgetObject(Object object) {
+        /**
+         * @j2sNative
+         * var state = android.opengl.GLStateCache.sState;
+         * if (state == null || object == null) return;
+         * for (var key in state) {
+         *     if (state[key][0] === object) {
+         *         delete state[key];
+         *     }
+         * }
+         */{}
+    }
+
+    /**
+     * Returns the key of the binding of <code>target</code> on the active
+     * texture unit, or null if the active unit is not known.
+     */
+    static String textureKey(int target) {
+        /**
+         * @j2sNative
+         * var state = android.opengl.GLStateCache.sState;
+         * var unit = state != null ? state["activeTexture"] : null;
+         * return unit != null ? "texture" + unit[0] + "_" + target : null;
+         */{}
+        return null;
+    }
+
+    /**
+     * Returns the texture bound to <code>target</code> on the active texture
+     * unit, or null if there is none or it is not known.
+     */
+    static Object boundTexture(int target) {
+        String key = textureKey(target);
+        /**
+         * @j2sNative
+         * if (key == null) return null;
+         * var values = android.opengl.GLStateCache.sState[key];
+         * return values != null ? values[0] : null;
+         */{}
+        return null;
+    }
+
+    /**
+     * Like {@link #update} for a scalar or vector uniform, whose values are
+     * recorded on <code>location</code>.
+     */
+    static boolean updateUniform(Object location, Object x, Object y, Object z, Object w) {
+        /**
+         * @j2sNative
+         * if (location == null) return false;
+         * var values = location._values;
+         * if (values != null && values[0] === x && values[1] === y
+         *         && values[2] === z && values[3] === w) {
+         *     android.opengl.GLStateCache.sElidedCount++;
+         *     return false;
+         * }
+         * if (values == null) {
+         *     values = location._values = [];
+         * }
+         * values[0] = x;
+         * values[1] = y;
+         * values[2] = z;
+         * values[3] = w;
+         */{}
+        sIssuedCount++;
+        return true;
+    }
+
+    /**
+     * Like {@link #updateUniform} for an array or matrix uniform, whose
+     * values are <code>value[offset]</code> to
+     * <code>value[offset + length - 1]</code>.
+     */
+    static boolean updateUniformArray(Object location, Object value, int offset, int length) {
+        /**
+         * @j2sNative
+         * if (location == null) return false;
+         * var values = location._array;
+         * if (values != null && values.length == length) {
+         *     var same = true;
+         *     for (var i = 0; i < length; i++) {
+         *         if (values[i] !== value[offset + i]) {
+         *             same = false;
+         *             break;
+         *         }
+         *     }
+         *     if (same) {
+         *         android.opengl.GLStateCache.sElidedCount++;
+         *         return false;
+         *     }
+         * } else {
+         *     values = location._array = new Array(length);
+         * }
+         * for (var i = 0; i < length; i++) {
+         *     values[i] = value[offset + i];
+         * }
+         */{}
+        sIssuedCount++;
+        return true;
+    }
+
+    /**
+     * Ends the counts of a frame.
+     */
+    public static void endFrame() {
+        sLastIssuedCount = sIssuedCount;
+        sLastElidedCount = sElidedCount;
+        sIssuedCount = 0;
+        sElidedCount = 0;
+        sFrameCount++;
+    }
+
+    /**
+     * @return the calls issued to the context during the last frame
+     */
+    public static int getIssuedCount() {
+        return sLastIssuedCount;
+    }
+
+    /**
+     * @return the calls dropped during the last frame
+     */
+    public static int getElidedCount() {
+        return sLastElidedCount;
+    }
+
+    /**
+     * @return the frames ended so far
+     */
+    public static int getFrameCount() {
+        return sFrameCount;
+    }
+
+    public static String getStats() {
+        return "frames=" + sFrameCount + " issued=" + sLastIssuedCount
+                + " elided=" + sLastElidedCount;
+    }
+}
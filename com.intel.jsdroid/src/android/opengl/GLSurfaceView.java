@@ -166,6 +166,8 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
     private final static boolean LOG_EGL = true;
     // Work-around for bug 2263168
     private final static boolean DRAW_TWICE_AFTER_SIZE_CHANGED = true;
+    // weight of the newest frame in the frame-time averages
+    private final static float FRAME_STATS_WEIGHT = 0.1f;
     /**
      * The renderer only renders
      * when the surface is created, or when {@link #requestRender} is called.
@@ -473,6 +475,39 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
         mGLThread.requestRender();
     }
 
+    /**
+     * Returns the frames drawn by the renderer so far.
+     * Must not be called before a renderer has been set.
+     *
+     * @hide
+     */
+    public int getFrameCount() {
+        return mGLThread.getFrameCount();
+    }
+
+    /**
+     * Returns the average time between two consecutive frames in
+     * milliseconds, which is the display's refresh interval while rendering
+     * continuously and keeping up with it.
+     * Must not be called before a renderer has been set.
+     *
+     * @hide
+     */
+    public float getAverageFrameInterval() {
+        return mGLThread.getAverageFrameInterval();
+    }
+
+    /**
+     * Returns the average time spent in {@link Renderer#onDrawFrame} in
+     * milliseconds.
+     * Must not be called before a renderer has been set.
+     *
+     * @hide
+     */
+    public float getAverageDrawTime() {
+        return mGLThread.getAverageDrawTime();
+    }
+
     /**
      * This method is part of the SurfaceHolder.Callback interface, and is
      * not normally called or subclassed by clients of GLSurfaceView.
@@ -1138,8 +1173,9 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
             // set GLES20' static 3d context to null
             /**
              * @j2sNative
-             * android.opengl.GLES20.prototype.mContext = null;
+             * // clean up while the context can still delete the buffers
              * android.opengl.GLES20.prototype.classTerminate();
+             * android.opengl.GLES20.prototype.mContext = null;
              */{}
 //            if (mEglContext != null) {
 //                mEGLContextFactory.destroyContext(mEgl, mEglDisplay, mEglContext);
@@ -1182,6 +1218,10 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
      * All potentially blocking synchronization is done through the
      * sGLThreadManager object. This avoids multiple-lock ordering issues.
      *
+     * There is no thread to block in the browser, so the loop runs one step
+     * per animation frame instead: the events queued so far, then at most
+     * one onDrawFrame(). Where the native loop would wait(), frames stop
+     * being scheduled until something calls {@link #scheduleFrame}.
      */
     class GLThread extends Thread {
         GLThread(Renderer renderer) {
@@ -1399,7 +1439,8 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
                                 + " mRequestRender: " + mRequestRender
                                 + " mRenderMode: " + mRenderMode);
                         }
-                        //sGLThreadManager.wait();
+                        // Nothing to do until scheduleFrame() is called again
+                        return;
                     }
                 } // end of synchronized(sGLThreadManager)
     
@@ -1442,7 +1483,11 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
                     Log.w("GLThread", "onDrawFrame tid="/* + getId()*/);
                 }
                 
+                double drawStart = now();
                 mRenderer.onDrawFrame(gl);
+                GLStateCache.endFrame();
+                mDrawTime = (float) (now() - drawStart);
+                mDrewFrame = true;
                 if (!mEglHelper.swap()) {
                     if (LOG_SURFACE) {
                         Log.i("GLThread", "egl context lost tid="/* + getId()*/);
@@ -1486,45 +1531,110 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
             mHaveEglSurface = false;
 
             initMainLoopState();
-            
+            // Workaround for J2S compiler
+            this.onAnimationFrame(false, 0);
+
+            scheduleFrame();
+        }
+
+        /**
+         * Asks for {@link #onAnimationFrame} to be called on the next
+         * animation frame, unless it already has been. While the view is
+         * hidden, a timer only checks now and then whether it is shown again.
+         */
+        private void scheduleFrame() {
+            if (mFramePending || mEglHelper == null || mShouldExit) {
+                return;
+            }
+            mFramePending = true;
+            boolean hidden = isHidden();
             /**
              * @j2sNative
-             * var requestAnimationFrame = window.requestAnimationFrame ||
-             *                             window.webkitRequestAnimationFrame ||
-             *                             window.mozRequestAnimationFrame    ||
-             *                             window.oRequestAnimationFrame      ||
-             *                             window.msRequestAnimationFrame     || null;
-             * var cancelAnimationFrame = window.cancelAnimationFrame ||
-             *                            window.webkitCancelRequestAnimationFrame ||
-             *                            window.mozCancelRequestAnimationFrame    ||
-             *                            window.oCancelRequestAnimationFrame      ||
-             *                            window.msRequestAnimationFrame     || null;          
-             * if (requestAnimationFrame == null || cancelAnimationFrame == null) {
-             *     throw "requestAnimationFrame is not support by this browser";
-             * }
-             * 
              * var glthread = this;
-             * var requestID = null;
-             * var recursiveAnim = function() {
-             * glthread.mainLoop(true);
-             * if (glthread.mShouldExit) {
-             *     console.debug("GL animation exited.");
-             *     cancelAnimationFrame(requestID);
+             * var callback = function(time) {
+             *     glthread.onAnimationFrame(true, time != null ? time : glthread.now());
+             * };
+             * if (!hidden && window.requestAnimationFrame != null) {
+             *     window.requestAnimationFrame(callback);
              * } else {
-             *     var canvas = document.getElementById(glthread.mEglHelper.mCanvasID);
-             *     if (canvas) {
-             *         // only update the webgl canvas, may get better performance
-             *         requestAnimationFrame(recursiveAnim, canvas);
-             *     } else {
-             *         requestAnimationFrame(recursiveAnim);
-             *     }
+             *     window.setTimeout(callback, hidden ? 250 : 16);
              * }
-             * };
-             * 
-             * // start the main loop
-             * requestID = requestAnimationFrame(recursiveAnim);
-             */
-            {}
+             */{}
+        }
+
+        /**
+         * One step of the loop: runs the events queued so far, then draws at
+         * most once, and schedules the next frame if there is more to do.
+         *
+         * @param time the time of the frame, in milliseconds
+         */
+        private void onAnimationFrame(boolean isExecute, double time) throws InterruptedException {
+            if (!isExecute) return;
+
+            mFramePending = false;
+            mHidden = isHidden();
+            mDrewFrame = false;
+            int events = mEventQueue.size();
+            for (int i = 0; i <= events && !mShouldExit; i++) {
+                mainLoop(true);
+            }
+            if (mShouldExit) {
+                if (LOG_THREADS) {
+                    Log.i("GLThread", "GL animation exited");
+                }
+                return;
+            }
+
+            if (mDrewFrame) {
+                if (mLastFrameTime >= 0) {
+                    float interval = (float) (time - mLastFrameTime);
+                    mFrameInterval = mFrameInterval == 0 ? interval
+                            : mFrameInterval + (interval - mFrameInterval) * FRAME_STATS_WEIGHT;
+                }
+                mAverageDrawTime = mFrameCount == 0 ? mDrawTime
+                        : mAverageDrawTime + (mDrawTime - mAverageDrawTime) * FRAME_STATS_WEIGHT;
+                mFrameCount++;
+                // only consecutive frames count towards the interval
+                mLastFrameTime = time;
+            } else {
+                mLastFrameTime = -1;
+            }
+
+            if (!mEventQueue.isEmpty()
+                    || (!mPaused && mHasSurface
+                            && (mRequestRender || mRenderMode == RENDERMODE_CONTINUOUSLY))) {
+                scheduleFrame();
+            }
+        }
+
+        private boolean isHidden() {
+            /**
+             * @j2sNative
+             * if (document.hidden) return true;
+             */{}
+            return !isShown();
+        }
+
+        private double now() {
+            /**
+             * @j2sNative
+             * if (window.performance != null && window.performance.now != null) {
+             *     return window.performance.now();
+             * }
+             */{}
+            return System.currentTimeMillis();
+        }
+
+        public int getFrameCount() {
+            return mFrameCount;
+        }
+
+        public float getAverageFrameInterval() {
+            return mFrameInterval;
+        }
+
+        public float getAverageDrawTime() {
+            return mAverageDrawTime;
         }
 
         public boolean ableToDraw() {
@@ -1532,7 +1642,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
         }
 
         private boolean readyToDraw() {
-            return (!mPaused) && mHasSurface
+            return (!mPaused) && (!mHidden) && mHasSurface
                 && (mWidth > 0) && (mHeight > 0)
                 && (mRequestRender || (mRenderMode == RENDERMODE_CONTINUOUSLY));
         }
@@ -1544,6 +1654,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
             synchronized(sGLThreadManager) {
                 mRenderMode = renderMode;
                 sGLThreadManager.notifyAll();
+                scheduleFrame();
             }
         }
 
@@ -1557,6 +1668,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
             synchronized(sGLThreadManager) {
                 mRequestRender = true;
                 sGLThreadManager.notifyAll();
+                scheduleFrame();
             }
         }
 
@@ -1567,6 +1679,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
                 }
                 mHasSurface = true;
                 sGLThreadManager.notifyAll();
+                scheduleFrame();
                 while((mWaitingForSurface) && (!mExited)) {
                     try {
                         sGLThreadManager.wait();
@@ -1585,6 +1698,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
                 mHasSurface = false;
                 sGLThreadManager.threadExiting(this);
                 sGLThreadManager.notifyAll();
+                scheduleFrame();
                 while((!mWaitingForSurface) && (!mExited)) {
                     try {
                         sGLThreadManager.wait();
@@ -1603,6 +1717,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
                 mRequestPaused = true;
                 mPaused = true;
                 sGLThreadManager.notifyAll();
+                scheduleFrame();
                 while ((! mExited) && (! mPaused)) {
                     if (LOG_PAUSE_RESUME) {
                         Log.i("Main thread", "onPause waiting for mPaused.");
@@ -1625,6 +1740,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
                 mRequestRender = true;
                 mRenderComplete = false;
                 sGLThreadManager.notifyAll();
+                scheduleFrame();
                 while ((! mExited) && mPaused && (!mRenderComplete)) {
                     if (LOG_PAUSE_RESUME) {
                         Log.i("Main thread", "onResume waiting for !mPaused.");
@@ -1646,6 +1762,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
                 mRequestRender = true;
                 mRenderComplete = false;
                 sGLThreadManager.notifyAll();
+                scheduleFrame();
 
                 // Wait for thread to react to resize and render a frame
                 while (! mExited && !mPaused && !mRenderComplete
@@ -1683,6 +1800,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
         public void requestReleaseEglContextLocked() {
             mShouldReleaseEglContext = true;
             sGLThreadManager.notifyAll();
+            scheduleFrame();
         }
 
         /**
@@ -1696,6 +1814,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
             synchronized(sGLThreadManager) {
                 mEventQueue.add(r);
                 sGLThreadManager.notifyAll();
+                scheduleFrame();
             }
         }
 
@@ -1733,6 +1852,16 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
         private int w, h;
         private Runnable event;
         private GL10 gl;
+
+        // These members are for the animation frames.
+        private boolean mFramePending;
+        private boolean mHidden;
+        private boolean mDrewFrame;
+        private double mLastFrameTime = -1;
+        private int mFrameCount;
+        private float mFrameInterval;
+        private float mDrawTime;
+        private float mAverageDrawTime;
     }
 
     static class LogWriter extends Writer {
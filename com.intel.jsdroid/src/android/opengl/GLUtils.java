@@ -296,6 +296,16 @@ public final class GLUtils {
         
     }
     
-    native private static int native_texSubImage2D(int target, int level, int xoffset, int yoffset,
-            Bitmap bitmap, int format, int type);
+    private static int native_texSubImage2D(int target, int level, int xoffset, int yoffset,
+            Bitmap bitmap, int format, int type) {
+        if (format < 0) {
+            format = native_getInternalFormat(bitmap);
+        }
+        int err = checkFormat(bitmap, format, type);
+        if (err != 0) {
+            return err;
+        }
+        GLES20.glTexSubImage2D(target, level, xoffset, yoffset, format, type, bitmap);
+        return 0;
+    }
 }
@@ -7,14 +7,16 @@ public class Matrix3x3f
 
 	public Matrix3x3f()
 	{
-		for (int i = 0; i < 9; i++)
-		{
-			m[i] = 0;
-		}
+		/**
+		 * @j2sNative
+		 * // typed, so that uniforms upload it without a conversion
+		 * this.m = new Float32Array(9);
+		 */{}
 	}
 
 	public Matrix3x3f(Matrix3x3f other)
 	{
+		this();
 		for (int i = 0; i < 9; i++)
 		{
 			m[i] = other.m[i];
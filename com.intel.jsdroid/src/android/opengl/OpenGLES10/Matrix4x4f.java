@@ -23,14 +23,16 @@ public class Matrix4x4f
     
 	public Matrix4x4f()
 	{
-		for (int i = 0; i < 16; i++)
-		{
-			m[i] = 0;
-		}
+		/**
+		 * @j2sNative
+		 * // typed, so that uniforms upload it without a conversion
+		 * this.m = new Float32Array(16);
+		 */{}
 	}
 
 	public Matrix4x4f(Matrix4x4f other)
 	{
+		this();
 		for (int i = 0; i < 16; i++)
 		{
 			m[i] = other.m[i];
@@ -47,6 +49,16 @@ public class Matrix4x4f
 	}
 	
 
+	public Matrix4x4f setIdentity()
+	{
+		for (int i = 0; i < 16; i++)
+		{
+			m[i] = i % 5 == 0 ? 1 : 0;
+		}
+
+		return this;
+	}
+
 	public Matrix4x4f copyFrom (Matrix4x4f other)
 	{
 		for (int i = 0; i < 16; i++)
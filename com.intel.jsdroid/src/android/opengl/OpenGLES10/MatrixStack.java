@@ -32,6 +32,13 @@ public class MatrixStack
     private ArrayList<ArrayList<Matrix4x4f>> textureStacks;
     private ArrayList<Matrix4x4f> currentStack;
     
+    // Bumped whenever the top of the stack changes, so that what is derived
+    // from it only needs to be computed again when the version differs
+    private int modelViewVersion;
+    private int projectionVersion;
+    private int[] textureVersions;
+    private int currentTexture;
+    
 	public MatrixStack(OpenGLESState s, OpenGLES10Context context)
 	{
 		this.openGLESState = s;
@@ -55,8 +62,10 @@ public class MatrixStack
 		projectionStack.set(0, OpenGLESMath.loadIdentity(projectionStack.get(0)));
 
 		textureStacks = new ArrayList<ArrayList<Matrix4x4f>>(context.maxTextureImageUnits);
+		textureVersions = new int[context.maxTextureImageUnits];
 		for (int i = 0; i < context.maxTextureImageUnits; i++)
 		{
+			textureStacks.add(new ArrayList<Matrix4x4f>());
 			textureStacks.get(i).add(new Matrix4x4f());
 			textureStacks.get(i).set(0, OpenGLESMath.loadIdentity(textureStacks.get(i).get(0)));
 		}
@@ -77,7 +86,8 @@ public class MatrixStack
 				currentStack = projectionStack;
 				break;
 			case GLES10.GL_TEXTURE:
-				currentStack = textureStacks.get(openGLESState.getActiveTexture());
+				currentTexture = openGLESState.getActiveTexture();
+				currentStack = textureStacks.get(currentTexture);
 				openGLESState.setTextureMatrix(openGLESState.getActiveTexture(), true); // TODO: could be optimized more.. only true when non-identity matrix.
 				break;
 			default:
@@ -94,11 +104,13 @@ public class MatrixStack
 	public void popMatrix()
 	{
 		currentStack.remove(currentStack.size() - 1);
+		changed();
 	}
 
 	public void loadIdentity()
 	{
-	    currentStack.set(currentStack.size() - 1, OpenGLESMath.loadIdentity(currentStack.get(currentStack.size() - 1)));
+	    currentStack.get(currentStack.size() - 1).setIdentity();
+	    changed();
 	}
 	
 	public void loadMatrix(float[] m)
@@ -106,36 +118,74 @@ public class MatrixStack
 		Matrix4x4f mat = currentStack.get(currentStack.size() - 1);
 		mat.copyFrom(m);
 		currentStack.set(currentStack.size() - 1, mat);
+		changed();
 	}
 	
 	public void translate(float x, float y, float z)
 	{
 	    currentStack.set(currentStack.size() - 1, OpenGLESMath.translate(currentStack.get(currentStack.size() - 1), x, y, z));
+	    changed();
 	}
 	
 	public void rotate(float angle, float x, float y, float z)
 	{
 	    currentStack.set(currentStack.size() - 1, OpenGLESMath.rotate(currentStack.get(currentStack.size() - 1), angle, x, y, z));
+	    changed();
 	}
 	
 	public void scale(float x, float y, float z)
 	{
 	    currentStack.set(currentStack.size() - 1, OpenGLESMath.scale(currentStack.get(currentStack.size() - 1), x, y, z));
+	    changed();
 	}
 	
 	public void frustum(float left, float right, float bottom, float top, float zNear, float zFar)
 	{
 	    currentStack.set(currentStack.size() - 1, OpenGLESMath.frustum(currentStack.get(currentStack.size() - 1), left, right, bottom, top, zNear, zFar));
+	    changed();
 	}
 	
 	public void ortho(float left, float right, float bottom, float top, float zNear, float zFar)
 	{
 	    currentStack.set(currentStack.size() - 1, OpenGLESMath.ortho(currentStack.get(currentStack.size() - 1), left, right, bottom, top, zNear, zFar));
+	    changed();
 	}
 	
 	public void multiply(float[] m)
 	{
 	    currentStack.set(currentStack.size() - 1,  OpenGLESMath.multiply(currentStack.get(currentStack.size() - 1), m));
+	    changed();
+	}
+
+	private void changed()
+	{
+		if (currentStack == modelViewStack)
+		{
+			modelViewVersion++;
+		}
+		else if (currentStack == projectionStack)
+		{
+			projectionVersion++;
+		}
+		else
+		{
+			textureVersions[currentTexture]++;
+		}
+	}
+
+	public int getModelViewVersion()
+	{
+		return modelViewVersion;
+	}
+	
+	public int getProjectionVersion()
+	{
+		return projectionVersion;
+	}
+	
+	public int getTextureVersion(int index)
+	{
+		return textureVersions[index];
 	}
 
 	public Matrix4x4f getModelViewMatrix()
@@ -33,6 +33,17 @@ public class OpenGLES10Context
     private OpenGLESState openGLESState = null;
     private int shaderProgramId;
     
+    // Matrices set to the uniforms by prepareToDraw(), and the versions of
+    // the matrix stacks they were computed from
+    private Matrix4x4f modelViewMatrix = new Matrix4x4f();
+    private Matrix4x4f modelViewProjectionMatrix = new Matrix4x4f();
+    private Matrix3x3f normalMatrix = new Matrix3x3f();
+    private Matrix4x4f[] textureMatrices = null;
+    private int modelViewVersion = -1;
+    private int projectionVersion = -1;
+    private int normalMatrixVersion = -1;
+    private int[] textureMatrixVersions = null;
+    
     public int colorReadFormat;
     public int colorReadType;
     public int maxCombinedTextureImageUnits;
@@ -55,12 +66,13 @@ public class OpenGLES10Context
 
 	public OpenGLES10Context()
 	{
-		this.matrixStack = new MatrixStack(openGLESState, this);
 		this.openGLESState = new OpenGLESState();
+		this.matrixStack = new MatrixStack(openGLESState, this);
 		this.shaderProgramId = 0;
 		this.init();
 		matrixStack.init();
 		openGLESState.init(this);
+		openGLESState.precompileShaders(maxTextureImageUnits);
 	}
 	
 	private void init() {
@@ -143,6 +155,16 @@ public class OpenGLES10Context
 	{
 
 	}
+	
+	/**
+	 * Starts compiling the shaders drawing with lighting, the first
+	 * <code>textureUnits</code> texture units and fog enabled as given, so
+	 * that the first draw in that state does not wait for them.
+	 */
+	public void precompileShaders(boolean lighting, int textureUnits, boolean fog)
+	{
+		openGLESState.precompileShaders(lighting, Math.min(textureUnits, maxTextureImageUnits), fog);
+	}
 
 	// OpenglES 1.0 functions
 	 
@@ -1407,27 +1429,30 @@ public class OpenGLES10Context
 
 	private void prepareToDraw()
 	{
-		Matrix4x4f modelViewMatrix = matrixStack.getModelViewMatrix();
-		openGLESState.setModelViewMatrix(modelViewMatrix);
-		Matrix4x4f projectionMatrix = matrixStack.getProjectionMatrix();
+		int mvVersion = matrixStack.getModelViewVersion();
+		int projVersion = matrixStack.getProjectionVersion();
+		boolean modelViewChanged = mvVersion != modelViewVersion;
 
-		Matrix4x4f mvp = new Matrix4x4f();
-		mvp = OpenGLESMath.multiply(modelViewMatrix, projectionMatrix);
-		openGLESState.setModelViewProjectionMatrix(mvp);
+		if (modelViewChanged)
+		{
+			modelViewMatrix.copyFrom(matrixStack.getModelViewMatrix());
+			openGLESState.setModelViewMatrix(modelViewMatrix);
+		}
 
-		if (openGLESState.isNormal())
+		if (modelViewChanged || projVersion != projectionVersion)
 		{
-			// If only uniform scaling used (TODO: detect somehow)
-			Matrix3x3f modelViewMatrix3x3 = new Matrix3x3f();
-			modelViewMatrix3x3 = OpenGLESMath.copyMatrix4x4UpperLeftToMatrix3x3(modelViewMatrix);
-			modelViewMatrix3x3 = OpenGLESMath.adjoint(modelViewMatrix3x3);
-			modelViewMatrix3x3 = OpenGLESMath.transpose(modelViewMatrix3x3);
-			openGLESState.setTransposeAdjointModelViewMatrix(modelViewMatrix3x3);
+			OpenGLESMath.multiply(modelViewProjectionMatrix, modelViewMatrix, matrixStack.getProjectionMatrix());
+			openGLESState.setModelViewProjectionMatrix(modelViewProjectionMatrix);
+			modelViewVersion = mvVersion;
+			projectionVersion = projVersion;
+		}
 
-			if (openGLESState.isRescaleNormal())
-			{
-				openGLESState.setRescaleNormalFactor((float) (1.0f / Math.sqrt(modelViewMatrix3x3.m[0] * modelViewMatrix3x3.m[0] + modelViewMatrix3x3.m[3] * modelViewMatrix3x3.m[3] + modelViewMatrix3x3.m[6] * modelViewMatrix3x3.m[6])));
-			}
+		if (openGLESState.isNormal() && normalMatrixVersion != mvVersion)
+		{
+			// If only uniform scaling used (TODO: detect somehow)
+			OpenGLESMath.transposeAdjoint(normalMatrix, modelViewMatrix);
+			openGLESState.setTransposeAdjointModelViewMatrix(normalMatrix);
+			normalMatrixVersion = mvVersion;
 
 			// else do it slow but works always
 			/*Matrix4x4<GLfloat> transposeInverseModelViewMatrix;
@@ -1442,12 +1467,30 @@ public class OpenGLES10Context
 			 }*/
 		}
 
+		if (openGLESState.isNormal() && openGLESState.isRescaleNormal())
+		{
+			float[] m = normalMatrix.m;
+			openGLESState.setRescaleNormalFactor((float) (1.0f / Math.sqrt(m[0] * m[0] + m[3] * m[3] + m[6] * m[6])));
+		}
+
+		if (textureMatrices == null)
+		{
+			textureMatrices = new Matrix4x4f[this.maxTextureImageUnits];
+			textureMatrixVersions = new int[this.maxTextureImageUnits];
+			for (int i = 0; i < this.maxTextureImageUnits; i++)
+			{
+				textureMatrices[i] = new Matrix4x4f();
+				textureMatrixVersions[i] = -1;
+			}
+		}
+
 		for (int i = 0; i < this.maxTextureImageUnits; i++)
 		{
-			if (openGLESState.isTexCoord(i))
+			if (openGLESState.isTexCoord(i) && textureMatrixVersions[i] != matrixStack.getTextureVersion(i))
 			{
-				Matrix4x4f textureMatrix = matrixStack.getTextureMatrix(i);
-				openGLESState.setTextureMatrix(i, textureMatrix);
+				textureMatrices[i].copyFrom(matrixStack.getTextureMatrix(i));
+				openGLESState.setTextureMatrix(i, textureMatrices[i]);
+				textureMatrixVersions[i] = matrixStack.getTextureVersion(i);
 			}
 		}
 
@@ -175,6 +175,32 @@ public class OpenGLESMath
 		return tmp;
 	}
 
+	/**
+	 * Like {@link #multiply(Matrix4x4f, Matrix4x4f)}, into
+	 * <code>result</code>, which must be neither of the sources.
+	 */
+	public static Matrix4x4f multiply(Matrix4x4f result, Matrix4x4f srcA, Matrix4x4f srcB)
+	{
+		float[] r = result.m;
+		float[] a = srcA.m;
+		float[] b = srcB.m;
+
+		for (int i = 0; i < 16; i += 4)
+		{
+			float a0 = a[i];
+			float a1 = a[i + 1];
+			float a2 = a[i + 2];
+			float a3 = a[i + 3];
+
+			r[i] = a0 * b[0] + a1 * b[4] + a2 * b[8] + a3 * b[12];
+			r[i + 1] = a0 * b[1] + a1 * b[5] + a2 * b[9] + a3 * b[13];
+			r[i + 2] = a0 * b[2] + a1 * b[6] + a2 * b[10] + a3 * b[14];
+			r[i + 3] = a0 * b[3] + a1 * b[7] + a2 * b[11] + a3 * b[15];
+		}
+
+		return result;
+	}
+
 	public static Matrix4x4f multiply(Matrix4x4f srcA, float[] srcB)
 	{
 		Matrix4x4f result = new Matrix4x4f();
@@ -433,6 +459,39 @@ public class OpenGLESMath
 		return result;
 	}
 
+	/**
+	 * Computes transpose(adjoint(upper left 3x3 of <code>src</code>)), the
+	 * normal matrix of a modelview matrix, into <code>result</code>.
+	 */
+	public static Matrix3x3f transposeAdjoint(Matrix3x3f result, Matrix4x4f src)
+	{
+		float a1 = src.m[0];
+		float a2 = src.m[4];
+		float a3 = src.m[8];
+
+		float b1 = src.m[1];
+		float b2 = src.m[5];
+		float b3 = src.m[9];
+
+		float c1 = src.m[2];
+		float c2 = src.m[6];
+		float c3 = src.m[10];
+
+		result.m[0] = (b2 * c3 - b3 * c2);
+		result.m[1] = (a3 * c2 - a2 * c3);
+		result.m[2] = (a2 * b3 - a3 * b2);
+
+		result.m[3] = (b3 * c1 - b1 * c3);
+		result.m[4] = (a1 * c3 - a3 * c1);
+		result.m[5] = (a3 * b1 - a1 * b3);
+
+		result.m[6] = (b1 * c2 - b2 * c1);
+		result.m[7] = (a2 * c1 - a1 * c2);
+		result.m[8] = (a1 * b2 - a2 * b1);
+
+		return result;
+	}
+
 	public static Matrix3x3f copyMatrix4x4UpperLeftToMatrix3x3(Matrix4x4f mat)
 	{
 	    Matrix3x3f result = new Matrix3x3f();
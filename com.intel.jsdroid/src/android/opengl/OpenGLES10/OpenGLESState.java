@@ -3,6 +3,7 @@ package android.opengl.OpenGLES10;
 import android.opengl.GLES10;
 import android.opengl.GLES11;
 import android.opengl.GLES20;
+import android.opengl.GLStateCache;
 import android.util.Log;
 
 import java.util.Arrays;
@@ -16,6 +17,9 @@ public class OpenGLESState
     private Attribute[] attributes = new Attribute[AttributeId.COUNT];
     private ShaderFile[] shaders = new ShaderFile[ShaderId.COUNT];
     private java.util.ArrayList<StateShaderProgram > stateShaderPrograms = new java.util.ArrayList<StateShaderProgram >();
+    // hash of the state -> first program of the bucket, see findStateShaderProgram()
+    private java.util.HashMap<Integer, StateShaderProgram> stateShaderProgramBuckets = new java.util.HashMap<Integer, StateShaderProgram>();
+    private StateShaderProgram uberShaderProgram;
     private StateShaderProgram currentStateShaderProgram;
     private int stateSize;
     private int stateSizeBool;
@@ -1238,35 +1242,16 @@ public class OpenGLESState
 		uniforms[UniformId.TEXTURE1_MATRIX] = new Uniform<Matrix4x4f>();
 		uniforms[UniformId.TEXTURE2_MATRIX] = new Uniform<Matrix4x4f>();
 	}
-	private boolean setCurrentProgram_uberShaderCompiled = false;
 	public void setCurrentProgram()
 	{
 		if (OpenGLESConfig.USE_ONLY_UBER_SHADER)
 		{
-//					static boolean uberShaderCompiled = false;
-			if (!setCurrentProgram_uberShaderCompiled)
+			if (currentStateShaderProgram == null)
 			{
-				java.util.ArrayList<ShaderSource > vertexShaderSources = new java.util.ArrayList<ShaderSource >();
-				for (int i = ShaderId.FIRST_VERTEX_SHADER; i <= ShaderId.LAST_VERTEX_SHADER; i++)
-				{
-					vertexShaderSources.add(new ShaderSource(shaders[i], ""));
-				}
-				java.util.ArrayList<ShaderSource  > fragmentShaderSources = new java.util.ArrayList<ShaderSource  >();
-				for (int i = ShaderId.FIRST_FRAGMENT_SHADER; i <= ShaderId.LAST_FRAGMENT_SHADER; i++)
-				{
-					fragmentShaderSources.add(new ShaderSource(shaders[i], ""));
-				}
-
-				Shader vertexShader = new Shader(GLES20.GL_VERTEX_SHADER, vertexShaderSources);
-				Shader fragmentShader = new Shader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderSources);
-
-				currentStateShaderProgram = new StateShaderProgram(getCopyOfCurrentState(), new ShaderProgram("UberShader", vertexShader, fragmentShader));
-				stateShaderPrograms.add(currentStateShaderProgram);
+				currentStateShaderProgram = getUberShaderProgram();
 				currentStateShaderProgram.shaderProgram.use();
 				setActiveUniformLocations(currentStateShaderProgram.shaderProgram.getActiveUniforms());
 				setActiveAttributeLocations(currentStateShaderProgram.shaderProgram.getActiveAttributes());
-
-				setCurrentProgram_uberShaderCompiled = true;
 			}
 
 			uploadUniforms();
@@ -1276,7 +1261,126 @@ public class OpenGLESState
 
 		StateShaderProgram oldStateShaderProgram = currentStateShaderProgram;
 
-		// Set current state to faster array
+		updateCurrentState();
+
+		// Fetch the shader program of the state from cache, or start compiling it
+		int hash = hashCurrentState();
+		StateShaderProgram stateShaderProgram = findStateShaderProgram(hash);
+		if (stateShaderProgram == null)
+		{
+			stateShaderProgram = startStateShaderProgram(hash);
+		}
+
+		// Rather than waiting for a program still being compiled, draw with
+		// the uber shader until it is done, unless that has to be waited for too
+		currentStateShaderProgram = stateShaderProgram;
+		if (stateShaderProgram.shaderProgram.isLinkPending() && !isLinkCompleted(stateShaderProgram))
+		{
+			StateShaderProgram fallback = uberShaderProgram;
+			if (fallback != null && (!fallback.shaderProgram.isLinkPending() || isLinkCompleted(fallback)))
+			{
+				fallback.shaderProgram.finishLink();
+				currentStateShaderProgram = fallback;
+			}
+		}
+		currentStateShaderProgram.shaderProgram.finishLink();
+
+		if (currentStateShaderProgram != oldStateShaderProgram)
+		{
+			currentStateShaderProgram.shaderProgram.use();
+			setActiveUniformLocations(currentStateShaderProgram.shaderProgram.getActiveUniforms());
+			setActiveAttributeLocations(currentStateShaderProgram.shaderProgram.getActiveAttributes());
+		}
+
+		uploadAttributes();
+		uploadUniforms();
+	}
+
+	/**
+	 * Starts compiling the shader programs of the states an application is
+	 * likely to draw with, so that they are ready when first needed: each
+	 * combination of lighting, 0 to <code>maxTextureUnits</code> textures
+	 * and fog, along with the uber shader drawn with meanwhile. The other
+	 * states are taken from the current ones.
+	 */
+	public void precompileShaders(int maxTextureUnits)
+	{
+		if (uberShaderProgram == null)
+		{
+			uberShaderProgram = createUberShaderProgram(true);
+			stateShaderPrograms.add(uberShaderProgram);
+		}
+
+		if (OpenGLESConfig.USE_ONLY_UBER_SHADER)
+		{
+			return;
+		}
+
+		for (int textureUnits = 0; textureUnits <= maxTextureUnits; textureUnits++)
+		{
+			for (int variant = 0; variant < 4; variant++)
+			{
+				precompileShaders((variant & 1) != 0, textureUnits, (variant & 2) != 0);
+			}
+		}
+	}
+
+	/**
+	 * Starts compiling the shader program of the current state with
+	 * lighting, the first <code>textureUnits</code> textures and fog enabled
+	 * as given, unless it is cached already.
+	 */
+	public void precompileShaders(boolean lighting, int textureUnits, boolean fog)
+	{
+		if (OpenGLESConfig.USE_ONLY_UBER_SHADER)
+		{
+			return;
+		}
+
+		final int[] ids = {
+			UniformId.POSITION_ENABLED, UniformId.NORMAL_ENABLED,
+			UniformId.LIGHTING_ENABLED, UniformId.LIGHT0_ENABLED, UniformId.FOG_ENABLED,
+			UniformId.TEXTURE0_ENABLED, UniformId.TEXTURE1_ENABLED, UniformId.TEXTURE2_ENABLED,
+			UniformId.TEXCOORD0_ENABLED, UniformId.TEXCOORD1_ENABLED, UniformId.TEXCOORD2_ENABLED
+		};
+		Boolean[] values = new Boolean[ids.length];
+		for (int i = 0; i < ids.length; i++)
+		{
+			values[i] = ((Uniform<Boolean>)(uniforms[ids[i]])).value;
+		}
+
+		setStateValue(UniformId.POSITION_ENABLED, true);
+		setStateValue(UniformId.NORMAL_ENABLED, lighting);
+		setStateValue(UniformId.LIGHTING_ENABLED, lighting);
+		setStateValue(UniformId.LIGHT0_ENABLED, lighting);
+		setStateValue(UniformId.FOG_ENABLED, fog);
+		for (int i = 0; i < 3; i++)
+		{
+			setStateValue(UniformId.TEXTURE0_ENABLED + i, i < textureUnits);
+			setStateValue(UniformId.TEXCOORD0_ENABLED + i, i < textureUnits);
+		}
+
+		updateCurrentState();
+		int hash = hashCurrentState();
+		if (findStateShaderProgram(hash) == null)
+		{
+			startStateShaderProgram(hash);
+		}
+
+		for (int i = 0; i < ids.length; i++)
+		{
+			((Uniform<Boolean>)(uniforms[ids[i]])).setValue(values[i]);
+		}
+	}
+
+	private void setStateValue(int id, boolean value)
+	{
+		((Uniform<Boolean>)(uniforms[id])).setValue(value);
+	}
+
+	// Packs the state uniforms into currentState
+	private void updateCurrentState()
+	{
 		int currentBit = 0;
 		for (int i = UniformId.FIRST_STATE_UNIFORM_BOOL; i <= UniformId.LAST_STATE_UNIFORM_BOOL; i++)
 		{
@@ -1300,15 +1404,28 @@ public class OpenGLESState
 
 			index++;
 		}
+	}
+
+	private int hashCurrentState()
+	{
+		int hash = 0;
+		for (int i = 0; i < stateSize; i++)
+		{
+			// the xor keeps the hash an int once compiled to JavaScript
+			hash = ((hash << 5) - hash) ^ currentState[i];
+		}
+		return hash;
+	}
 
-		// Check if it matches to any existing state
-		int stateIndex = -1;
-		for (int i = 0; i < stateShaderPrograms.size(); i++)
+	private StateShaderProgram findStateShaderProgram(int hash)
+	{
+		StateShaderProgram stateShaderProgram = stateShaderProgramBuckets.get(Integer.valueOf(hash));
+		for (; stateShaderProgram != null; stateShaderProgram = stateShaderProgram.next)
 		{
 			boolean stateFound = true;
 			for (int j = 0; j < stateSize; j++)
 			{
-				if (currentState[j] != stateShaderPrograms.get(i).state[j])
+				if (currentState[j] != stateShaderProgram.state[j])
 				{
 					stateFound = false;
 					break;
@@ -1316,67 +1433,93 @@ public class OpenGLESState
 			}
 			if (stateFound)
 			{
-				stateIndex = i;
-				break;
+				return stateShaderProgram;
 			}
 		}
+		return null;
+	}
 
-		// If matched, fetch shader program from cache
-		if (stateIndex >= 0)
-		{
-			currentStateShaderProgram = stateShaderPrograms.get(stateIndex);
-		}
-		else
+	// Starts compiling the shader program of currentState, and caches it
+	private StateShaderProgram startStateShaderProgram(int hash)
+	{
+		java.util.ArrayList<ShaderSource > vertexShaderSources = new java.util.ArrayList<ShaderSource >();
+		java.util.ArrayList<ShaderSource  > fragmentShaderSources = new java.util.ArrayList<ShaderSource  >();
+
+		addRequiredShaderSources(vertexShaderSources, fragmentShaderSources);
+
+		addDefinesToShaderSources(vertexShaderSources, fragmentShaderSources);
+
+		if (OpenGLESConfig.DEBUG)
 		{
-			Log.d(TAG, "State binary presentation:");
-			Log.d(TAG, "Bool states: ");
-			for (int i = 0; i < stateSizeBool; i++)
+			Log.d(TAG, "Using shader files:");
+			for (int i = 0; i < vertexShaderSources.size(); i++)
 			{
-				Log.d(TAG, Integer.toBinaryString(currentState[i]));
+				Log.d(TAG, vertexShaderSources.get(i).getFile().getName());
 			}
-			Log.d(TAG, "Int states: ");
-			for (int i = stateSizeBool; i < stateSize; i++)
+
+			for (int i = 0; i < fragmentShaderSources.size(); i++)
 			{
-			    Log.d(TAG, Integer.toHexString(currentState[i]));
+			    Log.d(TAG, fragmentShaderSources.get(i).getFile().getName());
 			}
+		}
 
-			java.util.ArrayList<ShaderSource > vertexShaderSources = new java.util.ArrayList<ShaderSource >();
-			java.util.ArrayList<ShaderSource  > fragmentShaderSources = new java.util.ArrayList<ShaderSource  >();
-
-			addRequiredShaderSources(vertexShaderSources, fragmentShaderSources);
-
-			addDefinesToShaderSources(vertexShaderSources, fragmentShaderSources);
+		Shader vertexShader = new Shader(GLES20.GL_VERTEX_SHADER, vertexShaderSources);
+		Shader fragmentShader = new Shader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderSources);
 
-			if (true)
-			{
-				Log.d(TAG, "Using shader files:");
-				for (int i = 0; i < vertexShaderSources.size(); i++)
-				{
-					Log.d(TAG, vertexShaderSources.get(i).getFile().getName());
-				}
+		StateShaderProgram stateShaderProgram = new StateShaderProgram(getCopyOfCurrentState(), new ShaderProgram("Optimized Shader " + (stateShaderPrograms.size() + 1), vertexShader, fragmentShader, true));
+		stateShaderProgram.startFrame = GLStateCache.getFrameCount();
 
-				for (int i = 0; i < fragmentShaderSources.size(); i++)
-				{
-				    Log.d(TAG, fragmentShaderSources.get(i).getFile().getName());
-				}
-			}
+		Integer key = Integer.valueOf(hash);
+		stateShaderProgram.next = stateShaderProgramBuckets.get(key);
+		stateShaderProgramBuckets.put(key, stateShaderProgram);
+		stateShaderPrograms.add(stateShaderProgram);
+		return stateShaderProgram;
+	}
 
-			Shader vertexShader = new Shader(GLES20.GL_VERTEX_SHADER, vertexShaderSources);
-			Shader fragmentShader = new Shader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderSources);
+	/**
+	 * Returns whether a program being compiled can be used without waiting.
+	 * Without KHR_parallel_shader_compile, where that can not be told, the
+	 * programs started during a frame are only used from the next one on.
+	 */
+	private boolean isLinkCompleted(StateShaderProgram stateShaderProgram)
+	{
+		if (!GLES20.isParallelShaderCompileSupported())
+		{
+			return stateShaderProgram.startFrame != GLStateCache.getFrameCount();
+		}
+		return stateShaderProgram.shaderProgram.isLinkCompleted();
+	}
 
-			currentStateShaderProgram = new StateShaderProgram(getCopyOfCurrentState(), new ShaderProgram("Optimized Shader " + (stateShaderPrograms.size() + 1), vertexShader, fragmentShader));
-			stateShaderPrograms.add(currentStateShaderProgram);
+	private StateShaderProgram getUberShaderProgram()
+	{
+		if (uberShaderProgram == null)
+		{
+			uberShaderProgram = createUberShaderProgram(false);
+			stateShaderPrograms.add(uberShaderProgram);
 		}
+		uberShaderProgram.shaderProgram.finishLink();
+		return uberShaderProgram;
+	}
 
-		if (currentStateShaderProgram != oldStateShaderProgram)
+	private StateShaderProgram createUberShaderProgram(boolean deferred)
+	{
+		java.util.ArrayList<ShaderSource > vertexShaderSources = new java.util.ArrayList<ShaderSource >();
+		for (int i = ShaderId.FIRST_VERTEX_SHADER; i <= ShaderId.LAST_VERTEX_SHADER; i++)
 		{
-			currentStateShaderProgram.shaderProgram.use();
-			setActiveUniformLocations(currentStateShaderProgram.shaderProgram.getActiveUniforms());
-			setActiveAttributeLocations(currentStateShaderProgram.shaderProgram.getActiveAttributes());
+			vertexShaderSources.add(new ShaderSource(shaders[i], ""));
+		}
+		java.util.ArrayList<ShaderSource  > fragmentShaderSources = new java.util.ArrayList<ShaderSource  >();
+		for (int i = ShaderId.FIRST_FRAGMENT_SHADER; i <= ShaderId.LAST_FRAGMENT_SHADER; i++)
+		{
+			fragmentShaderSources.add(new ShaderSource(shaders[i], ""));
 		}
 
-		uploadAttributes();
-		uploadUniforms();
+		Shader vertexShader = new Shader(GLES20.GL_VERTEX_SHADER, vertexShaderSources);
+		Shader fragmentShader = new Shader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderSources);
+
+		StateShaderProgram stateShaderProgram = new StateShaderProgram(getCopyOfCurrentState(), new ShaderProgram("UberShader", vertexShader, fragmentShader, deferred));
+		stateShaderProgram.startFrame = GLStateCache.getFrameCount();
+		return stateShaderProgram;
 	}
 
 	public void setActiveTexture(int a)
@@ -1628,19 +1771,30 @@ public class OpenGLESState
 		((Uniform<Float>)(uniforms[UniformId.MATERIAL_SHININESS])).setValue(val);
 	}
 	
+	// The matrix setters keep mat, which the caller may change in place and set again
+
 	public void setModelViewMatrix(Matrix4x4f mat)
 	{
-		((Uniform<Matrix4x4f>)(uniforms[UniformId.MODELVIEW_MATRIX])).setValue(new Matrix4x4f(mat));
+		setMatrix(UniformId.MODELVIEW_MATRIX, mat);
 	}
 	
 	public void setModelViewProjectionMatrix(Matrix4x4f mat)
 	{
-		((Uniform<Matrix4x4f>)(uniforms[UniformId.MODELVIEW_PROJECTION_MATRIX])).setValue(new Matrix4x4f(mat));
+		setMatrix(UniformId.MODELVIEW_PROJECTION_MATRIX, mat);
 	}
 	
 	public void setTransposeAdjointModelViewMatrix(Matrix3x3f mat)
 	{
-		((Uniform<Matrix3x3f>)(uniforms[UniformId.TRANPOSE_ADJOINT_MODEL_VIEW_MATRIX])).setValue(new Matrix3x3f(mat));
+		Uniform<Matrix3x3f> uniform = (Uniform<Matrix3x3f>)(uniforms[UniformId.TRANPOSE_ADJOINT_MODEL_VIEW_MATRIX]);
+		uniform.setValue(mat);
+		uniform.invalidate();
+	}
+	
+	private void setMatrix(int id, Matrix4x4f mat)
+	{
+		Uniform<Matrix4x4f> uniform = (Uniform<Matrix4x4f>)(uniforms[id]);
+		uniform.setValue(mat);
+		uniform.invalidate();
 	}
 	
 	public void setNormalize(boolean enabled)
@@ -1739,7 +1893,7 @@ public class OpenGLESState
 	
 	public void setTextureMatrix(int index, Matrix4x4f mat)
 	{
-		((Uniform<Matrix4x4f>)(uniforms[UniformId.TEXTURE0_MATRIX + index])).setValue(mat);
+		setMatrix(UniformId.TEXTURE0_MATRIX + index, mat);
 	}
 	
 	public void setTextureMatrix(int index, boolean enabled)
@@ -36,6 +36,21 @@ public class Shader
 	}
 
 	public int compile()
+	{
+		if (startCompile() == 0)
+		{
+			return 0;
+		}
+
+		return checkCompileStatus();
+	}
+
+	/**
+	 * Queues the compilation of the shader without waiting for it, and
+	 * returns its id, or 0 on failure. The status is checked by
+	 * {@link #checkCompileStatus()}, or left to the program it is linked to.
+	 */
+	public int startCompile()
 	{
 		id = GLES20.glCreateShader(type);
 
@@ -55,6 +70,13 @@ public class Shader
 
 		GLES20.glCompileShader(id);
 
+		return id;
+	}
+
+	public int checkCompileStatus()
+	{
+		String typeString = type == GLES20.GL_FRAGMENT_SHADER ? "Fragment shader" : "Vertex shader";
+
 		int[] compiled = new int[1];
 		GLES20.glGetShaderiv(id, GLES20.GL_COMPILE_STATUS, compiled, 0);
 
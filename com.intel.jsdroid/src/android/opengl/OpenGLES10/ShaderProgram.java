@@ -38,11 +38,33 @@ public class ShaderProgram
     private ArrayList<AttributeSimple > attributes = new ArrayList<AttributeSimple >();
 
     private int attachedShaders;
+    private boolean linkPending;
     
 	public ShaderProgram(String name, Shader vertexShader, Shader fragmentShader)
+	{
+		this(name, vertexShader, fragmentShader, false);
+	}
+	
+	/**
+	 * With <code>deferred</code>, the shaders are compiled and linked
+	 * without waiting for the result, which {@link #finishLink()} then
+	 * fetches. Until then, the program must not be used.
+	 */
+	public ShaderProgram(String name, Shader vertexShader, Shader fragmentShader, boolean deferred)
 	{
 		this.name = name;
-		program = createProgram(vertexShader, fragmentShader);
+		program = startProgram(vertexShader, fragmentShader, deferred);
+		if (program != 0)
+		{
+			if (deferred)
+			{
+				linkPending = true;
+			}
+			else
+			{
+				program = finishProgram(program);
+			}
+		}
 	}
 	
 	public ShaderProgram(String name, Object binary, int length, int binaryformat)
@@ -51,6 +73,34 @@ public class ShaderProgram
 		// TODO: Binary shader
 	}
 	
+	public boolean isLinkPending()
+	{
+		return linkPending;
+	}
+	
+	/**
+	 * Returns whether a deferred link has completed, i.e. whether
+	 * {@link #finishLink()} would return without waiting for the driver.
+	 * Without KHR_parallel_shader_compile this can not be told, and it
+	 * always returns true.
+	 */
+	public boolean isLinkCompleted()
+	{
+		return !linkPending || GLES20.isProgramLinkCompleted(program);
+	}
+	
+	/**
+	 * Fetches the result of a deferred link, waiting for it if needed.
+	 */
+	public void finishLink()
+	{
+		if (linkPending)
+		{
+			linkPending = false;
+			program = finishProgram(program);
+		}
+	}
+	
 	public void dispose()
 	{
 		GLES20.glDeleteProgram(program);
@@ -186,10 +236,10 @@ public class ShaderProgram
 	    GLES20.glUniformMatrix3fv(loc, 1, false, m , 0);
 	}
 
-	private int createProgram(Shader vertexShader, Shader fragmentShader)
+	private int startProgram(Shader vertexShader, Shader fragmentShader, boolean deferred)
 	{
-		int vertexShaderId = vertexShader.compile();
-		int fragmentShaderId = fragmentShader.compile();
+		int vertexShaderId = deferred ? vertexShader.startCompile() : vertexShader.compile();
+		int fragmentShaderId = deferred ? fragmentShader.startCompile() : fragmentShader.compile();
 
 		GLES20.glReleaseShaderCompiler();
 
@@ -207,6 +257,11 @@ public class ShaderProgram
 
 		GLES20.glLinkProgram(program);
 
+		return program;
+	}
+
+	private int finishProgram(int program)
+	{
 		int[] linked = new int[1];
 		GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linked, 0);
 
@@ -5,10 +5,16 @@ public class StateShaderProgram
     public int[] state = null;
     public ShaderProgram shaderProgram;
     
+    // The next program whose state has the same hash
+    public StateShaderProgram next;
+    
+    // The frame the deferred link of shaderProgram was started in
+    public int startFrame;
+    
 	public StateShaderProgram(int[] state, ShaderProgram program)
 	{
 		this.state = state;
 		this.shaderProgram = program;
 	}
 
-}
\ No newline at end of file
+}
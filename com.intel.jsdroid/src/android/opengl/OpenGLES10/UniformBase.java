@@ -25,6 +25,14 @@ public abstract class UniformBase
 		uploaded = false;
 	}
 	
+	/**
+	 * Uploads the value again, e.g. after it has been changed in place.
+	 */
+	public void invalidate()
+	{
+		uploaded = false;
+	}
+	
 	public int getLocation()
 	{
 		return location;
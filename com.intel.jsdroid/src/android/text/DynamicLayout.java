@@ -23,8 +23,6 @@ import android.text.style.WrapTogetherSpan;
 
 import java.lang.ref.WeakReference;
 
-import com.android.internal.util.ArrayUtils;
-
 /**
  * DynamicLayout is a text layout that updates itself as the text is edited.
  * <p>This is used by widgets to control text layout. You should not need
@@ -35,8 +33,6 @@ import com.android.internal.util.ArrayUtils;
  */
 public class DynamicLayout extends Layout {
     private static final int PRIORITY = 128;
-    private int mLineCount;
-    private int[] mLines;
 
     /**
      * Make a layout for the specified text that will be updated as
@@ -93,12 +89,7 @@ public class DynamicLayout extends Layout {
         }
 
         mIncludePad = includepad;
-
-        mLines = new int[ArrayUtils.idealIntArraySize(6)];
-        mLineCount = 0;
-
-        int singleHeight = 0;
-        int totalHeight = 0;
+        mObjects = new PackedObjectVector<Directions>(1);
 
         String fontStyle = "normal";
         String fontWeight = "normal";
@@ -130,55 +121,306 @@ public class DynamicLayout extends Layout {
                 //console.loge("We don't support this font: " + tf.getFamilyName());
             }
         }
+        mFontStyle = fontStyle;
+        mFontWeight = fontWeight;
+        mFontFamily = fontFamily;
+        mTextSize = paint.getTextSize();
+
+        int lineHeight = 0;
+        Object div = getMeasureElement();
+        /**
+         * @j2sNative
+         * div.style.whiteSpace = "nowrap";
+         * div.textContent = "A";
+         * lineHeight = div.offsetHeight;
+         * div.textContent = "";
+         * div.style.whiteSpace = "pre-wrap";
+         * div.parentNode.removeChild(div);
+         */{}
+        mLineHeight = Math.max(1, lineHeight);
+        mLineDescent = Math.round(paint.descent());
+
+        // the first line, and the row after the last one, which holds the
+        // end of the text and the height; reflow() lays out the text between
+        int[] start = new int[mInts.width()];
+        start[START] = DIR_LEFT_TO_RIGHT << DIR_SHIFT;
+        mInts.insertAt(0, start);
+        start[TOP] = mLineHeight;
+        mInts.insertAt(1, start);
+        Directions[] dirs = new Directions[] { DIRS_ALL_LEFT_TO_RIGHT };
+        mObjects.insertAt(0, dirs);
+
+        reflow(base, 0, 0, base.length());
+
+        if (base instanceof Spannable) {
+            Spannable sp = (Spannable) base;
+
+            // a layout made before for the same text is not used anymore
+            ChangeWatcher[] watchers = sp.getSpans(0, sp.length(), ChangeWatcher.class);
+            for (int i = 0; i < watchers.length; i++) {
+                sp.removeSpan(watchers[i]);
+            }
+
+            mWatcher = new ChangeWatcher(this);
+            sp.setSpan(mWatcher, 0, base.length(),
+                       Spannable.SPAN_INCLUSIVE_INCLUSIVE |
+                       (PRIORITY << Spannable.SPAN_PRIORITY_SHIFT));
+        }
+    }
+
+    /**
+     * Lays out again the paragraphs changed by an edit of <code>after</code>
+     * chars replacing <code>before</code> chars at <code>where</code>. The
+     * lines of the other paragraphs are kept, and the ones below move by
+     * the change in height.
+     */
+    private void reflow(CharSequence s, int where, int before, int after) {
+        if (s != mBase) {
+            return;
+        }
+
+        String text = mDisplay.toString();
+        int len = text.length();
+
+        // seek back to the start of the paragraph
+
+        int find = where > 0 ? text.lastIndexOf('\n', where - 1) : -1;
+        if (find < 0)
+            find = 0;
+        else
+            find = find + 1;
+
+        {
+            int diff = where - find;
+            before += diff;
+            after += diff;
+            where -= diff;
+        }
+
+        // seek forward to the end of the paragraph
+
+        int look = text.indexOf('\n', where + after);
+        if (look < 0)
+            look = len;
+        else
+            look++; // we want the index after the \n
+
+        int change = look - (where + after);
+        before += change;
+        after += change;
+
+        // the lines of the changed paragraphs, before the change
+
+        int startline = getLineAtOrAfter(where);
+        int endline = getLineAtOrAfter(where + before);
+        if (where + after == len)
+            endline = getLineCount();
+        int startv = getLineTop(startline);
+        int endv = getLineTop(endline);
+
+        // measure the changed paragraphs; at the end of the text, the last
+        // one has no newline, and is empty after a trailing newline
+
+        int count = 0;
+        for (int i = where; i < where + after; i++) {
+            if (text.charAt(i) == '\n')
+                count++;
+        }
+        if (where + after == len)
+            count++;
+
+        String[] paragraphs = new String[count];
+        int[] starts = new int[count];
+        int p = where;
+        for (int i = 0; i < count; i++) {
+            int nl = p < len ? text.indexOf('\n', p) : -1;
+            int end = (nl < 0 || nl >= where + after) ? where + after : nl;
+            starts[i] = p;
+            paragraphs[i] = text.substring(p, end);
+            p = end + 1;
+        }
+        int[] heights = new int[count];
+        int[][] breaks = measureParagraphs(paragraphs, heights);
+
+        // remove the old lines, move the lines below, and insert the new ones
+
+        mInts.deleteAt(startline, endline - startline);
+        mObjects.deleteAt(startline, endline - startline);
+
+        int lines = 0;
+        int ht = 0;
+        for (int i = 0; i < count; i++) {
+            int n = breaks[i].length;
+            lines += n;
+            ht += Math.max(heights[i], n * mLineHeight);
+        }
+
+        mInts.adjustValuesBelow(startline, START, after - before);
+        mInts.adjustValuesBelow(startline, TOP, startv - endv + ht);
+
+        // the lines are not ellipsized
+        int[] ints = new int[mInts.width()];
+        Directions[] objects = new Directions[] { DIRS_ALL_LEFT_TO_RIGHT };
+
+        int line = startline;
+        int top = startv;
+        for (int i = 0; i < count; i++) {
+            int n = breaks[i].length;
+            for (int j = 0; j < n; j++) {
+                ints[START] = (starts[i] + breaks[i][j]) | (DIR_LEFT_TO_RIGHT << DIR_SHIFT);
+                ints[TOP] = top + j * mLineHeight;
+                ints[DESCENT] = mLineDescent;
+                mInts.insertAt(line, ints);
+                mObjects.insertAt(line, objects);
+                line++;
+            }
+            top += Math.max(heights[i], n * mLineHeight);
+        }
+    }
+
+    /**
+     * Returns the first line starting at or after <code>offset</code>, or
+     * the line count if there is none.
+     */
+    private int getLineAtOrAfter(int offset) {
+        int low = 0;
+        int high = getLineCount();
+        while (low < high) {
+            int guess = (low + high) >>> 1;
+            if (getLineStart(guess) < offset)
+                low = guess + 1;
+            else
+                high = guess;
+        }
+        return low;
+    }
 
-         String value = base.toString();
-         if (null == value || "".equals(value)) {
-             value = "A";
-         }
-         /**
-          * @j2sNative
-          * var div = document.createElement("div");
-          * div.innerHTML = value;
-          * div.id = "measure_div";
-          * document.body.appendChild(div);
-          * div.style.visibility = "hidden";
-          * div.style.position = "absolute";
-          * div.style.overflow = "hidden";
-          * div.style.border = "none";
-          * div.style.padding = "0px";
-          * div.style.margin = "0px";
-          * div.style.fontSize = paint.getTextSize() + "px";
-          * div.style.fontStyle = fontStyle;
-          * div.style.fontWeight = fontWeight;
-          * div.style.fontFamily = fontFamily;
-          * div.style.whiteSpace = "nowrap";
-          * div.style.height = "auto";
-          * singleHeight = div.offsetHeight;
-          * div.innerText = value;
-          * div.style.width = width + "px";
-          * div.style.whiteSpace = "normal";
-          *  //div.style.wordWrap = "break-word";
-          * totalHeight = div.offsetHeight;
-          * this.mLineCount = totalHeight / singleHeight;
-          * div.parentNode.removeChild(div);
-          */{}
-
-          for (int i = 1; i <= mLineCount; i++) {
-              mLines[i] = singleHeight * i;
-          }
-          if (mLines[mLineCount] != totalHeight) {
-              mLines[mLineCount] = totalHeight;
-          }
+    /**
+     * Lays out each paragraph in the width of the layout, stores its height
+     * in <code>heights</code> and returns the offsets, relative to the
+     * paragraph, where its lines start. Every paragraph gets an element of
+     * its own in the measuring element, so that the browser lays them all
+     * out at once.
+     *
+     * <p>The line starts are read back from the browser's layout: a line
+     * starts at the first char whose box is lower than the line above.
+     * Since the tops grow with the offset, each one is found by a binary
+     * search. Chars without a box, e.g. a zero width space at a wrap, stay
+     * at the end of the line above.
+     */
+    private int[][] measureParagraphs(String[] paragraphs, int[] heights) {
+        int count = paragraphs.length;
+        int[][] breaks = new int[count][];
+        int width = getWidth();
+        int lineHeight = mLineHeight;
+        Object div = getMeasureElement();
+        /**
+         * @j2sNative
+         * div.style.width = width + "px";
+         * for (var i = 0; i < count; i++) {
+         *     var paragraph = document.createElement("div");
+         *     paragraph.textContent = paragraphs[i];
+         *     div.appendChild(paragraph);
+         * }
+         * var range = document.createRange();
+         * var node = null;
+         * var length = 0;
+         * var top = 0;
+         * // the first char at or after k that has a box, and its top
+         * var visible = function (k) {
+         *     for (; k < length; k++) {
+         *         range.setStart(node, k);
+         *         range.setEnd(node, k + 1);
+         *         var rects = range.getClientRects();
+         *         if (rects.length > 0 && rects[0].height > 0) {
+         *             top = rects[0].top;
+         *             return k;
+         *         }
+         *     }
+         *     top = Infinity;
+         *     return length;
+         * };
+         * var children = div.childNodes;
+         * for (var i = 0; i < count; i++) {
+         *     heights[i] = children[i].offsetHeight;
+         *     var starts = [0];
+         *     node = children[i].firstChild;
+         *     length = node != null ? node.length : 0;
+         *     var start = visible(0);
+         *     var lineTop = top;
+         *     while (start < length) {
+         *         // the first offset past start on a lower line
+         *         var low = start + 1;
+         *         var high = length;
+         *         while (low < high) {
+         *             var guess = (low + high) >>> 1;
+         *             visible(guess);
+         *             if (top > lineTop + lineHeight / 2) {
+         *                 high = guess;
+         *             } else {
+         *                 low = guess + 1;
+         *             }
+         *         }
+         *         start = visible(low);
+         *         if (start >= length) {
+         *             break;
+         *         }
+         *         lineTop = top;
+         *         starts.push(start);
+         *     }
+         *     breaks[i] = starts;
+         * }
+         * range.detach();
+         * div.textContent = "";
+         * div.parentNode.removeChild(div);
+         */{}
+        return breaks;
+    }
+
+    /**
+     * Returns the hidden element text is measured in, in the document and
+     * with the font of the layout.
+     */
+    private Object getMeasureElement() {
+        String fontStyle = mFontStyle;
+        String fontWeight = mFontWeight;
+        String fontFamily = mFontFamily;
+        float textSize = mTextSize;
+        /**
+         * @j2sNative
+         * var div = android.text.DynamicLayout.sMeasureElement;
+         * if (div == null) {
+         *     div = document.createElement("div");
+         *     div.id = "measure_div";
+         *     div.style.visibility = "hidden";
+         *     div.style.position = "absolute";
+         *     div.style.overflow = "hidden";
+         *     div.style.border = "none";
+         *     div.style.padding = "0px";
+         *     div.style.margin = "0px";
+         *     // wrap as the textarea of an editable TextView does, which
+         *     // keeps runs of spaces and tabs and breaks overlong words
+         *     div.style.whiteSpace = "pre-wrap";
+         *     div.style.wordWrap = "break-word";
+         *     div.style.height = "auto";
+         *     android.text.DynamicLayout.sMeasureElement = div;
+         * }
+         * div.style.fontSize = textSize + "px";
+         * div.style.fontStyle = fontStyle;
+         * div.style.fontWeight = fontWeight;
+         * div.style.fontFamily = fontFamily;
+         * document.body.appendChild(div);
+         * return div;
+         */{}
+        return null;
     }
 
     public int getLineCount() {
-        //return mInts.size() - 1;
-        return mLineCount;
+        return mInts.size() - 1;
     }
 
     public int getLineTop(int line) {
-        //return mInts.getValue(line, TOP);
-        return mLines[line];
+        return mInts.getValue(line, TOP);
     }
 
     public int getLineDescent(int line) {
@@ -230,9 +472,56 @@ public class DynamicLayout extends Layout {
         return mInts.getValue(line, ELLIPSIS_COUNT);
     }
 
+    private static class ChangeWatcher implements TextWatcher, SpanWatcher {
+        public ChangeWatcher(DynamicLayout layout) {
+            mLayout = new WeakReference<DynamicLayout>(layout);
+        }
+
+        private void reflow(CharSequence s, int where, int before, int after) {
+            DynamicLayout ml = mLayout.get();
+
+            if (ml != null)
+                ml.reflow(s, where, before, after);
+            else if (s instanceof Spannable)
+                ((Spannable) s).removeSpan(this);
+        }
+
+        public void beforeTextChanged(CharSequence s, int where, int before, int after) {
+            ;
+        }
+
+        public void onTextChanged(CharSequence s, int where, int before, int after) {
+            reflow(s, where, before, after);
+        }
+
+        public void afterTextChanged(Editable s) {
+            ;
+        }
+
+        public void onSpanAdded(Spannable s, Object o, int start, int end) {
+            if (o instanceof UpdateLayout)
+                reflow(s, start, end - start, end - start);
+        }
+
+        public void onSpanRemoved(Spannable s, Object o, int start, int end) {
+            if (o instanceof UpdateLayout)
+                reflow(s, start, end - start, end - start);
+        }
+
+        public void onSpanChanged(Spannable s, Object o, int start, int end,
+                                  int nstart, int nend) {
+            if (o instanceof UpdateLayout) {
+                reflow(s, start, end - start, end - start);
+                reflow(s, nstart, nend - nstart, nend - nstart);
+            }
+        }
+
+        private WeakReference<DynamicLayout> mLayout;
+    }
+
     private CharSequence mBase;
     private CharSequence mDisplay;
-//    private ChangeWatcher mWatcher;
+    private ChangeWatcher mWatcher;
     private boolean mIncludePad;
     private boolean mEllipsize;
     private int mEllipsizedWidth;
@@ -243,6 +532,17 @@ public class DynamicLayout extends Layout {
 
     private int mTopPadding, mBottomPadding;
 
+    // font of the text, and height and descent of a line in it
+    private String mFontStyle;
+    private String mFontWeight;
+    private String mFontFamily;
+    private float mTextSize;
+    private int mLineHeight;
+    private int mLineDescent;
+
+    // the element text is measured in, see getMeasureElement()
+    private static Object sMeasureElement;
+
     private static StaticLayout sStaticLayout = new StaticLayout(true);
     private static Object sLock = new Object();
 
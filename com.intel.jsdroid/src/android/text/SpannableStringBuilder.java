@@ -225,6 +225,7 @@ public class SpannableStringBuilder implements CharSequence, Editable {
 
 			mSpanCount = i;
 			mSpans[i] = null;
+			invalidateSpanIndexes();
 
 			//   sendSpanRemoved(what, ostart, oend);
 		}
@@ -307,6 +308,8 @@ public class SpannableStringBuilder implements CharSequence, Editable {
 		}
 
 		moveGapTo(end);
+		// the spans after the change move
+		invalidateSpanIndexes();
 
 		if (tbend - tbstart >= mGapLength + (end - start))
 			resizeFor(mText.length - mGapLength + tbend - tbstart
@@ -386,6 +389,7 @@ public class SpannableStringBuilder implements CharSequence, Editable {
 						- (i + 1));
 
 				mSpanCount--;
+				invalidateSpanIndexes();
 			}
 		}
 
@@ -562,6 +566,7 @@ public class SpannableStringBuilder implements CharSequence, Editable {
 				mSpanStarts[i] = start;
 				mSpanEnds[i] = end;
 				mSpanFlags[i] = flags;
+				updateSpanIndexes(i);
 
                 if (send)
                     sendSpanChanged(what, ostart, oend, nstart, nend);
@@ -595,6 +600,7 @@ public class SpannableStringBuilder implements CharSequence, Editable {
 		mSpanEnds[mSpanCount] = end;
 		mSpanFlags[mSpanCount] = flags;
 		mSpanCount++;
+		updateSpanIndexes(mSpanCount - 1);
 
 		if (send)
 			sendSpanAdded(what, nstart, nend);
@@ -623,6 +629,7 @@ public class SpannableStringBuilder implements CharSequence, Editable {
 
 				mSpanCount--;
 				mSpans[mSpanCount] = null;
+				invalidateSpanIndexes();
 
 				//         sendSpanRemoved(what, ostart, oend);
 				return;
@@ -705,6 +712,10 @@ public class SpannableStringBuilder implements CharSequence, Editable {
 	 * a list of all the spans regardless of type.
 	 */
 	public <T> T[] getSpans(int queryStart, int queryEnd, Class<T> kind) {
+		if (mSpanCount >= sIndexThreshold && kind != null) {
+			return getIndexedSpans(queryStart, queryEnd, kind);
+		}
+
 		int spanCount = mSpanCount;
 		Object[] spans = mSpans;
 		int[] starts = mSpanStarts;
@@ -812,6 +823,27 @@ public class SpannableStringBuilder implements CharSequence, Editable {
 			kind = Object.class;
 		}
 
+		if (count >= sIndexThreshold) {
+			SpanIndex index = getSpanIndex(kind);
+			limit = index.nextTransition(start, limit);
+			for (int n = 0; n < index.extraCount; n++) {
+				int i = index.extra[n];
+				int st = starts[i];
+				int en = ends[i];
+
+				if (st > gapstart)
+					st -= gaplen;
+				if (en > gapstart)
+					en -= gaplen;
+
+				if (st > start && st < limit)
+					limit = st;
+				if (en > start && en < limit)
+					limit = en;
+			}
+			return limit;
+		}
+
 		for (int i = 0; i < count; i++) {
 			int st = starts[i];
 			int en = ends[i];
@@ -834,6 +866,332 @@ public class SpannableStringBuilder implements CharSequence, Editable {
 		return limit;
 	}
 
+	/**
+	 * Same as {@link #getSpans} with an index of the spans of
+	 * <code>kind</code>, for buffers with many spans.
+	 */
+	private <T> T[] getIndexedSpans(int queryStart, int queryEnd, Class<T> kind) {
+		SpanIndex index = getSpanIndex(kind);
+		int capacity = index.count + index.extraCount;
+		if (mQueryResult == null || mQueryResult.length < capacity) {
+			mQueryResult = new int[ArrayUtils.idealIntArraySize(capacity)];
+		}
+		int[] found = mQueryResult;
+		int count = index.collect(0, index.count, queryStart, queryEnd, found, 0);
+		for (int n = 0; n < index.extraCount; n++) {
+			int i = index.extra[n];
+			int spanStart = mSpanStarts[i];
+			int spanEnd = mSpanEnds[i];
+			if (spanStart > mGapStart)
+				spanStart -= mGapLength;
+			if (spanEnd > mGapStart)
+				spanEnd -= mGapLength;
+			if (SpanIndex.overlaps(spanStart, spanEnd, queryStart, queryEnd))
+				found[count++] = i;
+		}
+		if (count == 0) {
+			return (T[]) ArrayUtils.emptyArray(kind);
+		}
+
+		// back to the order the spans were added in, then by priority
+		sortByKey(found, null, count);
+		Object[] ret = (Object[]) Array.newInstance(kind, count);
+		int[] prios = new int[count];
+		for (int n = 0; n < count; n++) {
+			int i = found[n];
+			int prio = mSpanFlags[i] & SPAN_PRIORITY;
+			int j = n;
+			if (prio != 0) {
+				for (j = 0; j < n; j++) {
+					if (prio > prios[j]) {
+						break;
+					}
+				}
+				System.arraycopy(ret, j, ret, j + 1, n - j);
+				System.arraycopy(prios, j, prios, j + 1, n - j);
+			}
+			ret[j] = mSpans[i];
+			prios[j] = prio;
+		}
+		return (T[]) ret;
+	}
+
+	/**
+	 * Returns the index of the spans of <code>kind</code>, building it if
+	 * the spans or the text changed since it was last used.
+	 */
+	private SpanIndex getSpanIndex(Class<?> kind) {
+		for (int i = 0; i < mSpanIndexCount; i++) {
+			if (mSpanIndexes[i].kind == kind) {
+				return mSpanIndexes[i];
+			}
+		}
+
+		int spanCount = mSpanCount;
+		Object[] spans = mSpans;
+		int[] starts = new int[spanCount];
+		int[] ends = new int[spanCount];
+		int[] order = new int[spanCount];
+		int count = 0;
+		for (int i = 0; i < spanCount; i++) {
+			if (!SpanIndex.matches(kind, spans[i])) {
+				continue;
+			}
+			int st = mSpanStarts[i];
+			int en = mSpanEnds[i];
+			if (st > mGapStart)
+				st -= mGapLength;
+			if (en > mGapStart)
+				en -= mGapLength;
+			starts[i] = st;
+			ends[i] = en;
+			order[count++] = i;
+		}
+		sortByKey(order, starts, count);
+
+		SpanIndex index = new SpanIndex(kind, count, spanCount);
+		for (int n = 0; n < count; n++) {
+			int i = order[n];
+			index.spans[n] = i;
+			index.starts[n] = starts[i];
+			index.ends[n] = ends[i];
+			index.nodeOf[i] = n;
+			index.sortedEndNodes[n] = n;
+		}
+		sortByKey(index.sortedEndNodes, index.ends, count);
+		for (int n = 0; n < count; n++) {
+			index.sortedEnds[n] = index.ends[index.sortedEndNodes[n]];
+		}
+		index.computeMaxEnds(0, count);
+
+		if (mSpanIndexes == null || mSpanIndexCount == mSpanIndexes.length) {
+			SpanIndex[] indexes = new SpanIndex[mSpanIndexCount + 4];
+			if (mSpanIndexes != null) {
+				System.arraycopy(mSpanIndexes, 0, indexes, 0, mSpanIndexCount);
+			}
+			mSpanIndexes = indexes;
+		}
+		mSpanIndexes[mSpanIndexCount++] = index;
+		return index;
+	}
+
+	/**
+	 * Keeps the span indexes valid after setSpan() added the span at
+	 * <code>i</code> or moved it. The span is taken out of the tree of
+	 * every index of its kind and kept aside, where queries read its
+	 * current position, so that moving the cursor or the selection does
+	 * not rebuild the indexes. An index with too many spans aside is
+	 * dropped and built again by the next query.
+	 */
+	private void updateSpanIndexes(int i) {
+		Object what = mSpans[i];
+		for (int n = mSpanIndexCount - 1; n >= 0; n--) {
+			SpanIndex index = mSpanIndexes[n];
+			if (!SpanIndex.matches(index.kind, what) || index.detach(i))
+				continue;
+			mSpanIndexes[n] = mSpanIndexes[--mSpanIndexCount];
+			mSpanIndexes[mSpanIndexCount] = null;
+		}
+	}
+
+	/**
+	 * Drops the span indexes, after spans were removed or the text
+	 * changed. Moving the gap keeps them, since they hold the positions
+	 * outside of the gap.
+	 */
+	private void invalidateSpanIndexes() {
+		for (int i = 0; i < mSpanIndexCount; i++) {
+			mSpanIndexes[i] = null;
+		}
+		mSpanIndexCount = 0;
+	}
+
+	/**
+	 * Sorts the first <code>count</code> items by <code>keys[item]</code>,
+	 * or by their value if <code>keys</code> is null, keeping the order of
+	 * equal keys. Spans are mostly added in the order of the text, so the
+	 * items are often sorted already.
+	 */
+	private static void sortByKey(int[] items, int[] keys, int count) {
+		boolean sorted = true;
+		for (int i = 1; i < count && sorted; i++) {
+			if (keyOf(items[i], keys) < keyOf(items[i - 1], keys))
+				sorted = false;
+		}
+		if (sorted)
+			return;
+
+		int[] from = items;
+		int[] to = new int[count];
+		for (int width = 1; width < count; width <<= 1) {
+			for (int lo = 0; lo < count; lo += width << 1) {
+				int mid = Math.min(lo + width, count);
+				int hi = Math.min(lo + (width << 1), count);
+				int i = lo;
+				int j = mid;
+				int k = lo;
+				while (i < mid && j < hi) {
+					if (keyOf(from[j], keys) < keyOf(from[i], keys))
+						to[k++] = from[j++];
+					else
+						to[k++] = from[i++];
+				}
+				while (i < mid)
+					to[k++] = from[i++];
+				while (j < hi)
+					to[k++] = from[j++];
+			}
+			int[] tmp = from;
+			from = to;
+			to = tmp;
+		}
+		if (from != items)
+			System.arraycopy(from, 0, items, 0, count);
+	}
+
+	private static int keyOf(int item, int[] keys) {
+		return keys != null ? keys[item] : item;
+	}
+
+	/**
+	 * The spans of one kind, sorted by start and kept as an implicit
+	 * binary search tree: the node of a range is its middle, and holds the
+	 * largest end in the range. A query skips every range that ends before
+	 * it, or starts after it, so it costs O(log n + k) for k spans found.
+	 */
+	private static final class SpanIndex {
+		final Class<?> kind;
+		final int count;
+		// index in mSpans, start and end of each span, sorted by start
+		final int[] spans;
+		final int[] starts;
+		final int[] ends;
+		// largest end in the range whose middle is the span
+		final int[] maxEnds;
+		// the ends, sorted, and the node of each
+		final int[] sortedEnds;
+		final int[] sortedEndNodes;
+		// the node of each index in mSpans, or -1
+		final int[] nodeOf;
+		// the nodes of the spans moved since the index was built, which
+		// queries skip, and the indexes in mSpans of the spans moved or
+		// added, which queries check one by one
+		final boolean[] detached;
+		final int[] extra;
+		int extraCount;
+
+		SpanIndex(Class<?> kind, int count, int spanCount) {
+			this.kind = kind;
+			this.count = count;
+			spans = new int[count];
+			starts = new int[count];
+			ends = new int[count];
+			maxEnds = new int[count];
+			sortedEnds = new int[count];
+			sortedEndNodes = new int[count];
+			nodeOf = new int[spanCount];
+			for (int i = 0; i < spanCount; i++)
+				nodeOf[i] = -1;
+			detached = new boolean[count];
+			extra = new int[Math.max(MIN_EXTRA, count >> 3)];
+		}
+
+		// like getSpans(), spans that are null match any kind
+		static boolean matches(Class<?> kind, Object span) {
+			return kind == Object.class || span == null || kind.isInstance(span);
+		}
+
+		// the overlap test of getSpans()
+		static boolean overlaps(int spanStart, int spanEnd, int queryStart, int queryEnd) {
+			return spanStart <= queryEnd && spanEnd >= queryStart
+					&& (spanStart == spanEnd || queryStart == queryEnd
+							|| (spanStart != queryEnd && spanEnd != queryStart));
+		}
+
+		/**
+		 * Sets aside the span at <code>i</code> in mSpans, whose position
+		 * changed or which is new, or returns false if there is no room
+		 * left and the index must be built again.
+		 */
+		boolean detach(int i) {
+			for (int n = 0; n < extraCount; n++) {
+				if (extra[n] == i)
+					return true;
+			}
+			if (extraCount == extra.length)
+				return false;
+			if (i < nodeOf.length && nodeOf[i] >= 0)
+				detached[nodeOf[i]] = true;
+			extra[extraCount++] = i;
+			return true;
+		}
+
+		int computeMaxEnds(int lo, int hi) {
+			if (lo >= hi)
+				return Integer.MIN_VALUE;
+			int mid = (lo + hi) >>> 1;
+			int max = Math.max(ends[mid],
+					Math.max(computeMaxEnds(lo, mid), computeMaxEnds(mid + 1, hi)));
+			maxEnds[mid] = max;
+			return max;
+		}
+
+		/**
+		 * Adds to <code>found</code> the spans in the range
+		 * <code>lo</code> to <code>hi</code> that getSpans() returns for
+		 * the query, and returns the new count.
+		 */
+		int collect(int lo, int hi, int queryStart, int queryEnd, int[] found, int count) {
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (maxEnds[mid] < queryStart)
+					return count;
+				count = collect(lo, mid, queryStart, queryEnd, found, count);
+
+				// a span set aside still has its old place in the tree,
+				// which keeps the ranges and their largest ends valid
+				if (starts[mid] > queryEnd)
+					return count;
+				if (!detached[mid] && overlaps(starts[mid], ends[mid], queryStart, queryEnd))
+					found[count++] = spans[mid];
+				lo = mid + 1;
+			}
+			return count;
+		}
+
+		/**
+		 * Same as {@link SpannableStringBuilder#nextSpanTransition} for
+		 * the spans in the tree of the index.
+		 */
+		int nextTransition(int start, int limit) {
+			int st = firstAfter(starts, start);
+			while (st < count && detached[st])
+				st++;
+			if (st < count && starts[st] < limit)
+				limit = starts[st];
+			int en = firstAfter(sortedEnds, start);
+			while (en < count && detached[sortedEndNodes[en]])
+				en++;
+			if (en < count && sortedEnds[en] < limit)
+				limit = sortedEnds[en];
+			return limit;
+		}
+
+		// the first of the sorted values that is above where
+		private int firstAfter(int[] values, int where) {
+			int lo = 0;
+			int hi = count;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (values[mid] > where)
+					hi = mid;
+				else
+					lo = mid + 1;
+			}
+			return lo;
+		}
+	}
+
 	/**
 	 * Return a new CharSequence containing a copy of the specified
 	 * range of this buffer, including the overlapping spans.
@@ -1139,6 +1497,16 @@ public class SpannableStringBuilder implements CharSequence, Editable {
 	private int[] mSpanFlags;
 	private int mSpanCount;
 
+	// getSpans() and nextSpanTransition() use an index per kind of span
+	// once there are this many spans, see getSpanIndex(). Not final only
+	// so that SpannableStringBuilderBenchmark can compare both ways.
+	/* package */ static int sIndexThreshold = 16;
+	// spans an index sets aside before it is built again, at least
+	private static final int MIN_EXTRA = 8;
+	private SpanIndex[] mSpanIndexes;
+	private int mSpanIndexCount;
+	private int[] mQueryResult;
+
 	private static final int MARK = 1;
 	private static final int POINT = 2;
 	private static final int PARAGRAPH = 3;
@@ -23,6 +23,7 @@ import android.content.Context;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 //import android.content.res.CompatibilityInfo.Translator;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.PixelFormat;
 import android.graphics.PorterDuff;
@@ -34,6 +35,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.RemoteException;
 import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.os.ParcelFileDescriptor;
 import android.util.AttributeSet;
 import android.util.Config;
@@ -167,6 +169,22 @@ public class SurfaceView extends View {
     boolean mReportDrawNeeded;
     //private Translator mTranslator;
 
+    // The surface is double buffered: lockCanvas() hands out a canvas on
+    // mBackBuffer, and unlockCanvasAndPost() copies the changed part of it to
+    // mSurfaceElement on the next animation frame, so the element never shows
+    // a frame that is half drawn.
+    Object mSurfaceElement;
+    Bitmap mBackBuffer;
+    Canvas mBackBufferCanvas;
+    int mBackBufferSaveCount = -1;
+    final Rect mLockedDirty = new Rect();
+    // union of the dirty rectangles posted since the last present
+    final Rect mPendingDirty = new Rect();
+    boolean mPresentPending = false;
+    // see setSpriteBatching()
+    boolean mSpriteBatching =
+            SystemProperties.getBoolean(Canvas.SPRITE_BATCHING_PROPERTY, false);
+
     public SurfaceView(Context context) {
         super(context);
         init();
@@ -274,6 +292,7 @@ public class SurfaceView extends View {
         mRequestedVisible = false;
         updateWindow(false, false);
         mHaveFrame = false;
+        releaseBackBuffer();
         if (mWindow != null) {
             /*try {
                 mSession.remove(mWindow);
@@ -566,6 +585,7 @@ public class SurfaceView extends View {
                         }
                     } else {
                         mSurface.release();
+                        releaseBackBuffer();
                     }
                 } finally {
                     mIsCreating = false;
@@ -599,6 +619,183 @@ public class SurfaceView extends View {
         super.onDetachedFromWindow();
     }
 
+    /**
+     * Returns the canvas on the back buffer, clipped to <code>dirty</code>,
+     * or null if the surface cannot be drawn yet. The back buffer keeps its
+     * pixels between frames, so that only the dirty part has to be drawn
+     * again. If the back buffer had to be created, <code>dirty</code> is set
+     * to the whole surface.
+     */
+    Canvas lockBackBuffer(Rect dirty) {
+        ViewRoot viewRoot = (ViewRoot) getRootView().getParent();
+        if (viewRoot == null) {
+            return null;
+        }
+        final int width = getWidth();
+        final int height = getHeight();
+        if (width <= 0 || height <= 0 || !attachSurfaceElement(viewRoot.getCanvasId(), width, height)) {
+            return null;
+        }
+
+        boolean created = false;
+        if (mBackBuffer == null || mBackBuffer.getWidth() != width
+                || mBackBuffer.getHeight() != height) {
+            releaseBackBuffer();
+            mBackBuffer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mBackBufferCanvas = new Canvas(mBackBuffer);
+            mBackBufferCanvas.setSpriteBatching(mSpriteBatching);
+            created = true;
+        }
+
+        if (dirty == null || created) {
+            mLockedDirty.set(0, 0, width, height);
+            if (dirty != null) {
+                dirty.set(mLockedDirty);
+            }
+        } else {
+            mLockedDirty.set(dirty);
+            if (!mLockedDirty.intersect(0, 0, width, height)) {
+                mLockedDirty.setEmpty();
+            }
+        }
+
+        Canvas canvas = mBackBufferCanvas;
+        if (mBackBufferSaveCount > 0) {
+            // the last frame was never posted
+            canvas.restoreToCount(mBackBufferSaveCount);
+        }
+        mBackBufferSaveCount = canvas.save();
+        canvas.clipRect(mLockedDirty);
+        return canvas;
+    }
+
+    /**
+     * Finishes the frame drawn into the canvas returned by
+     * {@link #lockBackBuffer}, and schedules its present. Frames posted
+     * faster than the display refreshes are merged into one present.
+     */
+    void postBackBuffer(Canvas canvas) {
+        if (canvas == null || canvas != mBackBufferCanvas) {
+            return;
+        }
+        if (mBackBufferSaveCount > 0) {
+            canvas.restoreToCount(mBackBufferSaveCount);
+            mBackBufferSaveCount = -1;
+        }
+        canvas.flushSprites();
+        mPendingDirty.union(mLockedDirty);
+        if (!mPresentPending && !mPendingDirty.isEmpty()) {
+            mPresentPending = true;
+            /**
+             * @j2sNative
+             * var self = this;
+             * var present = function() {
+             *     self.presentBackBuffer();
+             * };
+             * if (window.requestAnimationFrame != null) {
+             *     window.requestAnimationFrame(present);
+             * } else {
+             *     window.setTimeout(present, 16);
+             * }
+             */{}
+        }
+    }
+
+    /**
+     * Copies the pending dirty rectangle of the back buffer to the surface
+     * element. Called on the animation frame following a post.
+     */
+    private void presentBackBuffer() {
+        mPresentPending = false;
+        if (mBackBuffer == null || mSurfaceElement == null || mPendingDirty.isEmpty()) {
+            return;
+        }
+        Object source = mBackBuffer.getDrawingSource();
+        Object element = mSurfaceElement;
+        final int left = mPendingDirty.left;
+        final int top = mPendingDirty.top;
+        final int width = mPendingDirty.width();
+        final int height = mPendingDirty.height();
+        mPendingDirty.setEmpty();
+        /**
+         * @j2sNative
+         * if (source != null) {
+         *     var context = element.getContext("2d");
+         *     context.clearRect(left, top, width, height);
+         *     context.drawImage(source, left, top, width, height, left, top, width, height);
+         * }
+         */{}
+    }
+
+    /**
+     * Finds or creates the canvas element showing the surface, above the
+     * canvas of the window, and places it over this view. The element is
+     * only resized when the size changes, since resizing clears it.
+     *
+     * @return false if the canvas of the window is not in the document
+     */
+    private boolean attachSurfaceElement(String windowCanvasId, int width, int height) {
+        String id = windowCanvasId + "-SurfaceView";
+        String zIndex = String.valueOf(getZIndex() + 1);
+        String left = getLeft() + "px";
+        String top = getTop() + "px";
+        Object element = mSurfaceElement;
+        /**
+         * @j2sNative
+         * if (element == null || element.id != id) {
+         *     element = document.getElementById(id);
+         *     if (element == null) {
+         *         element = document.createElement('canvas');
+         *         element.id = id;
+         *         element.style.position = 'absolute';
+         *     }
+         *     this.mSurfaceElement = element;
+         * }
+         * if (element.style.zIndex != zIndex) element.style.zIndex = zIndex;
+         * if (element.style.left != left) element.style.left = left;
+         * if (element.style.top != top) element.style.top = top;
+         * if (element.width != width) element.width = width;
+         * if (element.height != height) element.height = height;
+         * if (element.parentNode == null) {
+         *     var windowCanvas = document.getElementById(windowCanvasId);
+         *     if (windowCanvas == null) {
+         *         return false;
+         *     }
+         *     windowCanvas.parentNode.appendChild(element);
+         * }
+         */{}
+        return true;
+    }
+
+    private void releaseBackBuffer() {
+        if (mBackBufferCanvas != null) {
+            // drops it from the sprite batch
+            mBackBufferCanvas.setSpriteBatching(false);
+        }
+        if (mBackBuffer != null) {
+            mBackBuffer.recycle();
+            mBackBuffer = null;
+        }
+        mBackBufferCanvas = null;
+        mBackBufferSaveCount = -1;
+        mPendingDirty.setEmpty();
+    }
+
+    /**
+     * Turns sprite batching on or off for the canvases returned by
+     * lockCanvas(), see {@link Canvas#setSpriteBatching}. Games drawing many
+     * bitmaps per frame gain the most from it. It starts as the system
+     * property {@link Canvas#SPRITE_BATCHING_PROPERTY} says.
+     *
+     * @hide
+     */
+    public void setSpriteBatching(boolean batching) {
+        mSpriteBatching = batching;
+        if (mBackBufferCanvas != null) {
+            mBackBufferCanvas.setSpriteBatching(batching);
+        }
+    }
+
     void handleGetNewSurface() {
         mNewSurfaceNeeded = true;
         updateWindow(false, false);
@@ -765,7 +962,7 @@ public class SurfaceView extends View {
         }
 
         public Canvas lockCanvas() {
-        	return lockCanvas(new Rect(0, 0, getRight() - getLeft(), getBottom() - getTop()));
+            return lockBackBuffer(null);
 
         	//ViewRoot viewRoot = (ViewRoot) getRootView().getParent();
         	/**
@@ -780,47 +977,7 @@ public class SurfaceView extends View {
         }
 
         public Canvas lockCanvas(Rect dirty) {
-        	try{
-        		ViewRoot viewRoot = (ViewRoot) getRootView().getParent();
-        		if(viewRoot==null){
-        			return null;
-        		}
-                String surfaceViewCanvasID = viewRoot.getCanvasId() + "-SurfaceView";
-                int zInx= SurfaceView.this.getZIndex()+1;
-            	/**
-            	 * @j2sNative
-            	 * var canvas = document.getElementById(surfaceViewCanvasID);
-            	 * if (canvas == null) {
-            	 * 	canvas = document.createElement('canvas');
-            	 * 	canvas.id = surfaceViewCanvasID;
-            	 * 	canvas.style.zIndex = zInx;//2147483647; // Maximum z-index value of most browsers
-            	 * 	canvas.style.position = 'absolute';
-            	 * }
-            	 * if(dirty != null) {
-            	 * canvas.style.left = this.b$["android.view.SurfaceView"].getLeft() + dirty.left + 'px';
-            	 * canvas.style.top = this.b$["android.view.SurfaceView"].getTop() + dirty.top + 'px';
-            	 * canvas.width = dirty.width();
-            	 * canvas.height = dirty.height();
-            	 * }
-            	 * else {
-            	 * canvas.style.left = this.b$["android.view.SurfaceView"].getLeft() + 'px';
-            	 * canvas.style.top = this.b$["android.view.SurfaceView"].getTop()  + 'px';
-            	 * canvas.width = this.b$["android.view.SurfaceView"].getWidth();
-            	 * canvas.height = this.b$["android.view.SurfaceView"].getHeight();
-            	 * }
-            	 *
-            	 * try{
-            	 * document.getElementById(viewRoot.getCanvasId()).parentNode.appendChild(canvas);
-            	 * }catch(e){
-            	 *    return null;
-            	 * }
-            	 */ {}
-            	Canvas c = new Canvas(null, surfaceViewCanvasID);
-            	c.chooseCanvas(Canvas.SURFACEVIEW_CANVAS);
-            	return c;
-        	}catch(Exception e){
-        		return null;
-        	}
+            return lockBackBuffer(dirty);
             //return internalLockCanvas(dirty);
         }
 
@@ -871,11 +1028,7 @@ public class SurfaceView extends View {
         public void unlockCanvasAndPost(Canvas canvas) {
             //mSurface.unlockCanvasAndPost(canvas);
             //mSurfaceLock.unlock();
-
-        	ViewRoot viewRoot = (ViewRoot) getRootView().getParent();
-        	if(viewRoot==null){
-        		return;
-        	}
+            postBackBuffer(canvas);
         }
 
         public Surface getSurface() {
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Locale;
 import java.util.WeakHashMap;
 import android.content.Context;
+import android.content.res.DrawableCache;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
@@ -1213,6 +1214,11 @@ public class View implements Drawable.Callback, KeyEvent.Callback {
 	private Resources mResources = null;
 
 	private Drawable mBGDrawable = null;
+	/**
+	 * The state of the background pinned in DrawableCache while attached, kept
+	 * since mutate() may give the background a state of its own meanwhile
+	 */
+	private Drawable.ConstantState mPinnedBGState;
 	
     private int mBackgroundResource;
     private boolean mBackgroundSizeChanged;
@@ -1767,6 +1773,9 @@ public class View implements Drawable.Callback, KeyEvent.Callback {
         if (mBGDrawable != null) {
             mBGDrawable.setCallback(null);
             unscheduleDrawable(mBGDrawable);
+            if (mAttachInfo != null) {
+                unpinBackground();
+            }
         }
 
         if (d != null) {
@@ -1788,6 +1797,9 @@ public class View implements Drawable.Callback, KeyEvent.Callback {
             }
             d.setVisible(getVisibility() == VISIBLE, false);
             mBGDrawable = d;
+            if (mAttachInfo != null) {
+                pinBackground();
+            }
 
             if ((mPrivateFlags & SKIP_DRAW) != 0) {
                 mPrivateFlags &= ~SKIP_DRAW;
@@ -5319,6 +5331,10 @@ public class View implements Drawable.Callback, KeyEvent.Callback {
 			mPrivateFlags |= SCROLL_CONTAINER_ADDED;
 		}
 		performCollectViewAttributes(visibility);
+		if (mBGDrawable != null) {
+			// keep the on-screen background decoded
+			pinBackground();
+		}
 		onAttachedToWindow();
         int vis = info.mWindowVisibility;
         if (vis != GONE) {
@@ -5352,8 +5368,23 @@ public class View implements Drawable.Callback, KeyEvent.Callback {
         return mScrollCache != null &&
                 awakenScrollBars(mScrollCache.scrollBarDefaultDelayBeforeFade * 4, true);
     }
+
+    private void pinBackground() {
+        unpinBackground();
+        mPinnedBGState = mBGDrawable.getConstantState();
+        DrawableCache.pin(mPinnedBGState);
+    }
+
+    private void unpinBackground() {
+        if (mPinnedBGState != null) {
+            DrawableCache.unpin(mPinnedBGState);
+            mPinnedBGState = null;
+        }
+    }
+
 	void dispatchDetachedFromWindow() {
 		onDetachedFromWindow();
+		unpinBackground();
 		if ((mPrivateFlags & SCROLL_CONTAINER_ADDED) != 0) {
 			mAttachInfo.mScrollContainers.remove(this);
 			mPrivateFlags &= ~SCROLL_CONTAINER_ADDED;
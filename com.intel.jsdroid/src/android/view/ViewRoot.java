@@ -45,6 +45,7 @@ import android.os.Message;
 import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.SparseArray;
@@ -134,6 +135,17 @@ public final class ViewRoot extends Handler implements ViewParent, View.AttachIn
 		return "_AppCanvas";
 	}
 
+    /**
+     * Turns sprite batching on or off for the canvas of this window, see
+     * {@link Canvas#setSpriteBatching}. It starts as the system property
+     * {@link Canvas#SPRITE_BATCHING_PROPERTY} says.
+     *
+     * @hide
+     */
+    public void setSpriteBatching(boolean batching) {
+        mCanvas.setSpriteBatching(batching);
+    }
+
 	public String getCanvasId() {
 		return getViewRootID() + getCanvasSuffix();
 	}
@@ -206,6 +218,8 @@ public final class ViewRoot extends Handler implements ViewParent, View.AttachIn
 		 */{}
         attachHandlerToView(this.mViewRootID);
         mCanvas = new Canvas(this.getCanvasId());
+        mCanvas.setSpriteBatching(
+                SystemProperties.getBoolean(Canvas.SPRITE_BATCHING_PROPERTY, false));
         viewRootList.add(this);
         /**
          * @j2sNative
@@ -1678,6 +1692,7 @@ public final class ViewRoot extends Handler implements ViewParent, View.AttachIn
             } finally {
                 mAttachInfo.mIgnoreDirtyState = false;
                 canvas.restoreToCount(saveCount);
+                canvas.flushSprites();
             }
         }
         long over = System.currentTimeMillis();
@@ -214,6 +214,19 @@ public abstract class Buffer {
      */
     public abstract boolean isDirect();
 
+    /**
+     * Returns a typed array over the remaining elements, e.g. an Int16Array
+     * for a short buffer, for handing them to the browser. It shares the
+     * storage of the buffer when the elements are stored in native order,
+     * and is a copy otherwise.
+     *
+     * @return the typed array, or null if the buffer has no typed form
+     * @hide
+     */
+    public Object getTypedArray() {
+        return null;
+    }
+
     /**
      * Indicates whether this buffer is read-only.
      *
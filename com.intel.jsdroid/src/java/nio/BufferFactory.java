@@ -138,8 +138,10 @@ final class BufferFactory {
      * @return A new array based float buffer with the specified capacity.
      */
     public static FloatBuffer newFloatBuffer(int capacity) {
-        //return new ReadWriteFloatArrayBuffer(capacity);
-        return null;
+        // a float array cannot be shared with WebGL, so the floats are
+        // stored in native order in a byte buffer instead
+        return newByteBuffer(capacity << 2).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
     }
 
     /**
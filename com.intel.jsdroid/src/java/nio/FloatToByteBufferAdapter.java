@@ -44,6 +44,19 @@ final class FloatToByteBufferAdapter extends FloatBuffer /*implements
         super((byteBuffer.capacity() >> 2));
         this.byteBuffer = byteBuffer;
         this.byteBuffer.clear();
+        if (byteBuffer.order() == ByteOrder.nativeOrder()) {
+            int length = capacity;
+            /**
+             * @j2sNative
+             * // elements in native order are accessed through a typed array
+             * // over the storage, rather than with a DataView call each
+             * var bytes = byteBuffer.backingArray;
+             * if (byteBuffer.offset % 4 == 0) {
+             *     this._view = new Float32Array(bytes.buffer, byteBuffer.offset, length);
+             *     this._bytes = bytes;
+             * }
+             */{}
+        }
     }
 
     public int getByteCapacity() {
@@ -138,7 +151,12 @@ final class FloatToByteBufferAdapter extends FloatBuffer /*implements
         if (position == limit) {
             throw new BufferUnderflowException();
         }
-        return byteBuffer.getFloat(position++ << 2);
+        int index = position++;
+        /**
+         * @j2sNative
+         * if (this._view != null) return this._view[index];
+         */{}
+        return byteBuffer.getFloat(index << 2);
     }
 
     @Override
@@ -146,6 +164,10 @@ final class FloatToByteBufferAdapter extends FloatBuffer /*implements
         if (index < 0 || index >= limit) {
             throw new IndexOutOfBoundsException();
         }
+        /**
+         * @j2sNative
+         * if (this._view != null) return this._view[index];
+         */{}
         return byteBuffer.getFloat(index << 2);
     }
 
@@ -184,7 +206,16 @@ final class FloatToByteBufferAdapter extends FloatBuffer /*implements
         if (position == limit) {
             throw new BufferOverflowException();
         }
-        byteBuffer.putFloat(position++ << 2, c);
+        int index = position++;
+        /**
+         * @j2sNative
+         * if (this._view != null) {
+         *     this._view[index] = c;
+         *     this._bytes._version++;
+         *     return this;
+         * }
+         */{}
+        byteBuffer.putFloat(index << 2, c);
         return this;
     }
 
@@ -193,24 +224,84 @@ final class FloatToByteBufferAdapter extends FloatBuffer /*implements
         if (index < 0 || index >= limit) {
             throw new IndexOutOfBoundsException();
         }
+        /**
+         * @j2sNative
+         * if (this._view != null) {
+         *     this._view[index] = c;
+         *     this._bytes._version++;
+         *     return this;
+         * }
+         */{}
         byteBuffer.putFloat(index << 2, c);
         return this;
     }
 
-    // BEGIN android-added
     @Override
-    public FloatBuffer put(float[] c, int off, int len) {
-//        if (byteBuffer instanceof ReadWriteDirectByteBuffer) {
-//            byteBuffer.limit(limit << 2);
-//            byteBuffer.position(position << 2);
-//            ((ReadWriteDirectByteBuffer) byteBuffer).put(c, off, len);
-//            this.position += len;
-//            return this;
-//        } else {
-            return super.put(c, off, len);
-//        }
+    public FloatBuffer get(float[] dst, int off, int len) {
+        if (off < 0 || len < 0 || (long) off + (long) len > dst.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len > remaining()) {
+            throw new BufferUnderflowException();
+        }
+        int start = position;
+        /**
+         * @j2sNative
+         * var view = this._view;
+         * if (view != null) {
+         *     if (dst instanceof Float32Array) {
+         *         dst.set(view.subarray(start, start + len), off);
+         *     } else {
+         *         for (var i = 0; i < len; i++) {
+         *             dst[off + i] = view[start + i];
+         *         }
+         *     }
+         *     this.position(start + len);
+         *     return this;
+         * }
+         */{}
+        return super.get(dst, off, len);
+    }
+
+    @Override
+    public FloatBuffer put(float[] src, int off, int len) {
+        if (off < 0 || len < 0 || (long) off + (long) len > src.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len > remaining()) {
+            throw new BufferOverflowException();
+        }
+        int start = position;
+        /**
+         * @j2sNative
+         * var view = this._view;
+         * if (view != null) {
+         *     view.set(off == 0 && len == src.length ? src : src.slice(off, off + len), start);
+         *     this._bytes._version++;
+         *     this.position(start + len);
+         *     return this;
+         * }
+         */{}
+        return super.put(src, off, len);
+    }
+
+    @Override
+    public Object getTypedArray() {
+        int start = position;
+        int end = limit;
+        /**
+         * @j2sNative
+         * if (this._view != null) {
+         *     return this._view.subarray(start, end);
+         * }
+         * var array = new Float32Array(end - start);
+         * for (var i = 0; i < array.length; i++) {
+         *     array[i] = this.byteBuffer.getFloat((start + i) << 2);
+         * }
+         * return array;
+         */{}
+        return null;
     }
-    // END android-added
 
 
     @Override
@@ -43,6 +43,8 @@ abstract class HeapByteBuffer extends BaseByteBuffer {
         /**
          * @j2sNative
          * this.backingArray = new DataView(new ArrayBuffer(capacity));
+         * // counts the writes, so that GLES20 uploads the storage only once it changed
+         * this.backingArray._version = 0;
          */{}
          this.offset = 0;
     }
@@ -52,11 +54,10 @@ abstract class HeapByteBuffer extends BaseByteBuffer {
 
         /**
          * @j2sNative
-         * this.backingArray = new DataView(new ArrayBuffer(backingArray.length));
-         * for (var i = 0; i < backingArray.length; i++) {
-         *     var value = backingArray[i];
-         *     this.backingArray.setInt8(i, value);
-         * }
+         * var buffer = new ArrayBuffer(backingArray.length);
+         * new Int8Array(buffer).set(backingArray);
+         * this.backingArray = new DataView(buffer);
+         * this.backingArray._version = 0;
          */{}
 
         this.offset = offset;
@@ -98,10 +99,16 @@ abstract class HeapByteBuffer extends BaseByteBuffer {
             throw new BufferUnderflowException();
         }
 
+        int start = offset + position;
         /**
          * @j2sNative
-         * for (var i = 0; i < len; i++) {
-         *     dst[off + i] = this.backingArray.getInt8(this.offset + this.position() + i);
+         * var src = new Int8Array(this.backingArray.buffer, start, len);
+         * if (dst instanceof Int8Array) {
+         *     dst.set(src, off);
+         * } else {
+         *     for (var i = 0; i < len; i++) {
+         *         dst[off + i] = src[i];
+         *     }
          * }
          */{}
 
@@ -109,6 +116,17 @@ abstract class HeapByteBuffer extends BaseByteBuffer {
         return this;
     }
 
+    @Override
+    public final Object getTypedArray() {
+        int start = offset + position;
+        int length = remaining();
+        /**
+         * @j2sNative
+         * return new Int8Array(this.backingArray.buffer, start, length);
+         */{}
+        return null;
+    }
+
     @Override
     public final byte get() {
         if (position == limit) {
@@ -325,6 +343,10 @@ abstract class HeapByteBuffer extends BaseByteBuffer {
 
     protected final void storeInt(int index, int value) {
         int baseOffset = offset + index;
+        /**
+         * @j2sNative
+         * this.backingArray._version++;
+         */{}
         if (order == ByteOrder.BIG_ENDIAN) {
             /**
              * @j2sNative
@@ -340,6 +362,10 @@ abstract class HeapByteBuffer extends BaseByteBuffer {
 
     protected final void storeLong(int index, long value) {
         int baseOffset = offset + index;
+        /**
+         * @j2sNative
+         * this.backingArray._version++;
+         */{}
         if (order == ByteOrder.BIG_ENDIAN) {
             /**
              * @j2sNative
@@ -357,6 +383,10 @@ abstract class HeapByteBuffer extends BaseByteBuffer {
 
     protected final void storeShort(int index, short value) {
         int baseOffset = offset + index;
+        /**
+         * @j2sNative
+         * this.backingArray._version++;
+         */{}
         if (order == ByteOrder.BIG_ENDIAN) {
             /**
              * @j2sNative
@@ -372,6 +402,10 @@ abstract class HeapByteBuffer extends BaseByteBuffer {
     
     protected final void storeDouble(int index, double value) {
         int baseOffset = offset + index;
+        /**
+         * @j2sNative
+         * this.backingArray._version++;
+         */{}
         if (order == ByteOrder.BIG_ENDIAN) {
             /**
              * @j2sNative
@@ -387,6 +421,10 @@ abstract class HeapByteBuffer extends BaseByteBuffer {
     
     protected final void storeFloat(int index, float value) {
         int baseOffset = offset + index;
+        /**
+         * @j2sNative
+         * this.backingArray._version++;
+         */{}
         if (order == ByteOrder.BIG_ENDIAN) {
             /**
              * @j2sNative
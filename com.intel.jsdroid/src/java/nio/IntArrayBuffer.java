@@ -89,4 +89,15 @@ abstract class IntArrayBuffer extends IntBuffer {
         return ByteOrder.nativeOrder();
     }
 
+    @Override
+    public final Object getTypedArray() {
+        int start = offset + position;
+        int end = offset + limit;
+        /**
+         * @j2sNative
+         * return new Int32Array(this.backingArray.slice(start, end));
+         */{}
+        return null;
+    }
+
 }
@@ -59,13 +59,12 @@ final class ReadWriteHeapByteBuffer extends HeapByteBuffer {
 
     @Override
     public ByteBuffer compact() {
+        int start = offset + position;
+        int end = offset + limit;
         /**
          * @j2sNative
-         * var len = remaining();
-         * for (var i = 0; i < len; i++) {
-         *     var value = this.backingArray.getInt8(this.position() + this.offset + i);
-         *     this.backingArray.setInt8(this.offset + i, value);
-         * }
+         * new Int8Array(this.backingArray.buffer).copyWithin(this.offset, start, end);
+         * this.backingArray._version++;
          */{}
 
         position = limit - position;
@@ -89,8 +88,9 @@ final class ReadWriteHeapByteBuffer extends HeapByteBuffer {
         byte[] byteArray = new byte[this.capacity];
         /**
          * @j2sNative
-         * for (var i = 0; i < this.capacity; i++) {
-         *     byteArray[i] = this.backingArray.getInt8(i);
+         * var bytes = new Int8Array(this.backingArray.buffer, 0, byteArray.length);
+         * for (var i = 0; i < byteArray.length; i++) {
+         *     byteArray[i] = bytes[i];
          * }
          */{}
         return byteArray;
@@ -115,6 +115,7 @@ final class ReadWriteHeapByteBuffer extends HeapByteBuffer {
         /**
          * @j2sNative
          * this.backingArray.setInt8(this.offset + this.position(), b);
+         * this.backingArray._version++;
          */{}
          this.position++;
         return this;
@@ -129,6 +130,7 @@ final class ReadWriteHeapByteBuffer extends HeapByteBuffer {
         /**
          * @j2sNative
          * this.backingArray.setInt8(this.offset + index, b);
+         * this.backingArray._version++;
          */{}
         return this;
     }
@@ -152,11 +154,18 @@ final class ReadWriteHeapByteBuffer extends HeapByteBuffer {
             throw new ReadOnlyBufferException();
         }
 
+        int start = offset + position;
         /**
          * @j2sNative
-         * for (var i = 0; i < len; i++) {
-         *     this.backingArray.setInt8(this.offset + this.position() + i, src[off + i]);
+         * var dst = new Int8Array(this.backingArray.buffer, start, len);
+         * if (off == 0 && len == src.length) {
+         *     dst.set(src);
+         * } else {
+         *     for (var i = 0; i < len; i++) {
+         *         dst[i] = src[off + i];
+         *     }
          * }
+         * this.backingArray._version++;
          */{}
          
         position += len;
@@ -89,4 +89,15 @@ public abstract class ShortArrayBuffer extends ShortBuffer {
         return ByteOrder.nativeOrder();
     }
 
+    @Override
+    public final Object getTypedArray() {
+        int start = offset + position;
+        int end = offset + limit;
+        /**
+         * @j2sNative
+         * return new Int16Array(this.backingArray.slice(start, end));
+         */{}
+        return null;
+    }
+
 }
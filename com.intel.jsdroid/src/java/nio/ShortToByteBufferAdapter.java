@@ -44,6 +44,19 @@ final class ShortToByteBufferAdapter extends ShortBuffer /*implements
         super((byteBuffer.capacity() >> 1));
         this.byteBuffer = byteBuffer;
         this.byteBuffer.clear();
+        if (byteBuffer.order() == ByteOrder.nativeOrder()) {
+            int length = capacity;
+            /**
+             * @j2sNative
+             * // elements in native order are accessed through a typed array
+             * // over the storage, rather than with a DataView call each
+             * var bytes = byteBuffer.backingArray;
+             * if (byteBuffer.offset % 2 == 0) {
+             *     this._view = new Int16Array(bytes.buffer, byteBuffer.offset, length);
+             *     this._bytes = bytes;
+             * }
+             */{}
+        }
     }
 
     public int getByteCapacity() {
@@ -138,7 +151,12 @@ final class ShortToByteBufferAdapter extends ShortBuffer /*implements
         if (position == limit) {
             throw new BufferUnderflowException();
         }
-        return byteBuffer.getShort(position++ << 1);
+        int index = position++;
+        /**
+         * @j2sNative
+         * if (this._view != null) return this._view[index];
+         */{}
+        return byteBuffer.getShort(index << 1);
     }
 
     @Override
@@ -146,6 +164,10 @@ final class ShortToByteBufferAdapter extends ShortBuffer /*implements
         if (index < 0 || index >= limit) {
             throw new IndexOutOfBoundsException();
         }
+        /**
+         * @j2sNative
+         * if (this._view != null) return this._view[index];
+         */{}
         return byteBuffer.getShort(index << 1);
     }
 
@@ -184,7 +206,16 @@ final class ShortToByteBufferAdapter extends ShortBuffer /*implements
         if (position == limit) {
             throw new BufferOverflowException();
         }
-        byteBuffer.putShort(position++ << 1, c);
+        int index = position++;
+        /**
+         * @j2sNative
+         * if (this._view != null) {
+         *     this._view[index] = c;
+         *     this._bytes._version++;
+         *     return this;
+         * }
+         */{}
+        byteBuffer.putShort(index << 1, c);
         return this;
     }
 
@@ -193,24 +224,84 @@ final class ShortToByteBufferAdapter extends ShortBuffer /*implements
         if (index < 0 || index >= limit) {
             throw new IndexOutOfBoundsException();
         }
+        /**
+         * @j2sNative
+         * if (this._view != null) {
+         *     this._view[index] = c;
+         *     this._bytes._version++;
+         *     return this;
+         * }
+         */{}
         byteBuffer.putShort(index << 1, c);
         return this;
     }
 
-    // BEGIN android-added
     @Override
-    public ShortBuffer put(short[] s, int off, int len) {
-/*        if (byteBuffer instanceof ReadWriteDirectByteBuffer) {
-            byteBuffer.limit(limit << 1);
-            byteBuffer.position(position << 1);
-            ((ReadWriteDirectByteBuffer) byteBuffer).put(s, off, len);
-            this.position += len;
-            return this;
-        } else */{
-            return super.put(s, off, len);
+    public ShortBuffer get(short[] dst, int off, int len) {
+        if (off < 0 || len < 0 || (long) off + (long) len > dst.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len > remaining()) {
+            throw new BufferUnderflowException();
+        }
+        int start = position;
+        /**
+         * @j2sNative
+         * var view = this._view;
+         * if (view != null) {
+         *     if (dst instanceof Int16Array) {
+         *         dst.set(view.subarray(start, start + len), off);
+         *     } else {
+         *         for (var i = 0; i < len; i++) {
+         *             dst[off + i] = view[start + i];
+         *         }
+         *     }
+         *     this.position(start + len);
+         *     return this;
+         * }
+         */{}
+        return super.get(dst, off, len);
+    }
+
+    @Override
+    public ShortBuffer put(short[] src, int off, int len) {
+        if (off < 0 || len < 0 || (long) off + (long) len > src.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len > remaining()) {
+            throw new BufferOverflowException();
         }
+        int start = position;
+        /**
+         * @j2sNative
+         * var view = this._view;
+         * if (view != null) {
+         *     view.set(off == 0 && len == src.length ? src : src.slice(off, off + len), start);
+         *     this._bytes._version++;
+         *     this.position(start + len);
+         *     return this;
+         * }
+         */{}
+        return super.put(src, off, len);
+    }
+
+    @Override
+    public Object getTypedArray() {
+        int start = position;
+        int end = limit;
+        /**
+         * @j2sNative
+         * if (this._view != null) {
+         *     return this._view.subarray(start, end);
+         * }
+         * var array = new Int16Array(end - start);
+         * for (var i = 0; i < array.length; i++) {
+         *     array[i] = this.byteBuffer.getShort((start + i) << 1);
+         * }
+         * return array;
+         */{}
+        return null;
     }
-    // END android-added
 
     @Override
     public ShortBuffer slice() {